@@ -0,0 +1,58 @@
+package com.dropbox.android.sample;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Capture templates as configured in /capture-templates.json next to the
+ * org file, e.g.
+ *
+ * [{"name": "Inbox", "path": "/inbox.org"},
+ *  {"name": "Journal", "path": "/journal/{date:yyyy-MM}.org", "heading": "Entries"},
+ *  {"name": "By tag", "path": "/tags/{tag}.org"}]
+ */
+public class CaptureTemplateConfig {
+    static final String CONFIG_PATH = "/capture-templates.json";
+    private static final String SAMPLE_TITLE = "sample :tag:";
+
+    /** The templates in json; the default template if it holds none. */
+    public static List<OrgCaptureTemplate> parse(String json) throws ParseException {
+        List<OrgCaptureTemplate> templates = new ArrayList<>();
+        final Object parsed = new JSONParser().parse(json);
+        if (!(parsed instanceof JSONArray))
+            throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, parsed);
+        for (Object item : (JSONArray)parsed) {
+            if (!(item instanceof JSONObject))
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, item);
+            JSONObject template = (JSONObject)item;
+            final Object path = template.get("path");
+            final Object name = template.get("name");
+            final Object heading = template.get("heading");
+            if (!(path instanceof String))
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, template);
+            try {
+                OrgCaptureTemplate parsedTemplate = new OrgCaptureTemplate(
+                        name instanceof String ? (String)name : (String)path,
+                        (String)path, heading instanceof String ? (String)heading : null);
+                // Placeholders are only expanded at capture time; a bad one must fail here instead.
+                parsedTemplate.resolvePath(SAMPLE_TITLE, new Date());
+                templates.add(parsedTemplate);
+            } catch (IllegalArgumentException e) {
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, e.getMessage());
+            }
+        }
+        return templates.isEmpty() ? defaults() : templates;
+    }
+
+    public static List<OrgCaptureTemplate> defaults() {
+        List<OrgCaptureTemplate> templates = new ArrayList<>();
+        templates.add(OrgCaptureTemplate.defaultTemplate());
+        return templates;
+    }
+}
@@ -0,0 +1,202 @@
+package com.dropbox.android.sample;
+
+import com.dropbox.client2.DropboxAPI;
+import com.dropbox.client2.RESTUtility;
+import com.dropbox.client2.exception.DropboxException;
+import com.dropbox.client2.exception.DropboxServerException;
+import com.dropbox.client2.session.Session;
+
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.InputStreamEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class DropboxOrgStore implements OrgStore {
+    private static final int CHUNK_TIMEOUT_MS = 60 * 1000;
+
+    private final DropboxAPI<?> mApi;
+
+    public DropboxOrgStore(DropboxAPI<?> api) {
+        mApi = api;
+    }
+
+    @Override
+    public String getRev(String path) throws IOException {
+        try {
+            DropboxAPI.Entry entry = mApi.metadata(path, 1, null, false, null);
+            return entry.isDeleted ? null : entry.rev;
+        } catch (DropboxServerException e) {
+            if (e.error == DropboxServerException._404_NOT_FOUND)
+                return null;
+            throw new IOException(e);
+        } catch (DropboxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String awaitChange(String path, String knownRev, long timeoutMs) throws IOException {
+        // The v1 SDK only long-polls the whole account's delta, far more than one file needs.
+        return getRev(path);
+    }
+
+    @Override
+    public String read(String path, OutputStream out) throws IOException {
+        try {
+            DropboxAPI.DropboxFileInfo info = mApi.getFile(path, null, out, null);
+            return info.getMetadata().rev;
+        } catch (DropboxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String write(String path, InputStream in, long length, String parentRev,
+                        final ProgressListener listener) throws IOException {
+        // With autoRename off, a stale parent rev (or an existing file when
+        // parentRev is null) fails with 409 instead of making a conflicted copy.
+        try {
+            DropboxAPI.Entry response = mApi.putFile(path, in, length, parentRev, false,
+                    listener == null ? null : new com.dropbox.client2.ProgressListener() {
+                        @Override
+                        public void onProgress(long bytes, long total) {
+                            listener.onProgress(bytes, total);
+                        }
+                    });
+            return response.rev;
+        } catch (DropboxServerException e) {
+            if (e.error == DropboxServerException._409_CONFLICT)
+                throw new RevMismatchException(path, parentRev, null);
+            throw new IOException(e);
+        } catch (DropboxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public boolean canAppend() {
+        return false;
+    }
+
+    @Override
+    public String append(String path, InputStream in, long length) throws IOException {
+        throw new IOException("Dropbox has no append");
+    }
+
+    @Override
+    public boolean canReadRanges() {
+        return false;
+    }
+
+    @Override
+    public ChunkManifest readManifest(String path) throws IOException {
+        throw new IOException("Dropbox has no chunk manifests");
+    }
+
+    @Override
+    public String readRange(String path, long offset, long length, OutputStream out) throws IOException {
+        throw new IOException("Dropbox v1 SDK has no ranged reads");
+    }
+
+    @Override
+    public boolean canUploadChunks() {
+        return true;
+    }
+
+    @Override
+    public UploadStatus uploadChunk(String uploadId, long offset, InputStream in, long length) throws IOException {
+        // DropboxAPI.chunkedUploadRequest() returns a type only the SDK can use, so this
+        // makes the same request. A null upload_id is left out, which starts an upload.
+        Session session = mApi.getSession();
+        String[] params = {
+            "upload_id", uploadId,
+            "offset", Long.toString(offset),
+        };
+        HttpPut request = new HttpPut(RESTUtility.buildURL(session.getContentServer(), DropboxAPI.VERSION,
+                "/chunked_upload/", params));
+        session.sign(request);
+        InputStreamEntity entity = new InputStreamEntity(in, length);
+        entity.setContentType("application/octet-stream");
+        entity.setChunked(false);
+        request.setEntity(entity);
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> response = (Map<String, Object>)RESTUtility.parseAsJSON(
+                    RESTUtility.execute(session, request, CHUNK_TIMEOUT_MS));
+            return new UploadStatus((String)response.get("upload_id"), ((Number)response.get("offset")).longValue());
+        } catch (DropboxServerException e) {
+            // A wrong offset is answered with 400 and the offset the server has.
+            if (e.error == DropboxServerException._400_BAD_REQUEST && e.parsedResponse != null
+                    && e.parsedResponse.get("offset") instanceof Number)
+                throw new UploadOffsetException(uploadId, offset, ((Number)e.parsedResponse.get("offset")).longValue());
+            if (e.error == DropboxServerException._404_NOT_FOUND)
+                throw new UploadOffsetException(uploadId, offset, -1);
+            throw new IOException(e);
+        } catch (DropboxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String commitUpload(String path, String uploadId, String parentRev) throws IOException {
+        // The SDK only commits through its own ChunkedUploader, which cannot
+        // resume an upload it did not start, so this makes its request too.
+        Session session = mApi.getSession();
+        String[] params = {
+            "overwrite", "false",
+            "parent_rev", parentRev,
+            "autorename", "false",
+            "locale", session.getLocale().toString(),
+            "upload_id", uploadId,
+        };
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> response = (Map<String, Object>)RESTUtility.request(RESTUtility.RequestMethod.POST,
+                    session.getContentServer(), "/commit_chunked_upload/" + session.getAccessType() + path,
+                    DropboxAPI.VERSION, params, session);
+            return new DropboxAPI.Entry(response).rev;
+        } catch (DropboxServerException e) {
+            if (e.error == DropboxServerException._409_CONFLICT)
+                throw new RevMismatchException(path, parentRev, null);
+            throw new IOException(e);
+        } catch (DropboxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        List<String> paths = new ArrayList<>();
+        try {
+            DropboxAPI.Entry entry = mApi.metadata(folder, 0, null, true, null);
+            if (entry.contents != null) {
+                for (DropboxAPI.Entry child : entry.contents) {
+                    if (!child.isDir && !child.isDeleted)
+                        paths.add(child.path);
+                }
+            }
+        } catch (DropboxServerException e) {
+            if (e.error != DropboxServerException._404_NOT_FOUND)
+                throw new IOException(e);
+        } catch (DropboxException e) {
+            throw new IOException(e);
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        try {
+            mApi.delete(path);
+        } catch (DropboxException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -26,32 +26,50 @@
 package com.dropbox.android.sample;
 
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.ProgressDialog;
 import android.content.ClipData;
 import android.content.ClipboardManager;
-import android.content.ComponentName;
+import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
 import com.dropbox.client2.DropboxAPI;
 import com.dropbox.client2.android.AndroidAuthSession;
 import com.dropbox.client2.android.AuthActivity;
 import com.dropbox.client2.session.AccessTokenPair;
 import com.dropbox.client2.session.AppKeyPair;
 
-import com.dropbox.android.sample.OrgUtil.GetOrgContentTask;
 import com.dropbox.android.sample.OrgUtil.OrgData;
-import com.dropbox.android.sample.OrgUtil.UpdateOrgContentTask;
 
 public class OrgCapture extends Activity {
     private static final String TAG = "OrgCapture";
@@ -63,32 +81,88 @@ public class OrgCapture extends Activity {
     private static final String ORG_PREFS_NAME = "org_prefs";
     private static final String ORG_FILE_REV_NAME = "org_hash";
     private static final String ORG_FILE_CONTENT_NAME = "org_content";
-    private static final String TEMP_FILE_NAME = "/temp.txt";
-
+    static final String CAPTURE_TEMPLATES_FILE_NAME = "capture-templates.json";
+    private static final int SEARCH_RESULT_LIMIT = 200;
+    // Captures made within this window are coalesced into one upload.
+    private static final long CAPTURE_FLUSH_DELAY_MS = 1500;
+    private static final long SYNC_TIMEOUT_MS = 2 * 60 * 1000;
+    private static final long POLL_MIN_INTERVAL_MS = 15 * 1000;
+    private static final long POLL_MAX_INTERVAL_MS = 15 * 60 * 1000;
+    private static final long POLL_WAIT_MS = 30 * 1000;
+    private static final int MENU_STATS = 1;
+    private static final OrgMetrics.Timer sCaptureQueue = OrgMetrics.timer("capture.queue");
+    // From onCreate to the window first taking focus; compare startup.quick_capture.
+    private static final OrgMetrics.Timer sStartup = OrgMetrics.timer("startup.capture");
+
+    private OrgSession mSession;
     DropboxAPI<AndroidAuthSession> mApi;
+    private OrgStore mStore;
     private boolean mLoggedIn;
+    private OrgCache mOrgCache;
     private OrgData mOrgData;
+    private OrgSyncEngine mSyncEngine;
+    private OrgRevPoller mRevPoller;
+    private CaptureJournal mCaptureJournal;
+    private List<OrgCaptureTemplate> mTemplates = CaptureTemplateConfig.defaults();
+    // Loaded in the background, null until then; updated and queried on OrgSession.ORG_INDEX_FILE_NAME.
+    private OrgIndex mIndex;
+    private final List<OrgSyncScheduler.Handle> mSyncHandles = new ArrayList<>();
+    private final Handler mHandler = new Handler();
+    private ProgressDialog mProgressDialog;
+    private int mSavesInFlight = 0;
+    // sStartup start time, or -1 once recorded.
+    private long mStartupStart = -1;
+    private final Runnable mFlushCaptures = new Runnable() {
+        @Override
+        public void run() {
+            flushCaptures();
+        }
+    };
 
     // Android widgets
     private Button mSubmit;
     private LinearLayout mDisplay;
     private Button mCaptureButton;
     private Button mSaveDailyLogButton;
-    private EditText mOrgDailyEdit;
+    private ListView mDailyLogSections;
+    private OrgSectionAdapter mSectionAdapter;
     private EditText mCaptureTitle;
     private EditText mCaptureContent;
+    private EditText mSearchEdit;
+    private ListView mSearchResults;
+    private ArrayAdapter<OrgIndex.Hit> mSearchAdapter;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mStartupStart = sStartup.start();
 
-        mApi = new DropboxAPI<>(buildSession());
+        mSession = OrgSession.get(this);
+        mApi = mSession.getApi();
+        mStore = mSession.getStore();
 
         setContentView(R.layout.main);
 
         checkAppKeySetup();
 
-        mOrgData = loadOrgFileData();
+        mOrgCache = mSession.getOrgCache();
+        // Content kept in memory by an earlier instance or prewarmed by
+        // OrgSyncService is on screen at once; otherwise it comes from the cache file.
+        mOrgData = mSession.getLoadedData();
+        if (mOrgData == null)
+            mOrgData = loadOrgFileData();
+        mSyncEngine = mSession.engine(OrgUtil.ORG_PATH);
+        mRevPoller = new OrgRevPoller(mStore, OrgUtil.ORG_PATH, POLL_MIN_INTERVAL_MS,
+                POLL_MAX_INTERVAL_MS, POLL_WAIT_MS, OrgSession.mainThreadExecutor(),
+                new OrgRevPoller.OnRevChangedListener() {
+            @Override
+            public void onRevChanged(String path, String rev) {
+                fetchOrgContent();
+            }
+        });
+        mCaptureJournal = mSession.getCaptureJournal();
+        loadIndex();
+        loadTemplates();
 
         mSubmit = (Button)findViewById(R.id.auth_button);
         mSubmit.setOnClickListener(new OnClickListener() {
@@ -103,8 +177,61 @@ public class OrgCapture extends Activity {
 
         mDisplay = (LinearLayout)findViewById(R.id.logged_in_display);
 
-        mOrgDailyEdit = (EditText)findViewById(R.id.org_daily_edit);
-        mOrgDailyEdit.setText("...\n" + OrgUtil.GetOrgDailyLog(mOrgData.fileFullContent));
+        mSectionAdapter = new OrgSectionAdapter(this);
+        mDailyLogSections = (ListView)findViewById(R.id.org_daily_sections);
+        mDailyLogSections.setAdapter(mSectionAdapter);
+
+        mSearchAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1);
+        mSearchResults = (ListView)findViewById(R.id.org_search_results);
+        mSearchResults.setAdapter(mSearchAdapter);
+        mSearchResults.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                showSearchHit(mSearchAdapter.getItem(position));
+            }
+        });
+        mSearchEdit = (EditText)findViewById(R.id.org_search);
+        mSearchEdit.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                search();
+            }
+        });
+
+        if (mOrgData.fileFullContent != null) {
+            showDailyLog();
+        } else {
+            track(mSession.getScheduler().read(OrgSession.ORG_CACHE_FILE_NAME, "load", 0,
+                    new OrgSyncScheduler.Operation<OrgData>() {
+                @Override
+                public OrgData run(OrgSyncScheduler.Progress progress) {
+                    return mSyncEngine.loadCache();
+                }
+            }, new OrgSyncListener<OrgData>() {
+                @Override
+                public void onSyncSuccess(OrgData data) {
+                    // A sync may have replaced the cached data while we were loading.
+                    if (mOrgData.fileFullContent != null)
+                        return;
+                    mOrgData = data;
+                    onOrgDataChanged();
+                    showDailyLog();
+                }
+
+                @Override
+                public void onSyncFailure(Exception e) {
+                    Log.d(TAG, e.toString());
+                }
+            }));
+        }
         mCaptureTitle = (EditText)findViewById(R.id.capture_title);
         mCaptureContent = (EditText)findViewById(R.id.capture_content);
 
@@ -112,85 +239,424 @@ public class OrgCapture extends Activity {
         mCaptureButton.setOnClickListener(
             new OnClickListener() {
                 public void onClick(View view) {
-                    final String captureTitle = mCaptureTitle.getText().toString();
-                    final String captureContent = mCaptureContent.getText().toString();
-                    final String orgFileRev = mOrgData.rev;
-                    final String orgNewFileContent = OrgUtil.CreateOrgAddedContent(mOrgData.fileFullContent,
-                            captureTitle, captureContent);
-                    final String path = getFilesDir() + TEMP_FILE_NAME;
-
-                    UpdateOrgContentTask task = new UpdateOrgContentTask(path, mApi, OrgCapture.this, new OrgUtil.OnCompleteListener() {
-                        @Override
-                        public void onComplete(OrgData data) {
-                            if (data != null){
-                                mOrgData = data;
-                                storeOrgFileData(mOrgData);
-                                showToast("Capture updated.");
-                            } else {
-                                showToast("Capture update failed.");
-                            }
-
-                            final String dailyLog = OrgUtil.GetOrgDailyLog(mOrgData.fileFullContent);
-                            mOrgDailyEdit.setText(dailyLog);
-                            mOrgDailyEdit.setSelection(dailyLog.length());
-                        }
-                    });
-                    task.execute(orgFileRev, orgNewFileContent);
+                    final List<OrgCaptureTemplate> templates = mTemplates;
+                    if (templates.size() == 1) {
+                        capture(templates.get(0));
+                        return;
+                    }
+                    CharSequence[] names = new CharSequence[templates.size()];
+                    for (int i = 0; i < names.length; ++i) {
+                        names[i] = templates.get(i).name;
+                    }
+                    new AlertDialog.Builder(OrgCapture.this)
+                            .setTitle("Capture to")
+                            .setItems(names, new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialog, int which) {
+                                    capture(templates.get(which));
+                                }
+                            })
+                            .show();
                 }
             });
         mSaveDailyLogButton = (Button)findViewById(R.id.save_org_daily_log_button);
         mSaveDailyLogButton.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View view) {
-                final String newDailyLog = mOrgDailyEdit.getText().toString();
-                final String path = getFilesDir() + TEMP_FILE_NAME;
-                final String orgFileRev = mOrgData.rev;
-                final String orgNewFileContent =
-                        OrgUtil.GetRevisedDailyLog(mOrgData.fileFullContent, newDailyLog);
-                UpdateOrgContentTask task = new UpdateOrgContentTask(path, mApi, OrgCapture.this, new OrgUtil.OnCompleteListener() {
-                    @Override
-                    public void onComplete(OrgData data) {
-                        if (data != null){
-                            mOrgData = data;
-                            storeOrgFileData(mOrgData);
-                            showToast("Dailylog updated.");
-                        } else {
-                            showToast("Dailylog update failed.");
-                        }
-
-                        final String dailyLog = OrgUtil.GetOrgDailyLog(mOrgData.fileFullContent);
-                        mOrgDailyEdit.setText(dailyLog);
-                        mOrgDailyEdit.setSelection(dailyLog.length());
-                    }
-                });
-                task.execute(orgFileRev, orgNewFileContent);
+                final OrgSectionEditor editor = mSectionAdapter.getEditor();
+                if (editor == null) {
+                    showToast("Org file is still loading.");
+                    return;
+                }
+                saveDailyLog(editor);
             }
         });
 
         setLoggedIn(mApi.getSession().isLinked());
+        OrgSyncService.schedule(this);
 
         if (mLoggedIn) {
-            final String orgFileRev = mOrgData.rev;
-            final String localPath = getFilesDir() + TEMP_FILE_NAME;
-            GetOrgContentTask task = new GetOrgContentTask(localPath, mApi,
-                    new OrgUtil.OnCompleteListener() {
+            fetchOrgContent();
+            flushCaptures();
+        }
+    }
+
+    // Keeps handle for onDestroy to cancel. Handles that are done are dropped
+    // here, or their listeners would keep every version of the file alive.
+    private void track(OrgSyncScheduler.Handle handle) {
+        for (Iterator<OrgSyncScheduler.Handle> it = mSyncHandles.iterator(); it.hasNext(); ) {
+            if (it.next().isDone())
+                it.remove();
+        }
+        mSyncHandles.add(handle);
+    }
+
+    private void capture(OrgCaptureTemplate template) {
+        final String captureTitle = mCaptureTitle.getText().toString();
+        final String captureContent = mCaptureContent.getText().toString();
+        final String captureEntry = OrgUtil.CreateOrgCaptureEntry(captureTitle, captureContent);
+
+        final long start = sCaptureQueue.start();
+        try {
+            mCaptureJournal.append(template.resolvePath(captureTitle, new Date()), template.heading,
+                    captureEntry);
+            sCaptureQueue.stop(start);
+        } catch (IOException e) {
+            Log.d(TAG, e.toString());
+            showToast("Capture failed.");
+            return;
+        } catch (IllegalArgumentException e) {
+            // The template's path placeholders do not expand.
+            Log.d(TAG, e.toString());
+            showToast("Capture failed: bad template " + template + ".");
+            return;
+        }
+        showToast("Capture queued.");
+        scheduleCaptureFlush();
+    }
+
+    private void scheduleCaptureFlush() {
+        mHandler.removeCallbacks(mFlushCaptures);
+        mHandler.postDelayed(mFlushCaptures, CAPTURE_FLUSH_DELAY_MS);
+    }
+
+    /**
+     * Fetches the org file if it changed since the rev we have. The daily log
+     * on screen is only replaced if the user has not edited it.
+     */
+    private void fetchOrgContent() {
+        final String orgFileRev = mOrgData.rev;
+        track(mSession.getScheduler().read(OrgUtil.ORG_PATH, "fetch", SYNC_TIMEOUT_MS,
+                new OrgSyncScheduler.Operation<OrgData>() {
+            @Override
+            public OrgData run(OrgSyncScheduler.Progress progress) throws IOException {
+                return mSyncEngine.fetch(orgFileRev);
+            }
+        }, new OrgSyncListener<OrgData>() {
+            @Override
+            public void onSyncSuccess(OrgData data) {
+                final OrgSectionEditor editor = mSectionAdapter.getEditor();
+                final boolean edited = editor != null && editor.isEdited();
+                if (data != null)
+                {
+                    mOrgData = data;
+                    mRevPoller.setKnownRev(data.rev);
+                    onOrgDataChanged();
+                }
+                if (mOrgData.fileFullContent == null || edited)
+                    return;
+
+                showDailyLog();
+            }
+
+            @Override
+            public void onSyncFailure(Exception e) {
+                Log.d(TAG, e.toString());
+            }
+        }));
+    }
+
+    /** Puts the daily log of mOrgData on screen, keeping the sections that were expanded. */
+    private void showDailyLog() {
+        final OrgSectionEditor shown = mSectionAdapter.getEditor();
+        OrgSectionEditor editor = new OrgSectionEditor(mOrgData.rev, mOrgData.fileFullContent);
+        if (shown != null)
+            editor.expand(shown.expandedTitles());
+        mSectionAdapter.setEditor(editor);
+    }
+
+    /**
+     * Uploads the org file with the edited sections of the daily log spliced
+     * in. A save made while another is still queued replaces it. The edits
+     * are applied directly on top of our own uploads made since they were
+     * made, so back-to-back saves don't conflict; anything else is merged as
+     * usual.
+     */
+    private void saveDailyLog(final OrgSectionEditor editor) {
+        final OrgData orgData = mOrgData;
+        final int editCount = editor.getEditCount();
+        final OrgSectionEditor.Edits edits = editor.edits();
+        showProgressDialog();
+        ++mSavesInFlight;
+        track(mSession.getScheduler().coalesce(OrgUtil.ORG_PATH, "save", SYNC_TIMEOUT_MS,
+                new OrgSyncScheduler.Operation<OrgData>() {
+            @Override
+            public OrgData run(final OrgSyncScheduler.Progress progress) throws IOException {
+                OrgStore.ProgressListener listener = new OrgStore.ProgressListener() {
+                    @Override
+                    public void onProgress(long bytes, long total) {
+                        progress.publish((int)(100 * bytes / total));
+                    }
+                };
+                OrgData base = mSyncEngine.getSyncedDataSince(orgData.rev);
+                if (base == null)
+                    base = orgData;
+                final OrgDocument newContent = edits.applyTo(base.fileFullContent);
+                if (newContent == null) {
+                    // An edited section was renamed or removed since; merge against what was edited.
+                    return mSyncEngine.update(editor.getRev(), edits.applyTo(editor.getContent()),
+                            editor.getContent(), listener);
+                }
+                return mSyncEngine.update(base.rev, newContent, base.fileFullContent, listener);
+            }
+        }, new OrgSyncListener<OrgData>() {
+            @Override
+            public void onSyncSuccess(OrgData data) {
+                onSaveDone();
+                mOrgData = data;
+                mRevPoller.setKnownRev(data.rev);
+                onOrgDataChanged();
+                showToast("Dailylog updated.");
+
+                // Keep anything typed while the save was running.
+                if (mSectionAdapter.getEditor() != editor || editor.getEditCount() == editCount)
+                    showDailyLog();
+            }
+
+            @Override
+            public void onSyncFailure(Exception e) {
+                onSaveDone();
+                if (e instanceof OrgSyncEngine.ConflictException) {
+                    // Keep the edit on screen; saving again now applies it over the remote version.
+                    OrgSyncEngine.ConflictException conflict = (OrgSyncEngine.ConflictException)e;
+                    mOrgData = conflict.remote;
+                    mRevPoller.setKnownRev(conflict.remote.rev);
+                    onOrgDataChanged();
+                    showToast("Dailylog conflicts with remote changes in " + conflict.conflictingHeadings
+                            + ". Save again to keep your version.");
+                    return;
+                }
+                Log.d(TAG, e.toString());
+                showToast("Dailylog update failed.");
+
+                showDailyLog();
+            }
+
+            @Override
+            public void onSyncProgress(int percent) {
+                if (mProgressDialog != null)
+                    mProgressDialog.setProgress(percent);
+            }
+        }));
+    }
+
+    private void showProgressDialog() {
+        if (mProgressDialog != null)
+            return;
+        mProgressDialog = new ProgressDialog(this);
+        mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mProgressDialog.setTitle("Loading...");
+        mProgressDialog.show();
+    }
+
+    private void onSaveDone() {
+        if (--mSavesInFlight == 0 && mProgressDialog != null) {
+            mProgressDialog.dismiss();
+            mProgressDialog = null;
+        }
+    }
+
+    /**
+     * Uploads the capture journal, one flush per target file so targets sync
+     * independently and in parallel; a flush requested while one for the same
+     * target is queued joins it.
+     */
+    private void flushCaptures() {
+        if (!mLoggedIn)
+            return;
+        for (final String path : mCaptureJournal.paths()) {
+            final OrgSyncEngine engine = mSession.engine(path);
+            track(mSession.getScheduler().coalesce(path, "flush-captures", SYNC_TIMEOUT_MS,
+                    new OrgSyncScheduler.Operation<OrgSyncEngine.FlushResult>() {
                 @Override
-                public void onComplete(OrgData data) {
-                    if (data != null)
-                    {
-                        mOrgData = data;
-                        storeOrgFileData(mOrgData);
+                public OrgSyncEngine.FlushResult run(OrgSyncScheduler.Progress progress) {
+                    return engine.flushCaptures(mCaptureJournal);
+                }
+            }, new OrgSyncListener<OrgSyncEngine.FlushResult>() {
+                @Override
+                public void onSyncSuccess(OrgSyncEngine.FlushResult result) {
+                    if (result.flushed > 0) {
+                        showToast("Capture updated: " + path);
+                        // Captures filed into the org file itself change what is on screen.
+                        if (engine == mSyncEngine)
+                            fetchOrgContent();
+                    } else if (result.pending > 0) {
+                        showToast("Capture update failed. Kept offline for retry.");
                     }
+                }
 
-                    final String dailyLog = OrgUtil.GetOrgDailyLog(mOrgData.fileFullContent);
-                    mOrgDailyEdit.setText(OrgUtil.GetOrgDailyLog(mOrgData.fileFullContent));
-                    mOrgDailyEdit.setSelection(dailyLog.length());
+                @Override
+                public void onSyncFailure(Exception e) {
+                    Log.d(TAG, e.toString());
+                    showToast("Capture update failed. Kept offline for retry.");
                 }
-            });
-            task.execute(orgFileRev);
+            }));
         }
     }
 
+    /**
+     * Loads the capture templates, from the store when logged in so edits to
+     * the config show up, otherwise from the copy kept from last time.
+     */
+    private void loadTemplates() {
+        final boolean loggedIn = mApi.getSession().isLinked();
+        final File localFile = new File(getFilesDir(), CAPTURE_TEMPLATES_FILE_NAME);
+        track(mSession.getScheduler().read(CAPTURE_TEMPLATES_FILE_NAME, "load", SYNC_TIMEOUT_MS,
+                new OrgSyncScheduler.Operation<List<OrgCaptureTemplate>>() {
+            @Override
+            public List<OrgCaptureTemplate> run(OrgSyncScheduler.Progress progress) throws Exception {
+                OrgStreams.ContentBuffer json = new OrgStreams.ContentBuffer(0);
+                if (loggedIn && mStore.getRev(CaptureTemplateConfig.CONFIG_PATH) != null) {
+                    mStore.read(CaptureTemplateConfig.CONFIG_PATH, json);
+                    // Only a config that parses replaces the local copy.
+                    CaptureTemplateConfig.parse(json.decode());
+                    File temp = new File(localFile.getPath() + ".tmp");
+                    FileOutputStream out = new FileOutputStream(temp);
+                    try {
+                        json.writeTo(out);
+                    } finally {
+                        out.close();
+                    }
+                    if (!temp.renameTo(localFile))
+                        throw new IOException("rename failed: " + localFile);
+                } else if (localFile.isFile()) {
+                    FileInputStream in = new FileInputStream(localFile);
+                    try {
+                        OrgStreams.copy(in, json, localFile.length(), null);
+                    } finally {
+                        in.close();
+                    }
+                } else {
+                    return CaptureTemplateConfig.defaults();
+                }
+                return CaptureTemplateConfig.parse(json.decode());
+            }
+        }, new OrgSyncListener<List<OrgCaptureTemplate>>() {
+            @Override
+            public void onSyncSuccess(List<OrgCaptureTemplate> templates) {
+                mTemplates = templates;
+            }
+
+            @Override
+            public void onSyncFailure(Exception e) {
+                Log.d(TAG, e.toString());
+                showToast("Capture templates not loaded: " + e.getMessage());
+            }
+        }));
+    }
+
+    private void loadIndex() {
+        track(mSession.getScheduler().read(OrgSession.ORG_INDEX_FILE_NAME, "load", 0,
+                new OrgSyncScheduler.Operation<OrgIndex>() {
+            @Override
+            public OrgIndex run(OrgSyncScheduler.Progress progress) {
+                return mSession.loadIndex();
+            }
+        }, new OrgSyncListener<OrgIndex>() {
+            @Override
+            public void onSyncSuccess(OrgIndex index) {
+                mIndex = index;
+                indexOrgContent();
+                search();
+            }
+
+            @Override
+            public void onSyncFailure(Exception e) {
+                Log.d(TAG, e.toString());
+            }
+        }));
+    }
+
+    // Hands new org data to later instances and the search index.
+    private void onOrgDataChanged() {
+        mSession.setLoadedData(mOrgData);
+        indexOrgContent();
+    }
+
+    /**
+     * Brings the search index up to the org data on screen and saves it. Only
+     * sections that changed since the indexed rev are tokenized again.
+     */
+    private void indexOrgContent() {
+        final OrgIndex index = mIndex;
+        final OrgData orgData = mOrgData;
+        if (index == null || orgData.fileFullContent == null)
+            return;
+        track(mSession.getScheduler().coalesce(OrgSession.ORG_INDEX_FILE_NAME, "update", 0,
+                new OrgSyncScheduler.Operation<Boolean>() {
+            @Override
+            public Boolean run(OrgSyncScheduler.Progress progress) throws IOException {
+                if (orgData.rev.equals(index.getRev()))
+                    return false;
+                index.update(orgData.rev, orgData.fileFullContent);
+                index.writeTo(mSession.getIndexFile());
+                return true;
+            }
+        }, new OrgSyncListener<Boolean>() {
+            @Override
+            public void onSyncSuccess(Boolean updated) {
+                if (updated)
+                    search();
+            }
+
+            @Override
+            public void onSyncFailure(Exception e) {
+                Log.d(TAG, e.toString());
+            }
+        }));
+    }
+
+    /** Runs the query in the search box; a query typed while one is queued replaces it. */
+    private void search() {
+        final String query = mSearchEdit.getText().toString().trim();
+        final boolean searching = query.length() > 0;
+        mSearchResults.setVisibility(searching ? View.VISIBLE : View.GONE);
+        mDailyLogSections.setVisibility(searching ? View.GONE : View.VISIBLE);
+        final OrgIndex index = mIndex;
+        if (!searching || index == null) {
+            mSearchAdapter.clear();
+            return;
+        }
+        track(mSession.getScheduler().coalesce(OrgSession.ORG_INDEX_FILE_NAME, "search", 0,
+                new OrgSyncScheduler.Operation<List<OrgIndex.Hit>>() {
+            @Override
+            public List<OrgIndex.Hit> run(OrgSyncScheduler.Progress progress) {
+                return index.search(query, SEARCH_RESULT_LIMIT);
+            }
+        }, new OrgSyncListener<List<OrgIndex.Hit>>() {
+            @Override
+            public void onSyncSuccess(List<OrgIndex.Hit> hits) {
+                // Drop results of a query the user has typed past.
+                if (!query.equals(mSearchEdit.getText().toString().trim()))
+                    return;
+                mSearchAdapter.setNotifyOnChange(false);
+                mSearchAdapter.clear();
+                for (OrgIndex.Hit hit : hits) {
+                    mSearchAdapter.add(hit);
+                }
+                mSearchAdapter.notifyDataSetChanged();
+            }
+
+            @Override
+            public void onSyncFailure(Exception e) {
+                Log.d(TAG, e.toString());
+            }
+        }));
+    }
+
+    private void showSearchHit(OrgIndex.Hit hit) {
+        // The index is updated right after the data, so this only misses briefly.
+        if (mOrgData.fileFullContent == null || !hit.rev.equals(mOrgData.rev)) {
+            showToast("Org file changed. Search again.");
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(hit.title)
+                .setMessage(mOrgData.fileFullContent.subSequence(hit.start, hit.end).toString())
+                .setPositiveButton("OK", null)
+                .show();
+    }
+
     private void initEditTexts(final Intent intent,
                                EditText editTitle, EditText editContent) {
         final String action = intent.getAction();
@@ -202,18 +668,7 @@ public class OrgCapture extends Activity {
         {
             if ("text/plain".equals(type))
             {
-                title = intent.getStringExtra(Intent.EXTRA_SUBJECT);
-                if (title == null)
-                    title = intent.getStringExtra(Intent.EXTRA_TITLE);
-                if (title == null) {
-                    ComponentName name = getCallingActivity();
-                    if (name != null)
-                        title = name.getShortClassName();
-                }
-                if (title == null){
-                    title = "capture";
-                }
-
+                title = QuickCaptureActivity.sharedTitle(this, intent);
                 content = intent.getStringExtra(Intent.EXTRA_TEXT);
             }
         } else {
@@ -231,6 +686,16 @@ public class OrgCapture extends Activity {
 
     @Override
     protected void onDestroy(){
+        // Queued and running reads are dropped; uploads still finish, unobserved.
+        for (OrgSyncScheduler.Handle handle : mSyncHandles) {
+            handle.cancel();
+        }
+        mSyncHandles.clear();
+        mHandler.removeCallbacks(mFlushCaptures);
+        if (mProgressDialog != null) {
+            mProgressDialog.dismiss();
+            mProgressDialog = null;
+        }
         super.onDestroy();
     }
 
@@ -246,6 +711,9 @@ public class OrgCapture extends Activity {
                 // Store it locally in our app for later use
                 storeAuth(session);
                 setLoggedIn(true);
+                fetchOrgContent();
+                loadTemplates();
+                flushCaptures();
             } catch (IllegalStateException e) {
                 showToast("Couldn't authenticate with Dropbox:" + e.getLocalizedMessage());
                 Log.i(TAG, "Error authenticating", e);
@@ -253,6 +721,43 @@ public class OrgCapture extends Activity {
         }
 
         initEditTexts(getIntent(), mCaptureTitle, mCaptureContent);
+        if (mLoggedIn)
+            mRevPoller.start(mOrgData.rev);
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus && mStartupStart != -1) {
+            sStartup.stop(mStartupStart);
+            mStartupStart = -1;
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        mRevPoller.stop();
+        // Captures still queued are uploaded by the service even if this activity goes away.
+        if (mLoggedIn && !mCaptureJournal.isEmpty()) {
+            mHandler.removeCallbacks(mFlushCaptures);
+            OrgSyncService.requestFlush(this);
+        }
+        super.onPause();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(0, MENU_STATS, 0, "Sync stats");
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == MENU_STATS) {
+            startActivity(new Intent(this, OrgStatsActivity.class));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
     private void logOut() {
@@ -261,6 +766,8 @@ public class OrgCapture extends Activity {
 
         // Clear our stored keys
         clearKeys();
+        mRevPoller.stop();
+        mSession.getRevCache().clear();
         // Change UI state to display logged out version
         setLoggedIn(false);
     }
@@ -303,8 +810,8 @@ public class OrgCapture extends Activity {
         });
     }
 
-    private void loadAuth(AndroidAuthSession session) {
-        SharedPreferences prefs = getSharedPreferences(ACCOUNT_PREFS_NAME, 0);
+    private static void loadAuth(Context context, AndroidAuthSession session) {
+        SharedPreferences prefs = context.getSharedPreferences(ACCOUNT_PREFS_NAME, 0);
         String key = prefs.getString(ACCESS_KEY_NAME, null);
         String secret = prefs.getString(ACCESS_SECRET_NAME, null);
         if (key == null || secret == null || key.length() == 0 || secret.length() == 0) return;
@@ -319,20 +826,28 @@ public class OrgCapture extends Activity {
     }
 
     private void storeOrgFileData(OrgData orgData) {
-        SharedPreferences prefs = getSharedPreferences(ORG_PREFS_NAME, MODE_PRIVATE);
-        Editor editor = prefs.edit();
-        final String rev = orgData.rev;
-        final String content = orgData.fileFullContent;
-        editor.putString(ORG_FILE_REV_NAME, rev);
-        editor.putString(ORG_FILE_CONTENT_NAME, content);
-        editor.commit();
+        mOrgCache.storeAsync(orgData.rev, orgData.fileFullContent);
     }
 
+    /**
+     * Returns the cached rev only; the content is left null and loaded off the
+     * UI thread. Content still kept in the old org_prefs store is moved into
+     * the cache file once.
+     */
     private OrgData loadOrgFileData(){
         OrgData orgData = new OrgData();
-        SharedPreferences prefs = getSharedPreferences(ORG_PREFS_NAME, MODE_PRIVATE);
-        orgData.rev = prefs.getString(ORG_FILE_REV_NAME, "");
-        orgData.fileFullContent = prefs.getString(ORG_FILE_CONTENT_NAME, "");
+        if (!mOrgCache.exists()) {
+            SharedPreferences prefs = getSharedPreferences(ORG_PREFS_NAME, MODE_PRIVATE);
+            if (prefs.contains(ORG_FILE_CONTENT_NAME)) {
+                orgData.rev = prefs.getString(ORG_FILE_REV_NAME, "");
+                orgData.fileFullContent = OrgDocument.of(prefs.getString(ORG_FILE_CONTENT_NAME, ""));
+                storeOrgFileData(orgData);
+                prefs.edit().clear().apply();
+                return orgData;
+            }
+        }
+        orgData.rev = mOrgCache.readRev();
+        orgData.fileFullContent = null;
         return orgData;
     }
 
@@ -372,11 +887,11 @@ public class OrgCapture extends Activity {
         edit.commit();
     }
 
-    private AndroidAuthSession buildSession() {
+    static AndroidAuthSession buildSession(Context context) {
         AppKeyPair appKeyPair = new AppKeyPair(APP_KEY, APP_SECRET);
 
         AndroidAuthSession session = new AndroidAuthSession(appKeyPair);
-        loadAuth(session);
+        loadAuth(context, session);
         return session;
     }
 }
@@ -0,0 +1,114 @@
+package com.dropbox.android.sample;
+
+import android.content.Context;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
+import android.widget.TextView;
+
+/**
+ * Rows of an OrgSectionEditor for a ListView, which only lays out the rows
+ * on screen. Tapping a heading expands or collapses it; an expanded row
+ * shows its body for editing, and edits go straight back to the editor.
+ */
+public class OrgSectionAdapter extends BaseAdapter {
+    private static final int INDENT_PX_PER_LEVEL = 24;
+
+    private final LayoutInflater mInflater;
+    private OrgSectionEditor mEditor;
+
+    private class RowViews implements TextWatcher {
+        TextView heading;
+        EditText body;
+        int row = -1;
+        // Set while the row is being bound, so setText() is not taken for an edit.
+        boolean binding = false;
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            if (!binding && mEditor != null && row >= 0 && row < mEditor.getRowCount())
+                mEditor.setBody(row, s.toString());
+        }
+    }
+
+    public OrgSectionAdapter(Context context) {
+        mInflater = LayoutInflater.from(context);
+    }
+
+    public OrgSectionEditor getEditor() {
+        return mEditor;
+    }
+
+    public void setEditor(OrgSectionEditor editor) {
+        mEditor = editor;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mEditor != null ? mEditor.getRowCount() : 0;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return mEditor.title(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        RowViews views;
+        if (view == null) {
+            view = mInflater.inflate(R.layout.section_row, parent, false);
+            views = new RowViews();
+            views.heading = (TextView)view.findViewById(R.id.section_heading);
+            views.body = (EditText)view.findViewById(R.id.section_body);
+            views.body.addTextChangedListener(views);
+            final RowViews clicked = views;
+            views.heading.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    mEditor.toggle(clicked.row);
+                    notifyDataSetChanged();
+                }
+            });
+            view.setTag(views);
+        } else {
+            views = (RowViews)view.getTag();
+        }
+
+        final boolean expanded = mEditor.isExpanded(position);
+        final String marker = !mEditor.hasChildren(position) ? "  " : expanded ? "- " : "+ ";
+        views.binding = true;
+        views.row = position;
+        views.heading.setText(marker + mEditor.title(position));
+        views.heading.setPadding(INDENT_PX_PER_LEVEL * (mEditor.level(position) - 1),
+                views.heading.getPaddingTop(), views.heading.getPaddingRight(), views.heading.getPaddingBottom());
+        if (expanded) {
+            // The body is only sliced out of the document for rows on screen.
+            views.body.setText(mEditor.body(position));
+            views.body.setVisibility(View.VISIBLE);
+        } else {
+            views.body.setVisibility(View.GONE);
+        }
+        views.binding = false;
+        return view;
+    }
+}
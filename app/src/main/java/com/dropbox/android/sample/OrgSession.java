@@ -0,0 +1,219 @@
+package com.dropbox.android.sample;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
+import com.dropbox.client2.DropboxAPI;
+import com.dropbox.client2.android.AndroidAuthSession;
+
+import com.dropbox.android.sample.OrgUtil.OrgData;
+
+/**
+ * Sync state shared by everything in the process: the activity, however
+ * often it is recreated, and OrgSyncService. Syncs from both go through one
+ * scheduler and one engine per file, so they serialize with each other, and
+ * content loaded or synced by one is handed to the other from memory.
+ */
+public class OrgSession {
+    static final String ORG_CACHE_FILE_NAME = "life.org.cache";
+    static final String CAPTURE_JOURNAL_FILE_NAME = "captures.journal";
+    static final String ORG_INDEX_FILE_NAME = "life.org.index";
+    static final String SYNC_PREFS_NAME = "sync_prefs";
+    // Deflate level of the cache and the capture journal, 0 to store them plain.
+    static final String COMPRESSION_LEVEL_NAME = "compression_level";
+    // Deflate level of the compressed copy uploaded next to each file, 0 for none.
+    static final String SIDECAR_LEVEL_NAME = "sidecar_level";
+    private static final int SYNC_THREADS = 2;
+    // A rev confirmed this recently is trusted without asking the store again.
+    private static final long REV_TTL_MS = 60 * 1000;
+    // Local history of each file, next to its cache file.
+    private static final String HISTORY_SUFFIX = ".history";
+    private static final int HISTORY_REVS = 20;
+    private static final long HISTORY_MAX_BYTES = 16 * 1024 * 1024;
+
+    static {
+        // Send the core classes' logging to logcat.
+        OrgLog.setSink(new OrgLog.Sink() {
+            @Override
+            public void log(int priority, String tag, String msg) {
+                Log.println(priority, tag, msg);
+            }
+        });
+    }
+
+    private static OrgSession sSession;
+    // Created without the session, for QuickCaptureActivity; the session uses it too.
+    private static CaptureJournal sCaptureJournal;
+
+    private final File mFilesDir;
+    private final int mCompressionLevel;
+    private final int mSidecarLevel;
+    private final DropboxAPI<AndroidAuthSession> mApi;
+    private final CachingOrgStore.RevCache mRevCache = new CachingOrgStore.RevCache(REV_TTL_MS);
+    private final OrgStore mStore;
+    private final OrgSyncScheduler mScheduler;
+    private final OrgCache mOrgCache;
+    private final CaptureJournal mCaptureJournal;
+    private final File mIndexFile;
+    private final Map<String, OrgSyncEngine> mEngines = new HashMap<>();
+    // Last content of the org file loaded or synced in this process, or null.
+    private volatile OrgData mLoadedData = null;
+    // Loaded on first use; only touched by operations on ORG_INDEX_FILE_NAME.
+    private OrgIndex mIndex = null;
+
+    public static synchronized OrgSession get(Context context) {
+        if (sSession == null)
+            sSession = new OrgSession(context.getApplicationContext());
+        return sSession;
+    }
+
+    /**
+     * The capture journal, without setting up the rest of the session: no
+     * Dropbox session, store or cache. All a capture needs before the user
+     * sees it acknowledged.
+     */
+    public static synchronized CaptureJournal captureJournal(Context context) {
+        if (sCaptureJournal == null) {
+            SharedPreferences prefs = context.getSharedPreferences(SYNC_PREFS_NAME, Context.MODE_PRIVATE);
+            sCaptureJournal = new CaptureJournal(new File(context.getFilesDir(), CAPTURE_JOURNAL_FILE_NAME),
+                    prefs.getInt(COMPRESSION_LEVEL_NAME, Deflater.BEST_SPEED));
+        }
+        return sCaptureJournal;
+    }
+
+    private OrgSession(Context context) {
+        mFilesDir = context.getFilesDir();
+        // Fast deflate roughly quarters org text for little CPU; slow devices can turn it off.
+        SharedPreferences prefs = context.getSharedPreferences(SYNC_PREFS_NAME, Context.MODE_PRIVATE);
+        mCompressionLevel = prefs.getInt(COMPRESSION_LEVEL_NAME, Deflater.BEST_SPEED);
+        mSidecarLevel = prefs.getInt(SIDECAR_LEVEL_NAME, OrgCompression.NONE);
+        mApi = new DropboxAPI<>(OrgCapture.buildSession(context));
+        // Metered below the rev cache, so its hits are not counted as round trips.
+        mStore = new CachingOrgStore(new MeteredOrgStore(new DropboxOrgStore(mApi)), mRevCache);
+        mScheduler = new OrgSyncScheduler(SYNC_THREADS, mainThreadExecutor());
+        mOrgCache = new OrgCache(new File(mFilesDir, ORG_CACHE_FILE_NAME), mCompressionLevel);
+        // One instance per process, so appends and flushes of the journal serialize.
+        mCaptureJournal = captureJournal(context);
+        mIndexFile = new File(mFilesDir, ORG_INDEX_FILE_NAME);
+    }
+
+    public DropboxAPI<AndroidAuthSession> getApi() {
+        return mApi;
+    }
+
+    public boolean isLinked() {
+        return mApi.getSession().isLinked();
+    }
+
+    public OrgStore getStore() {
+        return mStore;
+    }
+
+    public CachingOrgStore.RevCache getRevCache() {
+        return mRevCache;
+    }
+
+    public OrgSyncScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    public OrgCache getOrgCache() {
+        return mOrgCache;
+    }
+
+    public CaptureJournal getCaptureJournal() {
+        return mCaptureJournal;
+    }
+
+    /** The engine of the given file; each has its own cache file and so its own rev. */
+    public synchronized OrgSyncEngine engine(String path) {
+        OrgSyncEngine engine = mEngines.get(path);
+        if (engine == null) {
+            final OrgCache cache;
+            if (path.equals(OrgUtil.ORG_PATH)) {
+                cache = mOrgCache;
+            } else {
+                cache = new OrgCache(new File(mFilesDir, cacheFileName(path)), mCompressionLevel);
+            }
+            engine = new OrgSyncEngine(mStore, cache, path, mSidecarLevel, new OrgHistory(
+                    new File(cache.getFile().getPath() + HISTORY_SUFFIX), HISTORY_REVS, HISTORY_MAX_BYTES,
+                    mCompressionLevel));
+            mEngines.put(path, engine);
+        }
+        return engine;
+    }
+
+    /**
+     * "/journal/2016-05.org" is cached in "journal_002f2016-05.org.cache".
+     * Every char but letters, digits, '.' and '-' becomes '_' and its four
+     * hex digits, '_' included, so no two paths share a cache file.
+     */
+    static String cacheFileName(String path) {
+        StringBuilder sb = new StringBuilder(path.length() + 16);
+        for (int i = 1; i < path.length(); ++i) {
+            final char c = path.charAt(i);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-') {
+                sb.append(c);
+            } else {
+                sb.append(String.format(Locale.US, "_%04x", (int)c));
+            }
+        }
+        return sb.append(".cache").toString();
+    }
+
+    public OrgData getLoadedData() {
+        return mLoadedData;
+    }
+
+    public void setLoadedData(OrgData orgData) {
+        mLoadedData = orgData;
+    }
+
+    /** Returns the search index, reading it on first use. Call on ORG_INDEX_FILE_NAME. */
+    public OrgIndex loadIndex() {
+        if (mIndex == null)
+            mIndex = OrgIndex.readFrom(mIndexFile);
+        return mIndex;
+    }
+
+    public File getIndexFile() {
+        return mIndexFile;
+    }
+
+    /** What compression saved and cost so far in this process, to tune the levels by. */
+    public String compressionReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("cache: ").append(mOrgCache.getStats());
+        sb.append("\njournal: ").append(mCaptureJournal.getStats());
+        synchronized (this) {
+            for (OrgSyncEngine engine : mEngines.values()) {
+                sb.append("\nsidecar ").append(engine.getPath()).append(": ").append(engine.getSidecarStats());
+                final OrgHistory history = engine.getHistory();
+                if (history != null)
+                    sb.append("\nhistory ").append(engine.getPath()).append(": ").append(history.revs().size())
+                            .append(" revs in ").append(history.sizeBytes()).append(" bytes, ").append(history.getStats());
+            }
+        }
+        return sb.toString();
+    }
+
+    static Executor mainThreadExecutor() {
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        };
+    }
+}
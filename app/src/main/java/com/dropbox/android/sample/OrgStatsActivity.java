@@ -0,0 +1,90 @@
+package com.dropbox.android.sample;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Button;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Shows what OrgMetrics measured in this process, with the compression
+ * report, and exports the metrics as CSV into the app's files directory on
+ * external storage, where they can be copied off the device.
+ */
+public class OrgStatsActivity extends Activity {
+    private static final String TAG = "OrgStatsActivity";
+    private static final String EXPORT_NAME_FORMAT = "'metrics-'yyyyMMdd-HHmmss'.csv'";
+
+    private OrgSession mSession;
+    private TextView mReport;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.stats);
+        setTitle("Sync stats");
+        mSession = OrgSession.get(this);
+        mReport = (TextView)findViewById(R.id.stats_report);
+
+        ((Button)findViewById(R.id.stats_refresh_button)).setOnClickListener(new OnClickListener() {
+            public void onClick(View v) {
+                showReport();
+            }
+        });
+        ((Button)findViewById(R.id.stats_reset_button)).setOnClickListener(new OnClickListener() {
+            public void onClick(View v) {
+                OrgMetrics.reset();
+                showReport();
+            }
+        });
+        ((Button)findViewById(R.id.stats_export_button)).setOnClickListener(new OnClickListener() {
+            public void onClick(View v) {
+                export();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showReport();
+    }
+
+    private void showReport() {
+        final String report = OrgMetrics.report();
+        mReport.setText((report.trim().length() == 0 ? "Nothing measured yet.\n" : report)
+                + "\ncompression\n" + mSession.compressionReport());
+    }
+
+    private void export() {
+        // External storage may be unmounted; the internal files directory always works.
+        File dir = getExternalFilesDir(null);
+        if (dir == null)
+            dir = getFilesDir();
+        final File file = new File(dir, OrgTimestamp.formatter(EXPORT_NAME_FORMAT, Locale.US).format(new Date()));
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(file), OrgCache.UTF_8.name());
+            try {
+                OrgMetrics.writeCsv(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, e.toString());
+            Toast.makeText(this, "Export failed.", Toast.LENGTH_LONG).show();
+            return;
+        }
+        Toast.makeText(this, "Exported to " + file.getPath(), Toast.LENGTH_LONG).show();
+    }
+}
@@ -0,0 +1,19 @@
+package com.dropbox.android.sample;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Sets the periodic sync up again after a reboot, and asks OrgSyncService
+ * to sync when power or a network comes back, the moments its constraints
+ * may have become met. The service decides whether there is anything to do.
+ */
+public class OrgSyncReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction()))
+            OrgSyncService.schedule(context);
+        OrgSyncService.requestSync(context);
+    }
+}
@@ -0,0 +1,251 @@
+package com.dropbox.android.sample;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.dropbox.android.sample.OrgUtil.OrgData;
+
+/**
+ * Syncs without the UI: flushes queued captures whenever there is a network,
+ * and, while charging on an unmetered network, refreshes the org file into
+ * the cache, parses it and brings the search index up to date, keeping the
+ * result in OrgSession. Opening the app or sharing into it then starts from
+ * a hot local copy. Work goes through the session's scheduler under the same
+ * keys as the activity's, so the two never run the same sync at once.
+ *
+ * Started by an inexact repeating alarm, which the system batches with other
+ * wakeups, and by OrgSyncReceiver when the constraints may have become met.
+ */
+public class OrgSyncService extends Service {
+    private static final String TAG = "OrgSyncService";
+    /** Flushes captures, and refreshes if the constraints hold and a refresh is due. */
+    static final String ACTION_SYNC = "com.dropbox.android.sample.action.SYNC";
+    /** Only flushes captures, e.g. those left behind by a closed activity. */
+    static final String ACTION_FLUSH = "com.dropbox.android.sample.action.FLUSH";
+    private static final String LAST_REFRESH_NAME = "last_refresh";
+    private static final long SYNC_INTERVAL_MS = AlarmManager.INTERVAL_HOUR;
+    private static final long MIN_REFRESH_INTERVAL_MS = 15 * 60 * 1000;
+    private static final long SYNC_TIMEOUT_MS = 2 * 60 * 1000;
+
+    private OrgSession mSession;
+    // Operations submitted and not finished yet; the service stops when none are left.
+    private int mRunning = 0;
+    private int mLastStartId;
+
+    /** Sets up the periodic sync; setting it up again replaces it. */
+    static void schedule(Context context) {
+        Intent intent = new Intent(context, OrgSyncService.class).setAction(ACTION_SYNC);
+        PendingIntent operation = PendingIntent.getService(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarms = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+        alarms.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, operation);
+    }
+
+    static void requestSync(Context context) {
+        context.startService(new Intent(context, OrgSyncService.class).setAction(ACTION_SYNC));
+    }
+
+    static void requestFlush(Context context) {
+        context.startService(new Intent(context, OrgSyncService.class).setAction(ACTION_FLUSH));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mSession = OrgSession.get(this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mLastStartId = startId;
+        final NetworkInfo network = activeNetwork();
+        if (mSession.isLinked() && network != null && network.isConnected()) {
+            flushCaptures();
+            final boolean sync = intent != null && ACTION_SYNC.equals(intent.getAction());
+            // Folding may download the whole file, so it waits for an unmetered network.
+            if (sync && isUnmetered(network))
+                foldInbox();
+            if (sync && isRefreshDue() && isUnmetered(network) && isCharging())
+                refresh();
+        }
+        stopIfIdle();
+        // Queued captures stay in the journal, so nothing is lost if the process dies.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void flushCaptures() {
+        final CaptureJournal journal = mSession.getCaptureJournal();
+        for (final String path : journal.paths()) {
+            final OrgSyncEngine engine = mSession.engine(path);
+            submitted();
+            mSession.getScheduler().coalesce(path, "flush-captures", SYNC_TIMEOUT_MS,
+                    new OrgSyncScheduler.Operation<OrgSyncEngine.FlushResult>() {
+                @Override
+                public OrgSyncEngine.FlushResult run(OrgSyncScheduler.Progress progress) {
+                    return engine.flushCaptures(journal);
+                }
+            }, new OrgSyncListener<OrgSyncEngine.FlushResult>() {
+                @Override
+                public void onSyncSuccess(OrgSyncEngine.FlushResult result) {
+                    Log.i(TAG, path + ": " + result.flushed + " captures flushed, " + result.pending + " pending");
+                    finished();
+                }
+
+                @Override
+                public void onSyncFailure(Exception e) {
+                    Log.d(TAG, e.toString());
+                    finished();
+                }
+            });
+        }
+    }
+
+    // Folds captures staged in the org file's inbox into it, if there are enough or they are old.
+    private void foldInbox() {
+        final OrgSyncEngine engine = mSession.engine(OrgUtil.ORG_PATH);
+        submitted();
+        mSession.getScheduler().coalesce(OrgUtil.ORG_PATH, "fold-inbox", SYNC_TIMEOUT_MS,
+                new OrgSyncScheduler.Operation<Boolean>() {
+            @Override
+            public Boolean run(OrgSyncScheduler.Progress progress) throws Exception {
+                return engine.foldInboxIfDue();
+            }
+        }, new OrgSyncListener<Boolean>() {
+            @Override
+            public void onSyncSuccess(Boolean folded) {
+                if (folded) {
+                    final OrgData data = engine.getSyncedData();
+                    mSession.setLoadedData(data);
+                    index(data);
+                }
+                finished();
+            }
+
+            @Override
+            public void onSyncFailure(Exception e) {
+                Log.d(TAG, e.toString());
+                finished();
+            }
+        });
+    }
+
+    // Fetches the org file if it changed, and parses and indexes whatever is current.
+    private void refresh() {
+        final OrgSyncEngine engine = mSession.engine(OrgUtil.ORG_PATH);
+        submitted();
+        mSession.getScheduler().read(OrgUtil.ORG_PATH, "refresh", SYNC_TIMEOUT_MS,
+                new OrgSyncScheduler.Operation<OrgData>() {
+            @Override
+            public OrgData run(OrgSyncScheduler.Progress progress) throws Exception {
+                OrgData known = mSession.getLoadedData();
+                if (known == null)
+                    known = engine.loadCache();
+                final OrgData fetched = engine.fetch(known.rev);
+                final OrgData current = fetched != null ? fetched : known;
+                if (current.fileFullContent != null)
+                    OrgUtil.GetOrgOutline(current.fileFullContent);
+                return current;
+            }
+        }, new OrgSyncListener<OrgData>() {
+            @Override
+            public void onSyncSuccess(OrgData data) {
+                getSharedPreferences(OrgSession.SYNC_PREFS_NAME, MODE_PRIVATE).edit()
+                        .putLong(LAST_REFRESH_NAME, System.currentTimeMillis()).apply();
+                if (data.fileFullContent != null) {
+                    mSession.setLoadedData(data);
+                    index(data);
+                }
+                Log.i(TAG, "compression " + mSession.compressionReport());
+                finished();
+            }
+
+            @Override
+            public void onSyncFailure(Exception e) {
+                Log.d(TAG, e.toString());
+                finished();
+            }
+        });
+    }
+
+    private void index(final OrgData data) {
+        submitted();
+        mSession.getScheduler().coalesce(OrgSession.ORG_INDEX_FILE_NAME, "update", 0,
+                new OrgSyncScheduler.Operation<Boolean>() {
+            @Override
+            public Boolean run(OrgSyncScheduler.Progress progress) throws Exception {
+                final OrgIndex index = mSession.loadIndex();
+                if (data.rev.equals(index.getRev()))
+                    return false;
+                index.update(data.rev, data.fileFullContent);
+                index.writeTo(mSession.getIndexFile());
+                return true;
+            }
+        }, new OrgSyncListener<Boolean>() {
+            @Override
+            public void onSyncSuccess(Boolean updated) {
+                finished();
+            }
+
+            @Override
+            public void onSyncFailure(Exception e) {
+                Log.d(TAG, e.toString());
+                finished();
+            }
+        });
+    }
+
+    private void submitted() {
+        ++mRunning;
+    }
+
+    private void finished() {
+        --mRunning;
+        stopIfIdle();
+    }
+
+    private void stopIfIdle() {
+        // Only stops if no start came in since the last one; that one finishes the work.
+        if (mRunning == 0)
+            stopSelf(mLastStartId);
+    }
+
+    private boolean isRefreshDue() {
+        final long last = getSharedPreferences(OrgSession.SYNC_PREFS_NAME, MODE_PRIVATE).getLong(LAST_REFRESH_NAME, 0);
+        return Math.abs(System.currentTimeMillis() - last) >= MIN_REFRESH_INTERVAL_MS;
+    }
+
+    private NetworkInfo activeNetwork() {
+        ConnectivityManager connectivity = (ConnectivityManager)getSystemService(Context.CONNECTIVITY_SERVICE);
+        return connectivity.getActiveNetworkInfo();
+    }
+
+    // ConnectivityManager.isActiveNetworkMetered() needs API 16; Wi-Fi and
+    // Ethernet are taken as unmetered instead.
+    private static boolean isUnmetered(NetworkInfo network) {
+        final int type = network.getType();
+        return type == ConnectivityManager.TYPE_WIFI || type == ConnectivityManager.TYPE_ETHERNET;
+    }
+
+    private boolean isCharging() {
+        // The battery broadcast is sticky, so this reads its last value without registering.
+        final Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
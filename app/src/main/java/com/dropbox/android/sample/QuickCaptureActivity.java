@@ -0,0 +1,132 @@
+package com.dropbox.android.sample;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Date;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * Where text shared from other apps lands. Shows only the capture fields
+ * and queues the capture in the journal; the Dropbox session, the org file
+ * and the upload are left to OrgSyncService, started once the capture is
+ * safe. OrgCapture sets all of those up before it takes input, which a
+ * share into a cold process waits through.
+ */
+public class QuickCaptureActivity extends Activity {
+    private static final String TAG = "QuickCaptureActivity";
+    private static final OrgMetrics.Timer sCaptureQueue = OrgMetrics.timer("capture.queue");
+    // From onCreate to the window first taking focus; compare startup.capture.
+    private static final OrgMetrics.Timer sStartup = OrgMetrics.timer("startup.quick_capture");
+
+    private EditText mCaptureTitle;
+    private EditText mCaptureContent;
+    // sStartup start time, or -1 once recorded.
+    private long mStartupStart = -1;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mStartupStart = sStartup.start();
+        setContentView(R.layout.quick_capture);
+
+        mCaptureTitle = (EditText)findViewById(R.id.capture_title);
+        mCaptureContent = (EditText)findViewById(R.id.capture_content);
+        // Recreated after a rotation, the fields restore what the user typed.
+        if (savedInstanceState == null) {
+            final Intent intent = getIntent();
+            mCaptureTitle.setText(sharedTitle(this, intent));
+            mCaptureContent.setText(intent.getStringExtra(Intent.EXTRA_TEXT));
+        }
+
+        ((Button)findViewById(R.id.capture_to_org_button)).setOnClickListener(new OnClickListener() {
+            public void onClick(View v) {
+                capture();
+            }
+        });
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus && mStartupStart != -1) {
+            sStartup.stop(mStartupStart);
+            mStartupStart = -1;
+        }
+    }
+
+    /** Title for text shared by intent: its subject or title, else the name of the sharing activity. */
+    static String sharedTitle(Activity activity, Intent intent) {
+        String title = intent.getStringExtra(Intent.EXTRA_SUBJECT);
+        if (title == null)
+            title = intent.getStringExtra(Intent.EXTRA_TITLE);
+        if (title == null) {
+            ComponentName name = activity.getCallingActivity();
+            if (name != null)
+                title = name.getShortClassName();
+        }
+        return title != null ? title : "capture";
+    }
+
+    private void capture() {
+        final String captureTitle = mCaptureTitle.getText().toString();
+        final String captureEntry = OrgUtil.CreateOrgCaptureEntry(captureTitle,
+                mCaptureContent.getText().toString());
+        final OrgCaptureTemplate template = loadTemplate();
+
+        final long start = sCaptureQueue.start();
+        try {
+            OrgSession.captureJournal(this).append(template.resolvePath(captureTitle, new Date()),
+                    template.heading, captureEntry);
+            sCaptureQueue.stop(start);
+        } catch (IOException e) {
+            Log.d(TAG, e.toString());
+            Toast.makeText(this, "Capture failed.", Toast.LENGTH_LONG).show();
+            return;
+        } catch (IllegalArgumentException e) {
+            // The template's path placeholders do not expand.
+            Log.d(TAG, e.toString());
+            Toast.makeText(this, "Capture failed: bad template " + template + ".", Toast.LENGTH_LONG).show();
+            return;
+        }
+        Toast.makeText(this, "Capture queued.", Toast.LENGTH_SHORT).show();
+        // The service sets up the session and uploads once this is gone; offline, the capture waits.
+        OrgSyncService.requestFlush(this);
+        finish();
+    }
+
+    // The first template of the config copy OrgCapture keeps; there is no
+    // room for a chooser here. The default template without a copy.
+    private OrgCaptureTemplate loadTemplate() {
+        final File localFile = new File(getFilesDir(), OrgCapture.CAPTURE_TEMPLATES_FILE_NAME);
+        if (!localFile.isFile())
+            return OrgCaptureTemplate.defaultTemplate();
+        try {
+            OrgStreams.ContentBuffer json = new OrgStreams.ContentBuffer(0);
+            FileInputStream in = new FileInputStream(localFile);
+            try {
+                OrgStreams.copy(in, json, localFile.length(), null);
+            } finally {
+                in.close();
+            }
+            return CaptureTemplateConfig.parse(json.decode()).get(0);
+        } catch (IOException e) {
+            Log.d(TAG, e.toString());
+        } catch (ParseException e) {
+            Log.d(TAG, e.toString());
+        }
+        return OrgCaptureTemplate.defaultTemplate();
+    }
+}
@@ -0,0 +1,88 @@
+package com.dropbox.android.sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.dropbox.android.sample.OrgUtil.OrgData;
+
+/**
+ * CPU cost of the cache compression levels. The size of the stored cache,
+ * the other side of the tradeoff, is printed when each trial ends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class OrgCompressionBenchmark {
+    @Param({ "1048576", "10485760" })
+    public int sizeBytes;
+
+    @Param({ "0", "1", "6", "9" })
+    public int level;
+
+    private File mDir;
+    private OrgCache mCache;
+    private OrgDocument mContent;
+    private long mOffset;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("org-compression-benchmark", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mCache = new OrgCache(new File(mDir, "life.org.cache"), level);
+        mContent = OrgDocument.of(OrgCorpus.generate(1, sizeBytes, 80, 8));
+        mCache.store("rev", mContent);
+    }
+
+    @TearDown
+    public void tearDown() {
+        final long stored = new File(mDir, "life.org.cache").length();
+        System.out.printf("%nlevel %d: %d of %d bytes stored (%.0f%%); %s%n", level, stored,
+                mContent.utf8Length(), 100.0 * stored / mContent.utf8Length(), mCache.getStats());
+        File[] children = mDir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                child.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Benchmark
+    public void store() throws IOException {
+        mCache.store("rev", mContent);
+    }
+
+    @Benchmark
+    public OrgData load() {
+        return mCache.load();
+    }
+
+    /** A chunk-sized range, as delta sync reads them back out of the cache. */
+    @Benchmark
+    public void copyRange(Blackhole blackhole) throws IOException {
+        final long length = 8 * 1024;
+        mOffset = (mOffset + 123457) % (mContent.utf8Length() - length);
+        OrgStreams.ContentBuffer out = new OrgStreams.ContentBuffer((int)length);
+        mCache.copyContentRange(mOffset, length, out);
+        blackhole.consume(out);
+    }
+}
@@ -0,0 +1,57 @@
+package com.dropbox.android.sample;
+
+import java.util.Random;
+
+/**
+ * Synthetic org files shaped like life.org: a leading "* " daily log followed
+ * by dated "** " entries with a few tags and TODO keywords. Everything is
+ * derived from the seed, so every run measures the same text.
+ */
+public class OrgCorpus {
+    private static final String[] WORDS = {
+        "org", "capture", "sync", "daily", "log", "meeting", "notes", "review", "draft",
+        "call", "plan", "read", "ship", "fix", "idea", "éclair", "naïve", "日本語",
+    };
+    private static final String[] KEYWORDS = { "", "", "", "TODO ", "DONE ", "WAITING " };
+    private static final String[] TAGS = { "", "", " :work:", " :home:", " :work:urgent:" };
+
+    private OrgCorpus() {
+    }
+
+    /**
+     * @param sizeChars approximate length of the result.
+     * @param lineLength average body line length.
+     * @param linesPerSection average body lines under each heading; fewer
+     *                        means more headings for the same size.
+     */
+    public static String generate(long seed, int sizeChars, int lineLength, int linesPerSection) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(sizeChars + 4 * lineLength);
+        sb.append("* daily log\n");
+        for (int i = 0; i < 5; ++i) {
+            appendLine(sb, random, "   ", lineLength);
+        }
+
+        int entry = 0;
+        while (sb.length() < sizeChars) {
+            sb.append("** ").append(KEYWORDS[random.nextInt(KEYWORDS.length)]);
+            sb.append("entry ").append(entry++).append(TAGS[random.nextInt(TAGS.length)]).append('\n');
+            sb.append("   [2017-").append(1 + random.nextInt(12)).append('.')
+                    .append(1 + random.nextInt(28)).append(" Mon]\n");
+            final int lines = 1 + random.nextInt(2 * linesPerSection);
+            for (int i = 0; i < lines && sb.length() < sizeChars; ++i) {
+                appendLine(sb, random, "   ", lineLength);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendLine(StringBuilder sb, Random random, String indent, int lineLength) {
+        final int target = sb.length() + lineLength / 2 + random.nextInt(lineLength + 1);
+        sb.append(indent);
+        while (sb.length() < target) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        sb.setCharAt(sb.length() - 1, '\n');
+    }
+}
@@ -0,0 +1,89 @@
+package com.dropbox.android.sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily log replacement, capture append and encoding for upload. Run with
+ * -prof gc to see the allocation per edit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class OrgEditBenchmark {
+    @Param({ "10240", "1048576", "10485760", "52428800" })
+    public int sizeBytes;
+
+    @Param({ "40", "400" })
+    public int lineLength;
+
+    @Param({ "2", "50" })
+    public int linesPerSection;
+
+    private OrgDocument mDocument;
+    private String mDailyLog;
+    private int mCaptures = 0;
+
+    @Setup
+    public void setUp() {
+        mDocument = OrgDocument.of(OrgCorpus.generate(1, sizeBytes, lineLength, linesPerSection));
+        mDailyLog = OrgUtil.GetOrgDailyLog(mDocument) + "\n   one more line";
+    }
+
+    @Benchmark
+    public OrgDocument reviseDailyLog() {
+        return OrgUtil.GetRevisedDailyLog(mDocument, mDailyLog);
+    }
+
+    @Benchmark
+    public OrgDocument appendCapture() {
+        return OrgUtil.CreateOrgAddedContent(mDocument, "capture", "captured text");
+    }
+
+    /** A long session: every capture lands on the result of the previous one. */
+    @Benchmark
+    public OrgDocument appendCaptureChained() {
+        if (++mCaptures == 10000) {
+            mCaptures = 0;
+            mDocument = OrgDocument.of(mDocument.toString());
+        }
+        mDocument = OrgUtil.CreateOrgAddedContent(mDocument, "capture", "captured text");
+        return mDocument;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public void encodeForUpload(final Blackhole blackhole) throws IOException {
+        blackhole.consume(mDocument.utf8Length());
+        mDocument.writeUtf8(new OutputStream() {
+            @Override
+            public void write(int b) {
+                blackhole.consume(b);
+            }
+
+            @Override
+            public void write(byte[] buf, int off, int len) {
+                blackhole.consume(buf);
+            }
+        });
+    }
+}
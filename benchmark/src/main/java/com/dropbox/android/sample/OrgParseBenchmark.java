@@ -0,0 +1,74 @@
+package com.dropbox.android.sample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** Outline parsing and daily log extraction. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class OrgParseBenchmark {
+    @Param({ "10240", "1048576", "10485760", "52428800" })
+    public int sizeBytes;
+
+    @Param({ "40", "400" })
+    public int lineLength;
+
+    @Param({ "2", "50" })
+    public int linesPerSection;
+
+    private String mText;
+    private OrgDocument mDocument;
+    // A fresh, unshared instance per call, so GetOrgOutline cannot reuse its last outline.
+    private OrgDocument mEdited;
+
+    @Setup
+    public void setUp() {
+        mText = OrgCorpus.generate(1, sizeBytes, lineLength, linesPerSection);
+        mDocument = OrgDocument.of(mText);
+        // Edited documents are made of several pieces, like the ones the app holds.
+        mEdited = OrgUtil.CreateOrgAddedContent(
+                OrgUtil.GetRevisedDailyLog(mDocument, "* daily log\n   edited"), "t", "c");
+    }
+
+    @Benchmark
+    public OrgOutline parseString() {
+        return OrgOutline.parse(mText);
+    }
+
+    @Benchmark
+    public OrgOutline parseDocument() {
+        return OrgOutline.parse(mEdited);
+    }
+
+    /** One segment per core; sequential below the split threshold. */
+    @Benchmark
+    public OrgOutline parseDocumentParallel() {
+        return OrgOutline.parseParallel(mEdited);
+    }
+
+    /** The steady state: the outline of the current content is already known. */
+    @Benchmark
+    public String dailyLogCached() {
+        return OrgUtil.GetOrgDailyLog(mDocument);
+    }
+
+    @Benchmark
+    public String dailyLogUncached() {
+        return OrgUtil.GetOrgDailyLog(mEdited.subSequence(0, mEdited.length()));
+    }
+}
@@ -0,0 +1,122 @@
+package com.dropbox.android.sample;
+
+import com.dropbox.android.sample.OrgUtil.OrgData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Save, full fetch and delta fetch through OrgSyncEngine against a
+ * LocalOrgStore in a temp dir, optionally behind simulated network latency.
+ * Each call moves the whole file, so these run one shot at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(value = 1, jvmArgs = { "-Xmx2g" })
+public class OrgSyncBenchmark {
+    @Param({ "10240", "1048576", "10485760", "52428800" })
+    public int sizeBytes;
+
+    /** Round trip latency of the simulated store; 0 uses the local store directly. */
+    @Param({ "0", "50" })
+    public long latencyMs;
+
+    private File mDir;
+    private LocalOrgStore mRemote;
+    private OrgSyncEngine mEngine;
+    private int mEdits = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        // The engine logs every save and fetch; keep that out of the timings.
+        OrgLog.setSink(new OrgLog.Sink() {
+            @Override
+            public void log(int priority, String tag, String msg) {
+            }
+        });
+
+        mDir = File.createTempFile("org-sync-benchmark", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mRemote = new LocalOrgStore(new File(mDir, "remote"));
+        OrgStore store = latencyMs == 0 ? mRemote
+                : new LatencyOrgStore(mRemote, latencyMs, latencyMs / 5, 0, 1);
+        mEngine = new OrgSyncEngine(store, new OrgCache(new File(mDir, "life.org.cache")), OrgUtil.ORG_PATH);
+
+        OrgDocument content = OrgDocument.of(OrgCorpus.generate(1, sizeBytes, 80, 8));
+        mRemote.write(OrgUtil.ORG_PATH, content.newUtf8InputStream(), content.utf8Length(), null, null);
+        mEngine.fetch("");
+    }
+
+    @TearDown
+    public void tearDown() {
+        deleteAll(mDir);
+    }
+
+    /** Saving an edited daily log, as the app does on the save button. */
+    @Benchmark
+    public OrgData save() throws IOException {
+        OrgData synced = mEngine.getSyncedData();
+        OrgDocument edited = OrgUtil.GetRevisedDailyLog(synced.fileFullContent,
+                "* daily log\n   edit " + (mEdits++) + "\n");
+        return mEngine.update(synced.rev, edited, null, null);
+    }
+
+    /** Reading the whole file, as on a fresh install. */
+    @Benchmark
+    public OrgData fullFetch() throws IOException {
+        return mEngine.fetch("");
+    }
+
+    /** Catching up with an edit made elsewhere; range-capable stores only send the changed chunks. */
+    @Benchmark
+    public OrgData deltaFetch(RemoteEdit edit) throws IOException {
+        return mEngine.fetch(edit.knownRev);
+    }
+
+    /** Changes one section in the middle of the remote file before each delta fetch. */
+    @State(Scope.Benchmark)
+    public static class RemoteEdit {
+        String knownRev;
+        private int mEdits = 0;
+
+        @Setup(Level.Invocation)
+        public void edit(OrgSyncBenchmark benchmark) throws IOException {
+            OrgData synced = benchmark.mEngine.getSyncedData();
+            OrgDocument content = synced.fileFullContent;
+            final int middle = content.length() / 2;
+            OrgDocument edited = content.insert(middle, "remote edit " + (mEdits++) + " ");
+            benchmark.mRemote.write(OrgUtil.ORG_PATH, edited.newUtf8InputStream(), edited.utf8Length(),
+                    synced.rev, null);
+            knownRev = synced.rev;
+        }
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,189 @@
+package com.dropbox.android.sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * OrgStore decorator that remembers the rev every call saw for a file, so
+ * getRev can answer without a round trip while that rev is recent. Writes
+ * stay conditional on the store itself, so a stale answer costs a retry,
+ * never a lost update.
+ */
+public class CachingOrgStore implements OrgStore {
+    private static final OrgMetrics.Counter sHits = OrgMetrics.counter("rev_cache.hit");
+    private static final OrgMetrics.Counter sMisses = OrgMetrics.counter("rev_cache.miss");
+
+    private final OrgStore mStore;
+    private final RevCache mRevs;
+
+    /** Revs known per path, with when they were last confirmed. Can outlive the store. */
+    public static class RevCache {
+        private final long mTtlMs;
+        private final Map<String, KnownRev> mRevs = new HashMap<>();
+
+        static class KnownRev {
+            // null if the file is known not to exist
+            final String rev;
+            final long confirmedAt;
+
+            KnownRev(String rev, long confirmedAt) {
+                this.rev = rev;
+                this.confirmedAt = confirmedAt;
+            }
+        }
+
+        public RevCache(long ttlMs) {
+            mTtlMs = ttlMs;
+        }
+
+        /** Returns the known rev if it is recent enough, otherwise null. */
+        synchronized KnownRev lookup(String path) {
+            KnownRev known = mRevs.get(path);
+            if (known == null || now() - known.confirmedAt > mTtlMs)
+                return null;
+            return known;
+        }
+
+        synchronized void confirm(String path, String rev) {
+            mRevs.put(path, new KnownRev(rev, now()));
+        }
+
+        public synchronized void invalidate(String path) {
+            mRevs.remove(path);
+        }
+
+        public synchronized void clear() {
+            mRevs.clear();
+        }
+
+        private static long now() {
+            return System.nanoTime() / 1000000;
+        }
+    }
+
+    public CachingOrgStore(OrgStore store, RevCache revs) {
+        mStore = store;
+        mRevs = revs;
+    }
+
+    @Override
+    public String getRev(String path) throws IOException {
+        RevCache.KnownRev known = mRevs.lookup(path);
+        if (known != null) {
+            sHits.increment();
+            return known.rev;
+        }
+        sMisses.increment();
+        final String rev = mStore.getRev(path);
+        mRevs.confirm(path, rev);
+        return rev;
+    }
+
+    @Override
+    public String awaitChange(String path, String knownRev, long timeoutMs) throws IOException {
+        final String rev = mStore.awaitChange(path, knownRev, timeoutMs);
+        mRevs.confirm(path, rev);
+        return rev;
+    }
+
+    @Override
+    public String read(String path, OutputStream out) throws IOException {
+        final String rev = mStore.read(path, out);
+        mRevs.confirm(path, rev);
+        return rev;
+    }
+
+    @Override
+    public String write(String path, InputStream in, long length, String parentRev,
+                        ProgressListener listener) throws IOException {
+        try {
+            final String rev = mStore.write(path, in, length, parentRev, listener);
+            mRevs.confirm(path, rev);
+            return rev;
+        } catch (RevMismatchException e) {
+            if (e.currentRev != null) {
+                mRevs.confirm(path, e.currentRev);
+            } else {
+                mRevs.invalidate(path);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean canAppend() {
+        return mStore.canAppend();
+    }
+
+    @Override
+    public String append(String path, InputStream in, long length) throws IOException {
+        final String rev = mStore.append(path, in, length);
+        mRevs.confirm(path, rev);
+        return rev;
+    }
+
+    @Override
+    public boolean canReadRanges() {
+        return mStore.canReadRanges();
+    }
+
+    @Override
+    public ChunkManifest readManifest(String path) throws IOException {
+        ChunkManifest manifest = mStore.readManifest(path);
+        mRevs.confirm(path, manifest.rev);
+        return manifest;
+    }
+
+    @Override
+    public String readRange(String path, long offset, long length, OutputStream out) throws IOException {
+        final String rev = mStore.readRange(path, offset, length, out);
+        mRevs.confirm(path, rev);
+        return rev;
+    }
+
+    @Override
+    public boolean canUploadChunks() {
+        return mStore.canUploadChunks();
+    }
+
+    @Override
+    public UploadStatus uploadChunk(String uploadId, long offset, InputStream in, long length) throws IOException {
+        return mStore.uploadChunk(uploadId, offset, in, length);
+    }
+
+    @Override
+    public String commitUpload(String path, String uploadId, String parentRev) throws IOException {
+        try {
+            final String rev = mStore.commitUpload(path, uploadId, parentRev);
+            mRevs.confirm(path, rev);
+            return rev;
+        } catch (RevMismatchException e) {
+            if (e.currentRev != null) {
+                mRevs.confirm(path, e.currentRev);
+            } else {
+                mRevs.invalidate(path);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        return mStore.list(folder);
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        try {
+            mStore.delete(path);
+            mRevs.confirm(path, null);
+        } catch (IOException e) {
+            mRevs.invalidate(path);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.dropbox.android.sample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * Durable queue of captures that have not been uploaded yet. Each record is
+ * appended and synced before the capture is acknowledged; a torn record at
+ * the tail (crash mid-write) is ignored on read.
+ *
+ * Record layout: int payload length, long CRC32 of the payload, payload of
+ * UTF-8 target path, '\n', UTF-8 capture entry. Records filed under a
+ * heading start with '\u0001' and carry the heading between path and entry.
+ * With a compression level, payloads that deflate smaller are stored as
+ * byte 2, int raw length, deflated payload.
+ */
+public class CaptureJournal {
+    private static final String TAG = "CaptureJournal";
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final char HEADING_MARKER = '\u0001';
+    private static final byte DEFLATED_MARKER = 2;
+
+    private final File mFile;
+    private final int mLevel;
+    private final OrgCompression.Stats mStats = new OrgCompression.Stats();
+
+    public static class Record {
+        public final String path;
+        /** Title of the heading to file the entry under, or null to add it at the end. */
+        public final String heading;
+        public final String entry;
+        // Journal offset just past this record.
+        final long end;
+
+        Record(String path, String heading, String entry, long end) {
+            this.path = path;
+            this.heading = heading;
+            this.entry = entry;
+            this.end = end;
+        }
+
+        // Records are told apart by what they hold, since offsets shift whenever
+        // a flush of another target rewrites the journal.
+        String key() {
+            return path + "\n" + (heading != null ? heading : "") + "\n" + entry;
+        }
+    }
+
+    public CaptureJournal(File file) {
+        this(file, OrgCompression.NONE);
+    }
+
+    /** Records are written at the given compression level; records of any level are read. */
+    public CaptureJournal(File file, int level) {
+        mFile = file;
+        mLevel = level;
+    }
+
+    public OrgCompression.Stats getStats() {
+        return mStats;
+    }
+
+    public void append(String path, String entry) throws IOException {
+        append(path, null, entry);
+    }
+
+    public synchronized void append(String path, String heading, String entry) throws IOException {
+        truncateTornTail();
+        FileOutputStream fileOut = new FileOutputStream(mFile, true);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            writeRecord(out, path, heading, entry);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return readAll().isEmpty();
+    }
+
+    /** Returns all complete records in capture order. */
+    public synchronized List<Record> readAll() {
+        List<Record> records = new ArrayList<>();
+        if (!mFile.isFile())
+            return records;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                long offset = 0;
+                while (true) {
+                    final int length = in.readInt();
+                    final long checksum = in.readLong();
+                    if (length < 0 || length > MAX_RECORD_SIZE)
+                        break;
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload, 0, length);
+                    if (crc.getValue() != checksum)
+                        break;
+                    final String text = decode(payload);
+                    final int split = text.indexOf('\n');
+                    // A zero-filled tail checks out as empty payloads; nothing valid follows it.
+                    if (split < 0)
+                        break;
+                    offset += 4 + 8 + length;
+                    if (text.charAt(0) == HEADING_MARKER) {
+                        final int headingEnd = text.indexOf('\n', split + 1);
+                        if (headingEnd < 0)
+                            break;
+                        records.add(new Record(text.substring(1, split), text.substring(split + 1, headingEnd),
+                                text.substring(headingEnd + 1), offset));
+                    } else {
+                        records.add(new Record(text.substring(0, split), null, text.substring(split + 1), offset));
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (EOFException e) {
+            // Torn or empty tail; everything before it is intact.
+        } catch (IOException e) {
+            OrgLog.d(TAG, e.toString());
+        }
+        return records;
+    }
+
+    /** Returns the target paths with queued records, in capture order. */
+    public synchronized Set<String> paths() {
+        Set<String> paths = new LinkedHashSet<>();
+        for (Record record : readAll()) {
+            paths.add(record.path);
+        }
+        return paths;
+    }
+
+    /**
+     * Drops the given records. Records appended since they were read, for
+     * example while they were being uploaded, are kept, and so are records
+     * removed meanwhile by another flush.
+     */
+    public synchronized void remove(Collection<Record> flushed) throws IOException {
+        // Identical captures are counted, so only as many copies as were flushed go.
+        Map<String, Integer> flushedCounts = new HashMap<>();
+        for (Record record : flushed) {
+            final Integer count = flushedCounts.get(record.key());
+            flushedCounts.put(record.key(), count != null ? count + 1 : 1);
+        }
+        List<Record> kept = new ArrayList<>();
+        for (Record record : readAll()) {
+            final Integer count = flushedCounts.get(record.key());
+            if (count == null) {
+                kept.add(record);
+            } else if (count == 1) {
+                flushedCounts.remove(record.key());
+            } else {
+                flushedCounts.put(record.key(), count - 1);
+            }
+        }
+        if (kept.isEmpty()) {
+            if (!mFile.delete() && mFile.exists())
+                throw new IOException("delete failed: " + mFile);
+            return;
+        }
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            for (Record record : kept) {
+                writeRecord(out, record.path, record.heading, record.entry);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("rename failed: " + mFile);
+        }
+    }
+
+    private void writeRecord(DataOutputStream out, String path, String heading, String entry)
+            throws IOException {
+        final String text = heading != null
+                ? HEADING_MARKER + path + "\n" + heading + "\n" + entry
+                : path + "\n" + entry;
+        final byte[] payload = encode(text.getBytes(OrgCache.UTF_8.name()));
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        out.writeInt(payload.length);
+        out.writeLong(crc.getValue());
+        out.write(payload);
+    }
+
+    // Deflates the payload if that makes it smaller.
+    private byte[] encode(byte[] raw) {
+        if (mLevel == OrgCompression.NONE)
+            return raw;
+        OrgCompression.Compressor compressor = new OrgCompression.Compressor(mLevel, mStats);
+        try {
+            final int size = compressor.compress(raw, 0, raw.length);
+            if (1 + 4 + size >= raw.length)
+                return raw;
+            return ByteBuffer.allocate(1 + 4 + size).put(DEFLATED_MARKER).putInt(raw.length)
+                    .put(compressor.output(), 0, size).array();
+        } finally {
+            compressor.end();
+        }
+    }
+
+    private String decode(byte[] payload) throws IOException {
+        if (payload.length == 0 || payload[0] != DEFLATED_MARKER)
+            return new String(payload, OrgCache.UTF_8.name());
+        final int rawLength = ByteBuffer.wrap(payload, 1, 4).getInt();
+        if (rawLength < 0 || rawLength > MAX_RECORD_SIZE)
+            throw new IOException("bad record length: " + rawLength);
+        byte[] raw = new byte[rawLength];
+        try {
+            OrgCompression.decompress(payload, 5, payload.length - 5, raw, 0, rawLength, mStats);
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt record: " + e.getMessage());
+        }
+        return new String(raw, OrgCache.UTF_8.name());
+    }
+
+    private void truncateTornTail() throws IOException {
+        if (!mFile.isFile())
+            return;
+        List<Record> records = readAll();
+        final long end = records.isEmpty() ? 0 : records.get(records.size() - 1).end;
+        if (end == mFile.length())
+            return;
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(end);
+        } finally {
+            raf.close();
+        }
+    }
+}
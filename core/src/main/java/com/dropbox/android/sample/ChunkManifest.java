@@ -0,0 +1,193 @@
+package com.dropbox.android.sample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Content-defined chunking of a file. Boundaries come from a gear rolling
+ * hash, so an edit only changes the chunks around it and the rest keep their
+ * hashes. Both sides of a delta sync must use this class to agree on
+ * boundaries.
+ */
+public class ChunkManifest {
+    private static final int MAGIC = 0x4f52474d; // "ORGM"
+    private static final int MIN_CHUNK = 2 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+    // About one boundary every 8 KB past MIN_CHUNK. The top bits of the gear
+    // hash depend on the last 64 bytes, the bottom ones only on the last few.
+    private static final long BOUNDARY_MASK = -1L << (64 - 13);
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6f726763L);
+        for (int i = 0; i < GEAR.length; ++i) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    public final String rev;
+    private final List<Chunk> mChunks;
+    private final Map<Long, Chunk> mByHash = new HashMap<>();
+
+    public static class Chunk {
+        public final long offset;
+        public final int length;
+        public final long hash;
+
+        Chunk(long offset, int length, long hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    private ChunkManifest(String rev, List<Chunk> chunks) {
+        this.rev = rev;
+        mChunks = chunks;
+        for (Chunk chunk : chunks) {
+            mByHash.put(chunk.hash, chunk);
+        }
+    }
+
+    public List<Chunk> chunks() {
+        return mChunks;
+    }
+
+    public Chunk find(long hash) {
+        return mByHash.get(hash);
+    }
+
+    public long length() {
+        if (mChunks.isEmpty())
+            return 0;
+        Chunk last = mChunks.get(mChunks.size() - 1);
+        return last.offset + last.length;
+    }
+
+    public static ChunkManifest of(String rev, byte[] buf, int off, int len) {
+        Builder builder = new Builder();
+        builder.write(buf, off, len);
+        return builder.finish(rev);
+    }
+
+    public void writeTo(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(rev);
+            out.writeInt(mChunks.size());
+            for (Chunk chunk : mChunks) {
+                out.writeLong(chunk.offset);
+                out.writeInt(chunk.length);
+                out.writeLong(chunk.hash);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("rename failed: " + file);
+        }
+    }
+
+    /** Returns the manifest stored in file, or null if there is none. */
+    public static ChunkManifest readFrom(File file) {
+        if (!file.isFile())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC)
+                    return null;
+                final String rev = in.readUTF();
+                final int count = in.readInt();
+                List<Chunk> chunks = new ArrayList<>(count);
+                for (int i = 0; i < count; ++i) {
+                    chunks.add(new Chunk(in.readLong(), in.readInt(), in.readLong()));
+                }
+                return new ChunkManifest(rev, chunks);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Computes chunks on the fly from the bytes written to it. */
+    public static class Builder extends OutputStream {
+        private final List<Chunk> mChunks = new ArrayList<>();
+        private final MessageDigest mDigest;
+        private long mChunkStart = 0;
+        private int mChunkLength = 0;
+        private long mGear = 0;
+
+        public Builder() {
+            try {
+                mDigest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        @Override
+        public void write(int b) {
+            mDigest.update((byte)b);
+            ++mChunkLength;
+            mGear = (mGear << 1) + GEAR[b & 0xff];
+            if (mChunkLength >= MAX_CHUNK
+                    || (mChunkLength >= MIN_CHUNK && (mGear & BOUNDARY_MASK) == 0))
+                cut();
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) {
+            final int end = off + len;
+            int digested = off;
+            for (int i = off; i < end; ++i) {
+                ++mChunkLength;
+                mGear = (mGear << 1) + GEAR[buf[i] & 0xff];
+                if (mChunkLength >= MAX_CHUNK
+                        || (mChunkLength >= MIN_CHUNK && (mGear & BOUNDARY_MASK) == 0)) {
+                    mDigest.update(buf, digested, i + 1 - digested);
+                    digested = i + 1;
+                    cut();
+                }
+            }
+            mDigest.update(buf, digested, end - digested);
+        }
+
+        public ChunkManifest finish(String rev) {
+            if (mChunkLength > 0)
+                cut();
+            return new ChunkManifest(rev, mChunks);
+        }
+
+        private void cut() {
+            final byte[] digest = mDigest.digest();
+            long hash = 0;
+            for (int i = 0; i < 8; ++i) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            mChunks.add(new Chunk(mChunkStart, mChunkLength, hash));
+            mChunkStart += mChunkLength;
+            mChunkLength = 0;
+            mGear = 0;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.dropbox.android.sample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Uploads a file in chunks and commits it only if the file is still at the
+ * parent rev. A failed chunk is retried from memory; whatever the store
+ * acknowledged is recorded in a state file after every chunk, so an upload
+ * that still fails, or whose process dies, picks up from there the next
+ * time the same content is uploaded against the same rev. Only the bytes
+ * lost with the connection are ever sent twice.
+ */
+public class ChunkedUploader {
+    private static final String TAG = "ChunkedUploader";
+    private static final int MAGIC = 0x4f524755; // "ORGU"
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    // Consecutive failures, without the store taking a byte, before giving up for now.
+    private static final int MAX_ATTEMPTS = 4;
+    // Stores drop uncommitted uploads after about a day; older state is not worth trying.
+    private static final long MAX_STATE_AGE_MS = 20 * 60 * 60 * 1000;
+
+    private static final OrgMetrics.Counter sChunks = OrgMetrics.counter("upload.chunks");
+    private static final OrgMetrics.Counter sRetries = OrgMetrics.counter("upload.chunk_retry");
+    private static final OrgMetrics.Counter sResumed = OrgMetrics.counter("upload.resumed");
+    private static final OrgMetrics.Counter sResumedBytes = OrgMetrics.counter("upload.resumed.bytes");
+
+    private final OrgStore mStore;
+    private final File mStateFile;
+    private final int mChunkSize;
+
+    // The upload in progress, as persisted.
+    private static class State {
+        final String path;
+        final String parentRev;
+        final long length;
+        final long checksum;
+        final long created;
+        String uploadId;
+        long offset;
+
+        State(String path, String parentRev, long length, long checksum, long created) {
+            this.path = path;
+            this.parentRev = parentRev;
+            this.length = length;
+            this.checksum = checksum;
+            this.created = created;
+        }
+
+        boolean isFor(String path, String parentRev, long length, long checksum) {
+            return this.path.equals(path) && (this.parentRev == null ? parentRev == null
+                    : this.parentRev.equals(parentRev)) && this.length == length && this.checksum == checksum
+                    && Math.abs(System.currentTimeMillis() - created) < MAX_STATE_AGE_MS;
+        }
+    }
+
+    public ChunkedUploader(OrgStore store, File stateFile) {
+        this(store, stateFile, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedUploader(OrgStore store, File stateFile, int chunkSize) {
+        mStore = store;
+        mStateFile = stateFile;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Uploads length bytes from in and commits them to path if it is still at
+     * parentRev (null: does not exist yet), like OrgStore.write, and returns
+     * the new rev. checksum identifies the content, e.g. its CRC-32; an
+     * earlier upload of the same content against the same rev is resumed. in
+     * is read once, in order; resumed bytes are read too, just not sent.
+     */
+    public String upload(String path, InputStream in, long length, long checksum, String parentRev,
+                         OrgStore.ProgressListener listener) throws IOException {
+        if (length == 0)
+            return mStore.write(path, in, 0, parentRev, listener);
+
+        State state = readState();
+        if (state != null && state.isFor(path, parentRev, length, checksum)) {
+            sResumed.increment();
+            sResumedBytes.add(state.offset);
+            OrgLog.i(TAG, "resuming upload of " + path + " at " + state.offset + " of " + length);
+        } else {
+            state = new State(path, parentRev, length, checksum, System.currentTimeMillis());
+        }
+
+        // Bytes [chunkStart, chunkStart + chunkLength) of the content are in chunk.
+        final byte[] chunk = new byte[(int)Math.min(mChunkSize, length)];
+        long chunkStart = 0;
+        int chunkLength = 0;
+        int attempts = 0;
+        while (state.offset < length) {
+            if (Thread.interrupted())
+                throw new InterruptedIOException();
+            if (state.offset >= chunkStart + chunkLength) {
+                chunkStart += chunkLength;
+                chunkLength = 0;
+                // Resumed bytes are read all the same, for whatever in feeds on the way.
+                while (chunkStart < state.offset) {
+                    final int n = readFully(in, chunk, (int)Math.min(chunk.length, state.offset - chunkStart));
+                    if (n == 0)
+                        throw new IOException("content of " + path + " ends at " + chunkStart);
+                    chunkStart += n;
+                }
+                chunkLength = readFully(in, chunk, (int)Math.min(chunk.length, length - chunkStart));
+                if (chunkLength == 0)
+                    throw new IOException("content of " + path + " ends at " + chunkStart);
+            }
+            if (state.offset < chunkStart) {
+                deleteState();
+                throw new IOException("store lost upload of " + path + " before " + chunkStart);
+            }
+
+            final int from = (int)(state.offset - chunkStart);
+            try {
+                OrgStore.UploadStatus status = mStore.uploadChunk(state.uploadId, state.offset,
+                        new ByteArrayInputStream(chunk, from, chunkLength - from), chunkLength - from);
+                sChunks.increment();
+                state.uploadId = status.uploadId;
+                state.offset = status.offset;
+                attempts = 0;
+                writeState(state);
+                if (listener != null)
+                    listener.onProgress(state.offset, length);
+            } catch (OrgStore.UploadOffsetException e) {
+                if (e.offset < 0) {
+                    deleteState();
+                    throw e;
+                }
+                // The store got more (or less) than we heard back; carry on from what it has.
+                OrgLog.i(TAG, e.getMessage());
+                if (e.offset > state.offset)
+                    attempts = 0;
+                state.offset = e.offset;
+                writeState(state);
+                if (++attempts >= MAX_ATTEMPTS)
+                    throw e;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (++attempts >= MAX_ATTEMPTS)
+                    throw e;
+                sRetries.increment();
+                OrgLog.i(TAG, "chunk at " + state.offset + " failed, retrying: " + e);
+            }
+        }
+
+        for (attempts = 1; ; ++attempts) {
+            try {
+                final String rev = mStore.commitUpload(path, state.uploadId, parentRev);
+                deleteState();
+                return rev;
+            } catch (OrgStore.RevMismatchException e) {
+                // The content will have to be merged and uploaded afresh.
+                deleteState();
+                throw e;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempts >= MAX_ATTEMPTS)
+                    throw e;
+                OrgLog.i(TAG, "commit failed, retrying: " + e);
+            }
+        }
+    }
+
+    /** Forgets the upload in progress, if any. */
+    public void deleteState() {
+        mStateFile.delete();
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            final int n = in.read(buf, total, len - total);
+            if (n == -1)
+                break;
+            total += n;
+        }
+        return total;
+    }
+
+    private State readState() {
+        if (!mStateFile.isFile())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mStateFile)));
+            try {
+                if (in.readInt() != MAGIC)
+                    return null;
+                final String path = in.readUTF();
+                final String parentRev = in.readBoolean() ? in.readUTF() : null;
+                State state = new State(path, parentRev, in.readLong(), in.readLong(), in.readLong());
+                state.uploadId = in.readBoolean() ? in.readUTF() : null;
+                state.offset = in.readLong();
+                return state;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Best effort: without the state the next attempt starts over, that is all.
+    private void writeState(State state) {
+        File temp = new File(mStateFile.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeUTF(state.path);
+                out.writeBoolean(state.parentRev != null);
+                if (state.parentRev != null)
+                    out.writeUTF(state.parentRev);
+                out.writeLong(state.length);
+                out.writeLong(state.checksum);
+                out.writeLong(state.created);
+                out.writeBoolean(state.uploadId != null);
+                if (state.uploadId != null)
+                    out.writeUTF(state.uploadId);
+                out.writeLong(state.offset);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(mStateFile))
+                throw new IOException("rename failed: " + mStateFile);
+        } catch (IOException e) {
+            temp.delete();
+            OrgLog.d(TAG, "upload state not saved: " + e);
+        }
+    }
+}
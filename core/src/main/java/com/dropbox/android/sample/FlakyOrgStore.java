@@ -0,0 +1,207 @@
+package com.dropbox.android.sample;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * OrgStore decorator that cuts transfers off midway with a seeded
+ * probability, the way a flaky mobile link does, so retry and resume paths
+ * can be exercised on a desktop JVM. Uploaded chunks can also be accepted
+ * by the store with the acknowledgement lost on the way back. Metadata
+ * calls always go through.
+ */
+public class FlakyOrgStore implements OrgStore {
+    // Cut point range for reads, whose length is not known up front.
+    private static final int MAX_READ_CUT = 1024 * 1024;
+
+    /** Thrown for every injected failure, to tell them apart from real ones. */
+    public static class InjectedFailureException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public InjectedFailureException(String message) {
+            super(message);
+        }
+    }
+
+    private final OrgStore mStore;
+    private final double mFailureRate;
+    private final Random mRandom;
+    private int mFailures = 0;
+
+    /**
+     * @param failureRate chance that any one transfer fails, 0 to 1.
+     */
+    public FlakyOrgStore(OrgStore store, double failureRate, long seed) {
+        mStore = store;
+        mFailureRate = failureRate;
+        mRandom = new Random(seed);
+    }
+
+    /** Number of failures injected so far. */
+    public synchronized int failures() {
+        return mFailures;
+    }
+
+    @Override
+    public String getRev(String path) throws IOException {
+        return mStore.getRev(path);
+    }
+
+    @Override
+    public String awaitChange(String path, String knownRev, long timeoutMs) throws IOException {
+        return mStore.awaitChange(path, knownRev, timeoutMs);
+    }
+
+    @Override
+    public String read(String path, OutputStream out) throws IOException {
+        return mStore.read(path, cut(out, MAX_READ_CUT));
+    }
+
+    @Override
+    public String write(String path, InputStream in, long length, String parentRev,
+                        ProgressListener listener) throws IOException {
+        return mStore.write(path, cut(in, length), length, parentRev, listener);
+    }
+
+    @Override
+    public boolean canAppend() {
+        return mStore.canAppend();
+    }
+
+    @Override
+    public String append(String path, InputStream in, long length) throws IOException {
+        return mStore.append(path, cut(in, length), length);
+    }
+
+    @Override
+    public boolean canReadRanges() {
+        return mStore.canReadRanges();
+    }
+
+    @Override
+    public ChunkManifest readManifest(String path) throws IOException {
+        return mStore.readManifest(path);
+    }
+
+    @Override
+    public String readRange(String path, long offset, long length, OutputStream out) throws IOException {
+        return mStore.readRange(path, offset, length, cut(out, length));
+    }
+
+    @Override
+    public boolean canUploadChunks() {
+        return mStore.canUploadChunks();
+    }
+
+    @Override
+    public UploadStatus uploadChunk(String uploadId, long offset, InputStream in, long length) throws IOException {
+        final boolean loseAck = shouldFail();
+        final UploadStatus status = mStore.uploadChunk(uploadId, offset, loseAck ? in : cut(in, length), length);
+        if (loseAck)
+            throw injected("acknowledgement of " + status.uploadId + " at " + status.offset + " lost");
+        return status;
+    }
+
+    @Override
+    public String commitUpload(String path, String uploadId, String parentRev) throws IOException {
+        if (shouldFail())
+            throw injected("commit of " + uploadId + " lost");
+        return mStore.commitUpload(path, uploadId, parentRev);
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        return mStore.list(folder);
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        mStore.delete(path);
+    }
+
+    private synchronized boolean shouldFail() {
+        return mRandom.nextDouble() < mFailureRate;
+    }
+
+    // Byte count after which the next transfer fails, or -1 to let it through.
+    private synchronized long cutPoint(long length) {
+        if (length <= 0 || mRandom.nextDouble() >= mFailureRate)
+            return -1;
+        return (long)(mRandom.nextDouble() * length);
+    }
+
+    private synchronized InjectedFailureException injected(String message) {
+        ++mFailures;
+        return new InjectedFailureException("injected failure: " + message);
+    }
+
+    private InputStream cut(InputStream in, long length) {
+        final long cut = cutPoint(length);
+        return cut < 0 ? in : new CutInputStream(in, cut);
+    }
+
+    private OutputStream cut(OutputStream out, long length) {
+        final long cut = cutPoint(length);
+        return cut < 0 ? out : new CutOutputStream(out, cut);
+    }
+
+    private class CutInputStream extends FilterInputStream {
+        private long mRemaining;
+
+        CutInputStream(InputStream in, long cut) {
+            super(in);
+            mRemaining = cut;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining == 0)
+                throw injected("transfer cut off");
+            final int b = super.read();
+            if (b != -1)
+                --mRemaining;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (mRemaining == 0)
+                throw injected("transfer cut off");
+            final int n = super.read(buf, off, (int)Math.min(len, mRemaining));
+            if (n > 0)
+                mRemaining -= n;
+            return n;
+        }
+    }
+
+    private class CutOutputStream extends FilterOutputStream {
+        private long mRemaining;
+
+        CutOutputStream(OutputStream out, long cut) {
+            super(out);
+            mRemaining = cut;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mRemaining == 0)
+                throw injected("transfer cut off");
+            out.write(b);
+            --mRemaining;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            final int n = (int)Math.min(len, mRemaining);
+            out.write(buf, off, n);
+            mRemaining -= n;
+            if (n < len)
+                throw injected("transfer cut off");
+        }
+    }
+}
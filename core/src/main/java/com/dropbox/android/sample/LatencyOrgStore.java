@@ -0,0 +1,185 @@
+package com.dropbox.android.sample;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * OrgStore decorator that adds a fixed round-trip latency with seeded jitter
+ * and an optional bandwidth cap to every call, so sync behaviour over a slow
+ * network can be reproduced on a desktop JVM.
+ */
+public class LatencyOrgStore implements OrgStore {
+    private final OrgStore mStore;
+    private final long mLatencyMs;
+    private final long mJitterMs;
+    private final long mBytesPerSecond;
+    private final Random mRandom;
+
+    /**
+     * @param bytesPerSecond transfer cap for read, write and append; 0 for none.
+     */
+    public LatencyOrgStore(OrgStore store, long latencyMs, long jitterMs,
+                           long bytesPerSecond, long seed) {
+        mStore = store;
+        mLatencyMs = latencyMs;
+        mJitterMs = jitterMs;
+        mBytesPerSecond = bytesPerSecond;
+        mRandom = new Random(seed);
+    }
+
+    @Override
+    public String getRev(String path) throws IOException {
+        roundTrip();
+        return mStore.getRev(path);
+    }
+
+    @Override
+    public String awaitChange(String path, String knownRev, long timeoutMs) throws IOException {
+        roundTrip();
+        return mStore.awaitChange(path, knownRev, timeoutMs);
+    }
+
+    @Override
+    public String read(String path, OutputStream out) throws IOException {
+        roundTrip();
+        return mStore.read(path, new ThrottledOutputStream(out));
+    }
+
+    @Override
+    public String write(String path, InputStream in, long length, String parentRev,
+                        ProgressListener listener) throws IOException {
+        roundTrip();
+        return mStore.write(path, new ThrottledInputStream(in), length, parentRev, listener);
+    }
+
+    @Override
+    public boolean canAppend() {
+        return mStore.canAppend();
+    }
+
+    @Override
+    public String append(String path, InputStream in, long length) throws IOException {
+        roundTrip();
+        return mStore.append(path, new ThrottledInputStream(in), length);
+    }
+
+    @Override
+    public boolean canReadRanges() {
+        return mStore.canReadRanges();
+    }
+
+    @Override
+    public ChunkManifest readManifest(String path) throws IOException {
+        roundTrip();
+        ChunkManifest manifest = mStore.readManifest(path);
+        // Roughly what a serialized manifest costs on the wire.
+        throttle(manifest.chunks().size() * 20L);
+        return manifest;
+    }
+
+    @Override
+    public String readRange(String path, long offset, long length, OutputStream out) throws IOException {
+        roundTrip();
+        return mStore.readRange(path, offset, length, new ThrottledOutputStream(out));
+    }
+
+    @Override
+    public boolean canUploadChunks() {
+        return mStore.canUploadChunks();
+    }
+
+    @Override
+    public UploadStatus uploadChunk(String uploadId, long offset, InputStream in, long length) throws IOException {
+        roundTrip();
+        return mStore.uploadChunk(uploadId, offset, new ThrottledInputStream(in), length);
+    }
+
+    @Override
+    public String commitUpload(String path, String uploadId, String parentRev) throws IOException {
+        roundTrip();
+        return mStore.commitUpload(path, uploadId, parentRev);
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        roundTrip();
+        return mStore.list(folder);
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        roundTrip();
+        mStore.delete(path);
+    }
+
+    private void roundTrip() throws IOException {
+        long delay = mLatencyMs;
+        synchronized (mRandom) {
+            if (mJitterMs > 0)
+                delay += (long)(mRandom.nextDouble() * mJitterMs);
+        }
+        sleep(delay);
+    }
+
+    private void throttle(long bytes) throws IOException {
+        if (mBytesPerSecond > 0)
+            sleep(bytes * 1000 / mBytesPerSecond);
+    }
+
+    private static void sleep(long ms) throws IOException {
+        if (ms <= 0)
+            return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private class ThrottledInputStream extends FilterInputStream {
+        ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1)
+                throttle(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            final int n = super.read(buf, off, len);
+            if (n > 0)
+                throttle(n);
+            return n;
+        }
+    }
+
+    private class ThrottledOutputStream extends FilterOutputStream {
+        ThrottledOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            throttle(1);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            out.write(buf, off, len);
+            throttle(len);
+        }
+    }
+}
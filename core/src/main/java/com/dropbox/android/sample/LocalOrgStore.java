@@ -0,0 +1,302 @@
+package com.dropbox.android.sample;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * OrgStore over a local directory. Revs are per-file counters kept in a
+ * ".revs" sidecar tree, so conditional writes behave like the remote store
+ * without depending on file timestamp granularity. Counters outlive their
+ * files, so revs never repeat for a path.
+ */
+public class LocalOrgStore implements OrgStore {
+    private static final String REV_DIR = ".revs";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String UPLOAD_DIR = ".uploads";
+
+    private final File mRoot;
+    private final Map<String, ChunkManifest> mManifests = new HashMap<>();
+
+    public LocalOrgStore(File root) {
+        mRoot = root;
+    }
+
+    @Override
+    public synchronized String getRev(String path) throws IOException {
+        if (!file(path).isFile())
+            return null;
+        return Long.toString(readRevCounter(path));
+    }
+
+    @Override
+    public synchronized String awaitChange(String path, String knownRev, long timeoutMs) throws IOException {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        String rev = getRev(path);
+        while (knownRev == null ? rev == null : knownRev.equals(rev)) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                break;
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            rev = getRev(path);
+        }
+        return rev;
+    }
+
+    @Override
+    public String read(String path, OutputStream out) throws IOException {
+        final String rev;
+        final FileInputStream in;
+        synchronized (this) {
+            rev = getRev(path);
+            if (rev == null)
+                throw new IOException("not found: " + path);
+            // The open stream keeps the old content even if a write renames over it.
+            in = new FileInputStream(file(path));
+        }
+        try {
+            OrgStreams.copy(in, out, -1, null);
+        } finally {
+            in.close();
+        }
+        return rev;
+    }
+
+    @Override
+    public String write(String path, InputStream in, long length, String parentRev,
+                        ProgressListener listener) throws IOException {
+        final File target = file(path);
+        final File temp = new File(target.getPath() + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        target.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            OrgStreams.copy(in, out, length, listener);
+        } finally {
+            out.close();
+        }
+
+        synchronized (this) {
+            final String currRev = getRev(path);
+            if (currRev == null ? parentRev != null : !currRev.equals(parentRev)) {
+                temp.delete();
+                throw new RevMismatchException(path, parentRev, currRev);
+            }
+            if (!temp.renameTo(target)) {
+                temp.delete();
+                throw new IOException("rename failed: " + target);
+            }
+            return bumpRev(path);
+        }
+    }
+
+    @Override
+    public boolean canAppend() {
+        return true;
+    }
+
+    @Override
+    public synchronized String append(String path, InputStream in, long length) throws IOException {
+        final File target = file(path);
+        target.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(target, true);
+        try {
+            OrgStreams.copy(in, out, length, null);
+        } finally {
+            out.close();
+        }
+        return bumpRev(path);
+    }
+
+    @Override
+    public boolean canReadRanges() {
+        return true;
+    }
+
+    @Override
+    public ChunkManifest readManifest(String path) throws IOException {
+        final String rev;
+        final FileInputStream in;
+        synchronized (this) {
+            rev = getRev(path);
+            if (rev == null)
+                throw new IOException("not found: " + path);
+            ChunkManifest cached = mManifests.get(path);
+            if (cached != null && cached.rev.equals(rev))
+                return cached;
+            in = new FileInputStream(file(path));
+        }
+        ChunkManifest.Builder builder = new ChunkManifest.Builder();
+        try {
+            OrgStreams.copy(in, builder, -1, null);
+        } finally {
+            in.close();
+        }
+        ChunkManifest manifest = builder.finish(rev);
+        synchronized (this) {
+            mManifests.put(path, manifest);
+        }
+        return manifest;
+    }
+
+    @Override
+    public String readRange(String path, long offset, long length, OutputStream out) throws IOException {
+        final String rev;
+        final RandomAccessFile in;
+        synchronized (this) {
+            rev = getRev(path);
+            if (rev == null)
+                throw new IOException("not found: " + path);
+            in = new RandomAccessFile(file(path), "r");
+        }
+        try {
+            in.seek(offset);
+            byte[] buf = new byte[(int)Math.min(length, 64 * 1024)];
+            long remaining = length;
+            while (remaining > 0) {
+                final int n = in.read(buf, 0, (int)Math.min(buf.length, remaining));
+                if (n == -1)
+                    throw new IOException("range past end of " + path);
+                out.write(buf, 0, n);
+                remaining -= n;
+            }
+        } finally {
+            in.close();
+        }
+        return rev;
+    }
+
+    @Override
+    public boolean canUploadChunks() {
+        return true;
+    }
+
+    // A chunk cut off midway is dropped whole, so the upload stays at offset.
+    @Override
+    public synchronized UploadStatus uploadChunk(String uploadId, long offset, InputStream in, long length)
+            throws IOException {
+        final String id = uploadId != null ? uploadId : UUID.randomUUID().toString();
+        final File upload = uploadFile(id);
+        if (uploadId == null) {
+            upload.getParentFile().mkdirs();
+        } else if (!upload.isFile()) {
+            throw new UploadOffsetException(uploadId, offset, -1);
+        }
+        final long held = upload.length();
+        if (held != offset)
+            throw new UploadOffsetException(id, offset, held);
+        boolean complete = false;
+        FileOutputStream out = new FileOutputStream(upload, true);
+        try {
+            OrgStreams.copy(in, out, length, null);
+            complete = true;
+        } finally {
+            out.close();
+            if (!complete) {
+                RandomAccessFile truncate = new RandomAccessFile(upload, "rw");
+                try {
+                    truncate.setLength(offset);
+                } finally {
+                    truncate.close();
+                }
+            }
+        }
+        return new UploadStatus(id, upload.length());
+    }
+
+    @Override
+    public synchronized String commitUpload(String path, String uploadId, String parentRev) throws IOException {
+        final File upload = uploadFile(uploadId);
+        if (!upload.isFile())
+            throw new IOException("unknown upload: " + uploadId);
+        final String currRev = getRev(path);
+        if (currRev == null ? parentRev != null : !currRev.equals(parentRev))
+            throw new RevMismatchException(path, parentRev, currRev);
+        final File target = file(path);
+        target.getParentFile().mkdirs();
+        if (!upload.renameTo(target))
+            throw new IOException("rename failed: " + target);
+        return bumpRev(path);
+    }
+
+    @Override
+    public synchronized List<String> list(String folder) throws IOException {
+        List<String> paths = new ArrayList<>();
+        File[] files = file(folder).listFiles();
+        if (files == null)
+            return paths;
+        Arrays.sort(files);
+        final String prefix = folder.endsWith("/") ? folder : folder + "/";
+        for (File f : files) {
+            if (f.isFile() && !f.getName().endsWith(TEMP_SUFFIX))
+                paths.add(prefix + f.getName());
+        }
+        return paths;
+    }
+
+    @Override
+    public synchronized void delete(String path) throws IOException {
+        final File f = file(path);
+        if (!f.delete() && f.exists())
+            throw new IOException("delete failed: " + path);
+        // The counter stays, so a file created again at path never reuses a rev
+        // that caches may still hold for the old one.
+        notifyAll();
+    }
+
+    private File file(String path) {
+        return new File(mRoot, path);
+    }
+
+    private File uploadFile(String uploadId) {
+        return new File(new File(mRoot, UPLOAD_DIR), uploadId);
+    }
+
+    private File revFile(String path) {
+        return new File(new File(mRoot, REV_DIR), path);
+    }
+
+    private long readRevCounter(String path) throws IOException {
+        File f = revFile(path);
+        if (!f.isFile())
+            return 0;
+        FileInputStream in = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[32];
+            int len = in.read(buf);
+            return len > 0 ? Long.parseLong(new String(buf, 0, len, "US-ASCII").trim()) : 0;
+        } catch (NumberFormatException e) {
+            throw new IOException("corrupt rev file: " + f);
+        } finally {
+            in.close();
+        }
+    }
+
+    private String bumpRev(String path) throws IOException {
+        final long rev = readRevCounter(path) + 1;
+        File f = revFile(path);
+        f.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(Long.toString(rev).getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+        notifyAll();
+        return Long.toString(rev);
+    }
+}
@@ -0,0 +1,241 @@
+package com.dropbox.android.sample;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * OrgStore decorator that times every call and counts the bytes moved, into
+ * OrgMetrics under "store.<call>". Put it right above the network store, so
+ * calls answered by a CachingOrgStore above it are not counted as round trips.
+ */
+public class MeteredOrgStore implements OrgStore {
+    private static final OrgMetrics.Timer sGetRev = OrgMetrics.timer("store.getRev");
+    private static final OrgMetrics.Timer sRead = OrgMetrics.timer("store.read");
+    private static final OrgMetrics.Timer sWrite = OrgMetrics.timer("store.write");
+    private static final OrgMetrics.Timer sAppend = OrgMetrics.timer("store.append");
+    private static final OrgMetrics.Timer sReadManifest = OrgMetrics.timer("store.readManifest");
+    private static final OrgMetrics.Timer sReadRange = OrgMetrics.timer("store.readRange");
+    private static final OrgMetrics.Timer sUploadChunk = OrgMetrics.timer("store.uploadChunk");
+    private static final OrgMetrics.Timer sCommitUpload = OrgMetrics.timer("store.commitUpload");
+    private static final OrgMetrics.Timer sList = OrgMetrics.timer("store.list");
+    private static final OrgMetrics.Timer sDelete = OrgMetrics.timer("store.delete");
+    private static final OrgMetrics.Counter sReadBytes = OrgMetrics.counter("store.read.bytes");
+    private static final OrgMetrics.Counter sWriteBytes = OrgMetrics.counter("store.write.bytes");
+    private static final OrgMetrics.Counter sAppendBytes = OrgMetrics.counter("store.append.bytes");
+    private static final OrgMetrics.Counter sReadRangeBytes = OrgMetrics.counter("store.readRange.bytes");
+    private static final OrgMetrics.Counter sUploadChunkBytes = OrgMetrics.counter("store.uploadChunk.bytes");
+    private static final OrgMetrics.Counter sAwaitChange = OrgMetrics.counter("store.awaitChange");
+    private static final OrgMetrics.Counter sErrors = OrgMetrics.counter("store.errors");
+
+    private final OrgStore mStore;
+
+    public MeteredOrgStore(OrgStore store) {
+        mStore = store;
+    }
+
+    @Override
+    public String getRev(String path) throws IOException {
+        final long start = sGetRev.start();
+        try {
+            return mStore.getRev(path);
+        } catch (IOException e) {
+            sErrors.increment();
+            throw e;
+        } finally {
+            sGetRev.stop(start);
+        }
+    }
+
+    // A long poll: its duration says nothing about the store, so it is only counted.
+    @Override
+    public String awaitChange(String path, String knownRev, long timeoutMs) throws IOException {
+        sAwaitChange.increment();
+        return mStore.awaitChange(path, knownRev, timeoutMs);
+    }
+
+    @Override
+    public String read(String path, OutputStream out) throws IOException {
+        final long start = sRead.start();
+        try {
+            return mStore.read(path, new CountingOutputStream(out, sReadBytes));
+        } catch (IOException e) {
+            sErrors.increment();
+            throw e;
+        } finally {
+            sRead.stop(start);
+        }
+    }
+
+    @Override
+    public String write(String path, InputStream in, long length, String parentRev,
+                        ProgressListener listener) throws IOException {
+        final long start = sWrite.start();
+        try {
+            return mStore.write(path, new CountingInputStream(in, sWriteBytes), length, parentRev, listener);
+        } catch (IOException e) {
+            // A lost race on the rev is normal operation, counted by the engine.
+            if (!(e instanceof RevMismatchException))
+                sErrors.increment();
+            throw e;
+        } finally {
+            sWrite.stop(start);
+        }
+    }
+
+    @Override
+    public boolean canAppend() {
+        return mStore.canAppend();
+    }
+
+    @Override
+    public String append(String path, InputStream in, long length) throws IOException {
+        final long start = sAppend.start();
+        try {
+            return mStore.append(path, new CountingInputStream(in, sAppendBytes), length);
+        } catch (IOException e) {
+            sErrors.increment();
+            throw e;
+        } finally {
+            sAppend.stop(start);
+        }
+    }
+
+    @Override
+    public boolean canReadRanges() {
+        return mStore.canReadRanges();
+    }
+
+    @Override
+    public ChunkManifest readManifest(String path) throws IOException {
+        final long start = sReadManifest.start();
+        try {
+            return mStore.readManifest(path);
+        } catch (IOException e) {
+            sErrors.increment();
+            throw e;
+        } finally {
+            sReadManifest.stop(start);
+        }
+    }
+
+    @Override
+    public String readRange(String path, long offset, long length, OutputStream out) throws IOException {
+        final long start = sReadRange.start();
+        try {
+            return mStore.readRange(path, offset, length, new CountingOutputStream(out, sReadRangeBytes));
+        } catch (IOException e) {
+            sErrors.increment();
+            throw e;
+        } finally {
+            sReadRange.stop(start);
+        }
+    }
+
+    @Override
+    public boolean canUploadChunks() {
+        return mStore.canUploadChunks();
+    }
+
+    @Override
+    public UploadStatus uploadChunk(String uploadId, long offset, InputStream in, long length) throws IOException {
+        final long start = sUploadChunk.start();
+        try {
+            return mStore.uploadChunk(uploadId, offset, new CountingInputStream(in, sUploadChunkBytes), length);
+        } catch (IOException e) {
+            sErrors.increment();
+            throw e;
+        } finally {
+            sUploadChunk.stop(start);
+        }
+    }
+
+    @Override
+    public String commitUpload(String path, String uploadId, String parentRev) throws IOException {
+        final long start = sCommitUpload.start();
+        try {
+            return mStore.commitUpload(path, uploadId, parentRev);
+        } catch (IOException e) {
+            if (!(e instanceof RevMismatchException))
+                sErrors.increment();
+            throw e;
+        } finally {
+            sCommitUpload.stop(start);
+        }
+    }
+
+    @Override
+    public List<String> list(String folder) throws IOException {
+        final long start = sList.start();
+        try {
+            return mStore.list(folder);
+        } catch (IOException e) {
+            sErrors.increment();
+            throw e;
+        } finally {
+            sList.stop(start);
+        }
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        final long start = sDelete.start();
+        try {
+            mStore.delete(path);
+        } catch (IOException e) {
+            sErrors.increment();
+            throw e;
+        } finally {
+            sDelete.stop(start);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final OrgMetrics.Counter mBytes;
+
+        CountingOutputStream(OutputStream out, OrgMetrics.Counter bytes) {
+            super(out);
+            mBytes = bytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mBytes.increment();
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            out.write(buf, off, len);
+            mBytes.add(len);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final OrgMetrics.Counter mBytes;
+
+        CountingInputStream(InputStream in, OrgMetrics.Counter bytes) {
+            super(in);
+            mBytes = bytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b != -1)
+                mBytes.increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            final int n = in.read(buf, off, len);
+            if (n > 0)
+                mBytes.add(n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.dropbox.android.sample;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+import com.dropbox.android.sample.OrgUtil.OrgData;
+
+/**
+ * Local copy of the org file. A fixed-size header (rev, content length,
+ * CRC32) precedes the UTF-8 content, so the rev can be read without touching
+ * the content, and the content is mapped and decoded only when asked for.
+ *
+ * With a compression level the content is stored as independently deflated
+ * blocks followed by an index of their offsets, so a range of the content
+ * can still be read by inflating only the blocks it spans.
+ */
+public class OrgCache {
+    private static final String TAG = "OrgCache";
+    private static final int MAGIC = 0x4f524743; // "ORGC"
+    private static final int VERSION = 3;
+    private static final int MAX_REV_BYTES = 64;
+    // magic, version, rev length, rev slot, content length, checksum, level, block index offset
+    private static final int HEADER_SIZE = 4 + 4 + 2 + MAX_REV_BYTES + 8 + 8 + 4 + 8;
+    private static final int CRC_CHUNK_SIZE = 64 * 1024;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final OrgMetrics.Timer sLoad = OrgMetrics.timer("cache.load");
+    private static final OrgMetrics.Timer sStore = OrgMetrics.timer("cache.store");
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // One writer thread for every cache, created on first use.
+    private static ExecutorService sWriter;
+
+    private final File mFile;
+    private final File mManifestFile;
+    private final int mLevel;
+    private final OrgCompression.Stats mStats = new OrgCompression.Stats();
+
+    private static class Header {
+        String rev;
+        long contentLength;
+        long checksum;
+        int level;
+        long indexOffset;
+    }
+
+    public OrgCache(File file) {
+        this(file, OrgCompression.NONE);
+    }
+
+    /** Content is written at the given compression level; caches of any level are read. */
+    public OrgCache(File file, int level) {
+        mFile = file;
+        mManifestFile = new File(file.getPath() + ".manifest");
+        mLevel = level;
+    }
+
+    public OrgCompression.Stats getStats() {
+        return mStats;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public boolean exists() {
+        return mFile.isFile();
+    }
+
+    /** Returns the cached rev, or "" if there is no usable cache. */
+    public synchronized String readRev() {
+        Header header = readHeader();
+        return header != null ? header.rev : "";
+    }
+
+    /** Returns the cached rev and content, or an empty OrgData if there is no usable cache. */
+    public synchronized OrgData load() {
+        final long start = sLoad.start();
+        try {
+            return loadContent();
+        } finally {
+            sLoad.stop(start);
+        }
+    }
+
+    private OrgData loadContent() {
+        OrgData orgData = new OrgData();
+        orgData.rev = "";
+        orgData.fileFullContent = OrgDocument.EMPTY;
+
+        Header header = readHeader();
+        if (header == null)
+            return orgData;
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(mFile, "r");
+            try {
+                final ByteBuffer buf;
+                if (header.level == OrgCompression.NONE) {
+                    buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, header.contentLength);
+                } else {
+                    if (header.contentLength > Integer.MAX_VALUE)
+                        throw new IOException("cache too large: " + header.contentLength);
+                    final byte[] content = new byte[(int)header.contentLength];
+                    final long[] offsets = readBlockOffsets(raf, header);
+                    for (int block = 0; block < offsets.length - 1; ++block) {
+                        readBlock(raf, header, offsets, block, content, block * BLOCK_SIZE);
+                    }
+                    buf = ByteBuffer.wrap(content);
+                }
+                if (checksum(buf) != header.checksum)
+                    throw new IOException("checksum mismatch");
+                buf.rewind();
+                CharBuffer chars = UTF_8.newDecoder().decode(buf);
+                orgData.fileFullContent = OrgDocument.of(chars.toString());
+                orgData.rev = header.rev;
+            } finally {
+                raf.close();
+            }
+        } catch (CharacterCodingException e) {
+            OrgLog.d(TAG, "corrupt cache: " + e);
+        } catch (IOException e) {
+            OrgLog.d(TAG, "unusable cache: " + e);
+        }
+        return orgData;
+    }
+
+    /**
+     * Copies a range of the cached content into out. The range is relative to
+     * the content, not the file.
+     */
+    public synchronized void copyContentRange(long offset, long length, OutputStream out) throws IOException {
+        Header header = readHeader();
+        if (header == null)
+            throw new IOException("no usable cache");
+        RandomAccessFile raf = new RandomAccessFile(mFile, "r");
+        try {
+            if (offset + length > header.contentLength)
+                throw new IOException("range past end of cache");
+            if (header.level != OrgCompression.NONE) {
+                final long[] offsets = readBlockOffsets(raf, header);
+                final byte[] block = new byte[BLOCK_SIZE];
+                final long end = offset + length;
+                long position = offset;
+                while (position < end) {
+                    final int index = (int)(position / BLOCK_SIZE);
+                    final int blockLength = readBlock(raf, header, offsets, index, block, 0);
+                    final int from = (int)(position - (long)index * BLOCK_SIZE);
+                    final int n = (int)Math.min(blockLength - from, end - position);
+                    out.write(block, from, n);
+                    position += n;
+                }
+                return;
+            }
+            raf.seek(HEADER_SIZE + offset);
+            byte[] buf = new byte[(int)Math.min(length, CRC_CHUNK_SIZE)];
+            long remaining = length;
+            while (remaining > 0) {
+                final int n = raf.read(buf, 0, (int)Math.min(buf.length, remaining));
+                if (n == -1)
+                    throw new IOException("short cache read");
+                out.write(buf, 0, n);
+                remaining -= n;
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the chunk manifest of the cached content, or null if there is
+     * none for the cached rev.
+     */
+    public ChunkManifest readManifest() {
+        ChunkManifest manifest = ChunkManifest.readFrom(mManifestFile);
+        if (manifest == null || !manifest.rev.equals(readRev()))
+            return null;
+        return manifest;
+    }
+
+    public void storeManifest(ChunkManifest manifest) {
+        try {
+            if (manifest != null) {
+                manifest.writeTo(mManifestFile);
+            } else {
+                mManifestFile.delete();
+            }
+        } catch (IOException e) {
+            OrgLog.d(TAG, e.toString());
+            mManifestFile.delete();
+        }
+    }
+
+    public void store(String rev, OrgDocument content) throws IOException {
+        final long start = sStore.start();
+        Writer writer = openWriter();
+        try {
+            content.writeUtf8(writer);
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+        writer.commit(rev);
+        sStore.stop(start);
+    }
+
+    public void store(String rev, byte[] buf, int off, int len) throws IOException {
+        final long start = sStore.start();
+        Writer writer = openWriter();
+        try {
+            writer.write(buf, off, len);
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        }
+        writer.commit(rev);
+        sStore.stop(start);
+    }
+
+    /** Stores on a background writer thread; writes are applied in call order. */
+    public void storeAsync(final String rev, final OrgDocument content) {
+        writer().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store(rev, content);
+                } catch (IOException e) {
+                    OrgLog.d(TAG, e.toString());
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService writer() {
+        if (sWriter == null) {
+            sWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "OrgCache writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sWriter;
+    }
+
+    /**
+     * Opens a writer that streams new content into a temp file; commit() fills
+     * in the header and replaces the cache, abort() discards it.
+     */
+    public Writer openWriter() throws IOException {
+        return new Writer(File.createTempFile(mFile.getName(), ".tmp", mFile.getParentFile()));
+    }
+
+    public class Writer extends OutputStream {
+        private final File mTemp;
+        private final FileOutputStream mFileOut;
+        private final OutputStream mOut;
+        private final CRC32 mCrc = new CRC32();
+        private long mLength = 0;
+        private boolean mClosed = false;
+        // Compressed mode only: the block being filled and where finished blocks start.
+        private final OrgCompression.Compressor mCompressor;
+        private final byte[] mBlock;
+        private int mBlockFill = 0;
+        private long[] mBlockOffsets = new long[16];
+        private int mBlockCount = 0;
+        private long mStored = HEADER_SIZE;
+
+        private Writer(File temp) throws IOException {
+            mTemp = temp;
+            mFileOut = new FileOutputStream(temp);
+            mOut = new BufferedOutputStream(mFileOut, CRC_CHUNK_SIZE);
+            mOut.write(new byte[HEADER_SIZE]);
+            if (mLevel != OrgCompression.NONE) {
+                mCompressor = new OrgCompression.Compressor(mLevel, mStats);
+                mBlock = new byte[BLOCK_SIZE];
+            } else {
+                mCompressor = null;
+                mBlock = null;
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mCompressor != null) {
+                mBlock[mBlockFill++] = (byte)b;
+                if (mBlockFill == BLOCK_SIZE)
+                    flushBlock();
+            } else {
+                mOut.write(b);
+            }
+            mCrc.update(b);
+            ++mLength;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            if (mCompressor != null) {
+                for (int done = 0; done < len; ) {
+                    final int n = Math.min(len - done, BLOCK_SIZE - mBlockFill);
+                    System.arraycopy(buf, off + done, mBlock, mBlockFill, n);
+                    mBlockFill += n;
+                    done += n;
+                    if (mBlockFill == BLOCK_SIZE)
+                        flushBlock();
+                }
+            } else {
+                mOut.write(buf, off, len);
+            }
+            mCrc.update(buf, off, len);
+            mLength += len;
+        }
+
+        private void flushBlock() throws IOException {
+            if (mBlockFill == 0)
+                return;
+            final int size = mCompressor.compress(mBlock, 0, mBlockFill);
+            if (mBlockCount == mBlockOffsets.length)
+                mBlockOffsets = Arrays.copyOf(mBlockOffsets, mBlockCount * 2);
+            mBlockOffsets[mBlockCount++] = mStored;
+            mOut.write(mCompressor.output(), 0, size);
+            mStored += size;
+            mBlockFill = 0;
+        }
+
+        // Block count and offsets, at the end of the file.
+        private void writeBlockIndex() throws IOException {
+            flushBlock();
+            ByteBuffer index = ByteBuffer.allocate(4 + 8 * mBlockCount);
+            index.putInt(mBlockCount);
+            for (int i = 0; i < mBlockCount; ++i) {
+                index.putLong(mBlockOffsets[i]);
+            }
+            mOut.write(index.array());
+        }
+
+        public void commit(String rev) throws IOException {
+            final byte[] revBytes = rev.getBytes(UTF_8.name());
+            if (revBytes.length > MAX_REV_BYTES) {
+                abort();
+                throw new IOException("rev too long: " + rev);
+            }
+            try {
+                if (mCompressor != null)
+                    writeBlockIndex();
+                mOut.flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putShort((short)revBytes.length);
+                header.put(revBytes);
+                header.position(4 + 4 + 2 + MAX_REV_BYTES);
+                header.putLong(mLength);
+                header.putLong(mCrc.getValue());
+                header.putInt(mCompressor != null ? mLevel : OrgCompression.NONE);
+                header.putLong(mCompressor != null ? mStored : 0);
+                header.flip();
+                FileChannel channel = mFileOut.getChannel();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                mFileOut.getFD().sync();
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+            close();
+            synchronized (OrgCache.this) {
+                if (!mTemp.renameTo(mFile)) {
+                    mTemp.delete();
+                    throw new IOException("rename failed: " + mFile);
+                }
+            }
+            if (mCompressor != null)
+                OrgLog.d(TAG, "stored " + mLength + " bytes in " + (mStored - HEADER_SIZE) + ", totals " + mStats);
+        }
+
+        public void abort() {
+            try {
+                close();
+            } catch (IOException e) {
+                OrgLog.d(TAG, e.toString());
+            }
+            mTemp.delete();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mClosed) {
+                mClosed = true;
+                if (mCompressor != null)
+                    mCompressor.end();
+                mOut.close();
+            }
+        }
+    }
+
+    private Header readHeader() {
+        if (!mFile.isFile() || mFile.length() < HEADER_SIZE)
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(mFile));
+            try {
+                byte[] header = new byte[HEADER_SIZE];
+                in.readFully(header);
+                ByteBuffer buf = ByteBuffer.wrap(header);
+                if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+                    return null;
+                final int revLength = buf.getShort();
+                if (revLength < 0 || revLength > MAX_REV_BYTES)
+                    return null;
+                Header result = new Header();
+                result.rev = new String(header, buf.position(), revLength, UTF_8.name());
+                buf.position(buf.position() + MAX_REV_BYTES);
+                result.contentLength = buf.getLong();
+                result.checksum = buf.getLong();
+                result.level = buf.getInt();
+                result.indexOffset = buf.getLong();
+                if (result.level == OrgCompression.NONE
+                        ? result.contentLength != mFile.length() - HEADER_SIZE
+                        : result.indexOffset < HEADER_SIZE || result.indexOffset + 4 > mFile.length())
+                    return null;
+                return result;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            OrgLog.d(TAG, "unreadable cache header: " + e);
+            return null;
+        }
+    }
+
+    // Start offsets of the compressed blocks, and the index offset as the end of the last.
+    private static long[] readBlockOffsets(RandomAccessFile raf, Header header) throws IOException {
+        raf.seek(header.indexOffset);
+        final int count = raf.readInt();
+        if (count != (header.contentLength + BLOCK_SIZE - 1) / BLOCK_SIZE)
+            throw new IOException("bad block index");
+        long[] offsets = new long[count + 1];
+        for (int i = 0; i < count; ++i) {
+            offsets[i] = raf.readLong();
+        }
+        offsets[count] = header.indexOffset;
+        return offsets;
+    }
+
+    // Inflates block index into out at outOff and returns its length.
+    private int readBlock(RandomAccessFile raf, Header header, long[] offsets, int index,
+                          byte[] out, int outOff) throws IOException {
+        final long stored = offsets[index + 1] - offsets[index];
+        if (stored < 0 || stored > 2 * BLOCK_SIZE)
+            throw new IOException("bad block " + index);
+        final int length = (int)Math.min(BLOCK_SIZE, header.contentLength - (long)index * BLOCK_SIZE);
+        byte[] compressed = new byte[(int)stored];
+        raf.seek(offsets[index]);
+        raf.readFully(compressed);
+        try {
+            OrgCompression.decompress(compressed, 0, compressed.length, out, outOff, length, mStats);
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt block " + index + ": " + e.getMessage());
+        }
+        return length;
+    }
+
+    private static long checksum(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[CRC_CHUNK_SIZE];
+        while (buf.hasRemaining()) {
+            final int n = Math.min(chunk.length, buf.remaining());
+            buf.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return crc.getValue();
+    }
+}
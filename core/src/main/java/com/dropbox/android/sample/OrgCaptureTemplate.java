@@ -0,0 +1,83 @@
+package com.dropbox.android.sample;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Where a capture goes: a target file and, optionally, a heading in it to
+ * file the entry under. The path may contain "{date:FORMAT}", expanded with
+ * SimpleDateFormat at capture time, and "{tag}", the first tag of the
+ * capture title, e.g. "/journal/{date:yyyy-MM}.org" or "/tags/{tag}.org".
+ */
+public class OrgCaptureTemplate {
+    private static final String DATE_PLACEHOLDER = "{date:";
+    private static final String TAG_PLACEHOLDER = "{tag}";
+    private static final String UNTAGGED = "untagged";
+
+    public final String name;
+    public final String path;
+    /** Title of the heading to file entries under, or null to add them at the end. */
+    public final String heading;
+
+    public OrgCaptureTemplate(String name, String path, String heading) {
+        if (!path.startsWith("/"))
+            throw new IllegalArgumentException("path must be absolute: " + path);
+        if (heading != null && (heading.trim().length() == 0 || heading.indexOf('\n') >= 0))
+            throw new IllegalArgumentException("bad heading: " + heading);
+        this.name = name;
+        this.path = path;
+        this.heading = heading != null ? heading.trim() : null;
+    }
+
+    /** The captures-to-/life.org behaviour from before templates existed. */
+    public static OrgCaptureTemplate defaultTemplate() {
+        return new OrgCaptureTemplate("life.org", OrgUtil.ORG_PATH, null);
+    }
+
+    /** Returns the target file of a capture with the given title made at the given time. */
+    public String resolvePath(String captureTitle, Date when) {
+        StringBuilder sb = new StringBuilder(path.length() + 16);
+        int from = 0;
+        while (from < path.length()) {
+            final int date = path.indexOf(DATE_PLACEHOLDER, from);
+            final int tag = path.indexOf(TAG_PLACEHOLDER, from);
+            final int next = date < 0 ? tag : tag < 0 ? date : Math.min(date, tag);
+            if (next < 0)
+                break;
+            sb.append(path, from, next);
+            if (next == tag) {
+                sb.append(fileNameOf(firstTag(captureTitle)));
+                from = tag + TAG_PLACEHOLDER.length();
+            } else {
+                final int close = path.indexOf('}', date);
+                if (close < 0)
+                    throw new IllegalArgumentException("unclosed placeholder: " + path);
+                sb.append(fileNameOf(OrgTimestamp.formatter(
+                        path.substring(date + DATE_PLACEHOLDER.length(), close), Locale.US).format(when)));
+                from = close + 1;
+            }
+        }
+        return sb.append(path, from, path.length()).toString();
+    }
+
+    private static String firstTag(String captureTitle) {
+        final List<String> tags = OrgHeading.parse(1, captureTitle).tags;
+        return tags.isEmpty() ? UNTAGGED : tags.get(0);
+    }
+
+    // Keeps expanded placeholders within one path segment.
+    private static String fileNameOf(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            sb.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.' ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,128 @@
+package com.dropbox.android.sample;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate helpers shared by the cache, the capture journal and the
+ * compressed sidecar, and the counters that tell what compression costs.
+ * Levels are Deflater levels 1 (fastest) to 9 (smallest); NONE stores bytes
+ * as they are.
+ */
+public class OrgCompression {
+    public static final int NONE = 0;
+
+    /** Bytes before and after compression and the time spent, summed over calls. */
+    public static class Stats {
+        private long mRawBytes = 0;
+        private long mCompressedBytes = 0;
+        private long mDeflateNanos = 0;
+        private long mInflatedBytes = 0;
+        private long mInflateNanos = 0;
+
+        synchronized void deflated(long rawBytes, long compressedBytes, long nanos) {
+            mRawBytes += rawBytes;
+            mCompressedBytes += compressedBytes;
+            mDeflateNanos += nanos;
+        }
+
+        synchronized void inflated(long rawBytes, long nanos) {
+            mInflatedBytes += rawBytes;
+            mInflateNanos += nanos;
+        }
+
+        /** Compressed size as a fraction of the raw size, 1 if nothing was compressed. */
+        public synchronized double ratio() {
+            return mRawBytes == 0 ? 1 : (double)mCompressedBytes / mRawBytes;
+        }
+
+        public synchronized long savedBytes() {
+            return mRawBytes - mCompressedBytes;
+        }
+
+        public synchronized long deflateMillis() {
+            return mDeflateNanos / 1000000;
+        }
+
+        public synchronized long inflateMillis() {
+            return mInflateNanos / 1000000;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d -> %d bytes (%.0f%%), deflate %d ms (%.1f MB/s), inflate %d ms (%.1f MB/s)",
+                    mRawBytes, mCompressedBytes, 100 * ratio(),
+                    deflateMillis(), megabytesPerSecond(mRawBytes, mDeflateNanos),
+                    inflateMillis(), megabytesPerSecond(mInflatedBytes, mInflateNanos));
+        }
+
+        private static double megabytesPerSecond(long bytes, long nanos) {
+            return nanos == 0 ? 0 : bytes * 1000.0 / nanos;
+        }
+    }
+
+    /** Reusable deflate state for one thread, e.g. one cache writer. */
+    public static class Compressor {
+        private final Deflater mDeflater;
+        private final Stats mStats;
+        private byte[] mOut = new byte[8 * 1024];
+
+        public Compressor(int level, Stats stats) {
+            if (level < 1 || level > 9)
+                throw new IllegalArgumentException("bad level: " + level);
+            mDeflater = new Deflater(level);
+            mStats = stats;
+        }
+
+        /**
+         * Deflates buf[off, off + len) on its own and returns the compressed
+         * length; the bytes are in output() until the next call.
+         */
+        public int compress(byte[] buf, int off, int len) {
+            final long start = System.nanoTime();
+            mDeflater.reset();
+            mDeflater.setInput(buf, off, len);
+            mDeflater.finish();
+            int size = 0;
+            while (!mDeflater.finished()) {
+                if (size == mOut.length)
+                    mOut = Arrays.copyOf(mOut, mOut.length * 2);
+                size += mDeflater.deflate(mOut, size, mOut.length - size);
+            }
+            if (mStats != null)
+                mStats.deflated(len, size, System.nanoTime() - start);
+            return size;
+        }
+
+        public byte[] output() {
+            return mOut;
+        }
+
+        public void end() {
+            mDeflater.end();
+        }
+    }
+
+    /** Inflates compressed[off, off + len) into out[outOff, outOff + rawLength). */
+    public static void decompress(byte[] compressed, int off, int len, byte[] out, int outOff, int rawLength,
+                                  Stats stats) throws DataFormatException {
+        final long start = System.nanoTime();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed, off, len);
+            int size = 0;
+            while (size < rawLength) {
+                final int n = inflater.inflate(out, outOff + size, rawLength - size);
+                if (n == 0 && (inflater.finished() || inflater.needsInput()))
+                    throw new DataFormatException("short block: " + size + " of " + rawLength);
+                size += n;
+            }
+        } finally {
+            inflater.end();
+        }
+        if (stats != null)
+            stats.inflated(rawLength, System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,80 @@
+package com.dropbox.android.sample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Rebuilds a changed remote file from the local cache plus the chunks that
+ * are not in it. Needs a store that can read manifests and ranges.
+ */
+public class OrgDeltaSync {
+
+    public static class Stats {
+        public long totalBytes = 0;
+        public long fetchedBytes = 0;
+        public long reusedBytes = 0;
+        public int fetchedChunks = 0;
+        public int reusedChunks = 0;
+
+        @Override
+        public String toString() {
+            return "reused " + reusedBytes + " of " + totalBytes + " bytes ("
+                    + reusedChunks + " chunks), fetched " + fetchedBytes + " bytes ("
+                    + fetchedChunks + " chunks)";
+        }
+    }
+
+    /** Thrown when the remote file changed while it was being assembled. */
+    public static class RevChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public RevChangedException(String path) {
+            super("rev changed during delta sync of " + path);
+        }
+    }
+
+    /**
+     * Writes the current remote content of path into out and returns its rev.
+     * Chunks whose hash is in the local manifest are copied from the cache;
+     * runs of missing chunks are fetched as one range each.
+     */
+    public static String fetch(OrgStore store, String path, OrgCache cache, ChunkManifest local,
+                               OutputStream out, Stats stats) throws IOException {
+        ChunkManifest remote = store.readManifest(path);
+        stats.totalBytes = remote.length();
+
+        long missingStart = -1;
+        long missingLength = 0;
+        for (ChunkManifest.Chunk chunk : remote.chunks()) {
+            ChunkManifest.Chunk cached = local.find(chunk.hash);
+            if (cached != null && cached.length == chunk.length) {
+                if (missingStart >= 0) {
+                    fetchRange(store, path, remote.rev, missingStart, missingLength, out);
+                    stats.fetchedBytes += missingLength;
+                    missingStart = -1;
+                }
+                cache.copyContentRange(cached.offset, cached.length, out);
+                stats.reusedBytes += chunk.length;
+                ++stats.reusedChunks;
+            } else {
+                if (missingStart < 0) {
+                    missingStart = chunk.offset;
+                    missingLength = 0;
+                }
+                missingLength += chunk.length;
+                ++stats.fetchedChunks;
+            }
+        }
+        if (missingStart >= 0) {
+            fetchRange(store, path, remote.rev, missingStart, missingLength, out);
+            stats.fetchedBytes += missingLength;
+        }
+        return remote.rev;
+    }
+
+    private static void fetchRange(OrgStore store, String path, String rev, long offset, long length,
+                                   OutputStream out) throws IOException {
+        if (!rev.equals(store.readRange(path, offset, length, out)))
+            throw new RevChangedException(path);
+    }
+}
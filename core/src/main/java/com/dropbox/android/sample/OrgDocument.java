@@ -0,0 +1,381 @@
+package com.dropbox.android.sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Immutable text of an org file, kept as a tree of pieces of the strings it
+ * was built from. replace(), insert() and append() share every untouched
+ * piece with the original, so an edit costs O(log n) plus the inserted text
+ * instead of a copy of the whole file. Being immutable, a document can be
+ * handed between threads freely.
+ *
+ * The tree is an implicit treap ordered by char offset: each node holds one
+ * piece and the total length of its subtree.
+ */
+public final class OrgDocument implements CharSequence {
+    private static final int ENCODE_BUFFER_SIZE = 16 * 1024;
+    private static final Random sPriorities = new Random();
+
+    public static final OrgDocument EMPTY = new OrgDocument(null);
+
+    private final Node mRoot;
+
+    private static final class Node {
+        final String text;
+        final int from;
+        final int to;
+        final int priority;
+        final Node left;
+        final Node right;
+        final int length;
+        final int pieces;
+
+        Node(String text, int from, int to, int priority, Node left, Node right) {
+            this.text = text;
+            this.from = from;
+            this.to = to;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.length = lengthOf(left) + (to - from) + lengthOf(right);
+            this.pieces = piecesOf(left) + 1 + piecesOf(right);
+        }
+
+        Node with(Node left, Node right) {
+            return new Node(text, from, to, priority, left, right);
+        }
+    }
+
+    private OrgDocument(Node root) {
+        mRoot = root;
+    }
+
+    public static OrgDocument of(CharSequence text) {
+        if (text instanceof OrgDocument)
+            return (OrgDocument)text;
+        return EMPTY.append(text);
+    }
+
+    @Override
+    public int length() {
+        return lengthOf(mRoot);
+    }
+
+    public boolean isEmpty() {
+        return mRoot == null;
+    }
+
+    /** Number of pieces; grows by at most three per edit. */
+    public int pieceCount() {
+        return piecesOf(mRoot);
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length())
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+        Node node = mRoot;
+        while (true) {
+            final int leftLength = lengthOf(node.left);
+            final int pieceLength = node.to - node.from;
+            if (index < leftLength) {
+                node = node.left;
+            } else if (index < leftLength + pieceLength) {
+                return node.text.charAt(node.from + index - leftLength);
+            } else {
+                index -= leftLength + pieceLength;
+                node = node.right;
+            }
+        }
+    }
+
+    /** Returns the range as a document sharing this one's pieces. */
+    @Override
+    public OrgDocument subSequence(int start, int end) {
+        checkRange(start, end);
+        Node[] tail = split(mRoot, start);
+        return new OrgDocument(split(tail[1], end - start)[0]);
+    }
+
+    public OrgDocument replace(int start, int end, CharSequence text) {
+        checkRange(start, end);
+        Node[] head = split(mRoot, start);
+        Node[] tail = split(head[1], end - start);
+        return new OrgDocument(merge(merge(head[0], nodeOf(text)), tail[1]));
+    }
+
+    public OrgDocument insert(int offset, CharSequence text) {
+        return replace(offset, offset, text);
+    }
+
+    public OrgDocument delete(int start, int end) {
+        return replace(start, end, "");
+    }
+
+    public OrgDocument append(CharSequence text) {
+        return new OrgDocument(merge(mRoot, nodeOf(text)));
+    }
+
+    /** Feeds every char to the scanner, piece by piece. */
+    public void feed(OrgOutline.Scanner scanner) {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        Node node = mRoot;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            scanner.feed(node.text, node.from, node.to);
+            node = node.right;
+        }
+    }
+
+    public void appendTo(StringBuilder sb) {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        Node node = mRoot;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            sb.append(node.text, node.from, node.to);
+            node = node.right;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (mRoot != null && mRoot.pieces == 1)
+            return mRoot.text.substring(mRoot.from, mRoot.to);
+        StringBuilder sb = new StringBuilder(length());
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    public boolean contentEquals(CharSequence other) {
+        if (other.length() != length())
+            return false;
+        Utf16Cursor cursor = new Utf16Cursor(mRoot);
+        if (other instanceof OrgDocument) {
+            Utf16Cursor otherCursor = new Utf16Cursor(((OrgDocument)other).mRoot);
+            for (int c = cursor.next(); c != -1; c = cursor.next()) {
+                if (c != otherCursor.next())
+                    return false;
+            }
+            return true;
+        }
+        for (int i = 0, c = cursor.next(); c != -1; ++i, c = cursor.next()) {
+            if (c != other.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /** Byte length of the UTF-8 encoding, computed without encoding. */
+    public long utf8Length() {
+        long length = 0;
+        Utf16Cursor cursor = new Utf16Cursor(mRoot);
+        for (int c = cursor.next(); c != -1; c = cursor.next()) {
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate((char)c) && Character.isLowSurrogate((char)cursor.peek())) {
+                cursor.next();
+                length += 4;
+            } else {
+                // Unpaired surrogates become '?', as with String.getBytes().
+                length += isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    /** Streams the UTF-8 encoding; the stream holds one small buffer, never the whole file. */
+    public InputStream newUtf8InputStream() {
+        return new Utf8InputStream(mRoot);
+    }
+
+    public void writeUtf8(OutputStream out) throws IOException {
+        OrgStreams.copy(newUtf8InputStream(), out, -1, null);
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end < start || end > length())
+            throw new IndexOutOfBoundsException("range " + start + ".." + end + ", length " + length());
+    }
+
+    // Character.isSurrogate() needs API 19.
+    private static boolean isSurrogate(int c) {
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+    }
+
+    private static int lengthOf(Node node) {
+        return node != null ? node.length : 0;
+    }
+
+    private static int piecesOf(Node node) {
+        return node != null ? node.pieces : 0;
+    }
+
+    private static Node nodeOf(CharSequence text) {
+        if (text instanceof OrgDocument)
+            return ((OrgDocument)text).mRoot;
+        if (text.length() == 0)
+            return null;
+        final String s = text.toString();
+        return new Node(s, 0, s.length(), nextPriority(), null, null);
+    }
+
+    private static int nextPriority() {
+        synchronized (sPriorities) {
+            return sPriorities.nextInt();
+        }
+    }
+
+    /** Splits into the first offset chars and the rest, copying only the path to offset. */
+    private static Node[] split(Node node, int offset) {
+        if (node == null)
+            return new Node[] { null, null };
+        final int leftLength = lengthOf(node.left);
+        final int pieceEnd = leftLength + (node.to - node.from);
+        if (offset <= leftLength) {
+            Node[] parts = split(node.left, offset);
+            return new Node[] { parts[0], node.with(parts[1], node.right) };
+        } else if (offset >= pieceEnd) {
+            Node[] parts = split(node.right, offset - pieceEnd);
+            return new Node[] { node.with(node.left, parts[0]), parts[1] };
+        } else {
+            // Both halves keep the node's priority, which still dominates their children.
+            final int cut = node.from + offset - leftLength;
+            return new Node[] {
+                    new Node(node.text, node.from, cut, node.priority, node.left, null),
+                    new Node(node.text, cut, node.to, node.priority, null, node.right) };
+        }
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        if (a.priority > b.priority)
+            return a.with(a.left, merge(a.right, b));
+        return b.with(merge(a, b.left), b.right);
+    }
+
+    /** In-order walk over the chars of a tree. */
+    private static class Utf16Cursor {
+        private final ArrayDeque<Node> mStack = new ArrayDeque<>();
+        private Node mPiece;
+        private int mPos;
+
+        Utf16Cursor(Node root) {
+            descend(root);
+            advancePiece();
+        }
+
+        /** Returns the next char, or -1 at the end. */
+        int next() {
+            final int c = peek();
+            if (c != -1 && ++mPos == mPiece.to)
+                advancePiece();
+            return c;
+        }
+
+        int peek() {
+            return mPiece != null ? mPiece.text.charAt(mPos) : -1;
+        }
+
+        private void descend(Node node) {
+            while (node != null) {
+                mStack.push(node);
+                node = node.left;
+            }
+        }
+
+        private void advancePiece() {
+            if (mStack.isEmpty()) {
+                mPiece = null;
+                return;
+            }
+            mPiece = mStack.pop();
+            mPos = mPiece.from;
+            descend(mPiece.right);
+        }
+    }
+
+    private static class Utf8InputStream extends InputStream {
+        private final Utf16Cursor mCursor;
+        private final byte[] mBuf = new byte[ENCODE_BUFFER_SIZE];
+        private int mPos = 0;
+        private int mCount = 0;
+
+        Utf8InputStream(Node root) {
+            mCursor = new Utf16Cursor(root);
+        }
+
+        @Override
+        public int read() {
+            if (mPos == mCount && !fill())
+                return -1;
+            return mBuf[mPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (mPos == mCount && !fill())
+                return -1;
+            final int n = Math.min(len, mCount - mPos);
+            System.arraycopy(mBuf, mPos, buf, off, n);
+            mPos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return mCount - mPos;
+        }
+
+        private boolean fill() {
+            final byte[] buf = mBuf;
+            int n = 0;
+            // Stop 4 short of the end so any code point fits.
+            while (n <= buf.length - 4) {
+                final int c = mCursor.next();
+                if (c == -1)
+                    break;
+                if (c < 0x80) {
+                    buf[n++] = (byte)c;
+                } else if (c < 0x800) {
+                    buf[n++] = (byte)(0xc0 | (c >> 6));
+                    buf[n++] = (byte)(0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate((char)c)
+                        && Character.isLowSurrogate((char)mCursor.peek())) {
+                    final int cp = Character.toCodePoint((char)c, (char)mCursor.next());
+                    buf[n++] = (byte)(0xf0 | (cp >> 18));
+                    buf[n++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                    buf[n++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+                    buf[n++] = (byte)(0x80 | (cp & 0x3f));
+                } else if (isSurrogate(c)) {
+                    buf[n++] = '?';
+                } else {
+                    buf[n++] = (byte)(0xe0 | (c >> 12));
+                    buf[n++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                    buf[n++] = (byte)(0x80 | (c & 0x3f));
+                }
+            }
+            mPos = 0;
+            mCount = n;
+            return n > 0;
+        }
+    }
+}
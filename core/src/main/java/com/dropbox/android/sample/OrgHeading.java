@@ -0,0 +1,75 @@
+package com.dropbox.android.sample;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The parts of an org heading line: "** TODO Title :tag1:tag2:". The
+ * priority cookie, if any, is left in the title.
+ */
+public class OrgHeading {
+    public static final Set<String> TODO_KEYWORDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "TODO", "NEXT", "STARTED", "WAITING", "DONE", "CANCELLED", "CANCELED")));
+
+    public final int level;
+    /** The TODO keyword, or null. */
+    public final String keyword;
+    public final String title;
+    public final List<String> tags;
+
+    private OrgHeading(int level, String keyword, String title, List<String> tags) {
+        this.level = level;
+        this.keyword = keyword;
+        this.title = title;
+        this.tags = tags;
+    }
+
+    /** Parses the heading line starting at outline entry index of content. */
+    public static OrgHeading parse(CharSequence content, OrgOutline outline, int index) {
+        return parse(outline.level(index), outline.title(content, index));
+    }
+
+    /** Parses the text following the stars and the space. */
+    public static OrgHeading parse(int level, String text) {
+        String rest = text.trim();
+
+        String keyword = null;
+        final int space = rest.indexOf(' ');
+        final String first = space < 0 ? rest : rest.substring(0, space);
+        if (TODO_KEYWORDS.contains(first)) {
+            keyword = first;
+            rest = space < 0 ? "" : rest.substring(space + 1).trim();
+        }
+
+        List<String> tags = Collections.emptyList();
+        final int tagsStart = rest.lastIndexOf(' ') + 1;
+        if (isTagList(rest, tagsStart)) {
+            tags = new ArrayList<>();
+            for (String tag : rest.substring(tagsStart + 1, rest.length() - 1).split(":")) {
+                tags.add(tag);
+            }
+            rest = rest.substring(0, tagsStart).trim();
+        }
+        return new OrgHeading(level, keyword, rest, tags);
+    }
+
+    // ":a:b:" with non-empty tags made of letters, digits, '_', '@', '#' and '%'.
+    private static boolean isTagList(String s, int from) {
+        if (s.length() - from < 3 || s.charAt(from) != ':' || s.charAt(s.length() - 1) != ':')
+            return false;
+        for (int i = from + 1; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if (c == ':') {
+                if (s.charAt(i - 1) == ':')
+                    return false;
+            } else if (!Character.isLetterOrDigit(c) && c != '_' && c != '@' && c != '#' && c != '%') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
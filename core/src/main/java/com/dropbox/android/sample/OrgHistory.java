@@ -0,0 +1,573 @@
+package com.dropbox.android.sample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+
+/**
+ * The last revs of an org file, kept on disk so diffs, rollbacks and merge
+ * bases need no download. A rev is stored as its list of sections, split
+ * like OrgMerge splits them; each section's text is a blob addressed by its
+ * SHA-1, so a section unchanged across revs is stored once and a new rev
+ * costs only the sections that changed.
+ *
+ * Blobs are appended to a pack file; the index file lists the blobs and the
+ * revs and is replaced atomically after the pack is synced, so a crash loses
+ * at most the rev being recorded. Blobs no longer used by any kept rev are
+ * dropped by rewriting the pack under a new generation number once they
+ * take up half of it, or when the pack outgrows its size cap, which also
+ * drops the oldest revs.
+ */
+public class OrgHistory {
+    private static final String TAG = "OrgHistory";
+    private static final int MAGIC = 0x4f524748; // "ORGH"
+    private static final int VERSION = 1;
+    private static final String INDEX_FILE_NAME = "index";
+    private static final String PACK_FILE_PREFIX = "pack.";
+    private static final long PREAMBLE_KEY = 0;
+
+    private static final OrgMetrics.Timer sRecord = OrgMetrics.timer("history.record");
+    private static final OrgMetrics.Timer sLoad = OrgMetrics.timer("history.load");
+    private static final OrgMetrics.Timer sCompact = OrgMetrics.timer("history.compact");
+    private static final OrgMetrics.Counter sNewBytes = OrgMetrics.counter("history.new.bytes");
+    private static final OrgMetrics.Counter sSharedBytes = OrgMetrics.counter("history.shared.bytes");
+
+    private final File mDir;
+    private final int mMaxRevs;
+    private final long mMaxBytes;
+    private final int mLevel;
+    private final OrgCompression.Stats mStats = new OrgCompression.Stats();
+
+    // Read from the index on first use.
+    private boolean mLoaded = false;
+    private int mGeneration;
+    private long mPackLength;
+    private final Map<Long, Blob> mBlobs = new HashMap<>();
+    // Oldest first.
+    private final List<Snapshot> mSnapshots = new ArrayList<>();
+
+    private static class Blob {
+        final long offset;
+        final int rawLength;
+        // Equal to rawLength if stored plain, otherwise the deflated length.
+        final int storedLength;
+
+        Blob(long offset, int rawLength, int storedLength) {
+            this.offset = offset;
+            this.rawLength = rawLength;
+            this.storedLength = storedLength;
+        }
+    }
+
+    private static class Snapshot {
+        final String rev;
+        final long savedAt;
+        // Per section in file order: hash of its heading line and occurrence, and its blob.
+        final long[] headingKeys;
+        final long[] blobKeys;
+
+        Snapshot(String rev, long savedAt, long[] headingKeys, long[] blobKeys) {
+            this.rev = rev;
+            this.savedAt = savedAt;
+            this.headingKeys = headingKeys;
+            this.blobKeys = blobKeys;
+        }
+    }
+
+    /** Sections that differ between two revs, by heading title. */
+    public static class Diff {
+        public final List<String> added = new ArrayList<>();
+        public final List<String> removed = new ArrayList<>();
+        public final List<String> changed = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "added " + added + ", removed " + removed + ", changed " + changed;
+        }
+    }
+
+    public OrgHistory(File dir, int maxRevs, long maxBytes) {
+        this(dir, maxRevs, maxBytes, OrgCompression.NONE);
+    }
+
+    /** Blobs are written at the given compression level; blobs of any level are read. */
+    public OrgHistory(File dir, int maxRevs, long maxBytes, int level) {
+        if (maxRevs < 1)
+            throw new IllegalArgumentException("bad maxRevs: " + maxRevs);
+        mDir = dir;
+        mMaxRevs = maxRevs;
+        mMaxBytes = maxBytes;
+        mLevel = level;
+    }
+
+    public OrgCompression.Stats getStats() {
+        return mStats;
+    }
+
+    /** Kept revs, newest first. */
+    public synchronized List<String> revs() {
+        load();
+        List<String> revs = new ArrayList<>(mSnapshots.size());
+        for (Snapshot snapshot : mSnapshots) {
+            revs.add(snapshot.rev);
+        }
+        Collections.reverse(revs);
+        return revs;
+    }
+
+    public synchronized boolean contains(String rev) {
+        load();
+        return find(rev) != null;
+    }
+
+    /** Bytes on disk, pack and index. */
+    public synchronized long sizeBytes() {
+        load();
+        return mPackLength + new File(mDir, INDEX_FILE_NAME).length();
+    }
+
+    /**
+     * Keeps content as rev, writing only the sections not stored yet. A rev
+     * already kept is left alone; the oldest revs go past the limits.
+     */
+    public synchronized void record(String rev, CharSequence content) throws IOException {
+        load();
+        if (rev == null || rev.length() == 0 || find(rev) != null)
+            return;
+        final long start = sRecord.start();
+        try {
+            final String text = content.toString();
+            final OrgOutline outline = OrgOutline.parse(text);
+            final int first = outline.size() > 0 ? outline.start(0) : text.length();
+            final int sections = outline.size() + (first > 0 ? 1 : 0);
+            final long[] headingKeys = new long[sections];
+            final long[] blobKeys = new long[sections];
+
+            if (!mDir.isDirectory() && !mDir.mkdirs())
+                throw new IOException("mkdirs failed: " + mDir);
+            final MessageDigest sha1 = sha1();
+            FileOutputStream fileOut = new FileOutputStream(packFile(mGeneration), true);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                Map<Long, Integer> occurrences = new HashMap<>();
+                int s = 0;
+                if (first > 0) {
+                    headingKeys[s] = PREAMBLE_KEY;
+                    blobKeys[s++] = store(out, sha1, text.substring(0, first));
+                }
+                for (int i = 0; i < outline.size(); ++i) {
+                    // Repeated headings are told apart by how many came before.
+                    final long heading = hash(text, outline.start(i), outline.titleEnd(i));
+                    final Integer seen = occurrences.get(heading);
+                    occurrences.put(heading, seen == null ? 1 : seen + 1);
+                    headingKeys[s] = heading * 31 + (seen == null ? 0 : seen) + 1;
+                    blobKeys[s++] = store(out, sha1, text.substring(outline.start(i), outline.end(i)));
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            mPackLength = packFile(mGeneration).length();
+
+            mSnapshots.add(new Snapshot(rev, System.currentTimeMillis(), headingKeys, blobKeys));
+            trim();
+            writeIndex();
+        } catch (IOException e) {
+            // Start again from what the index says, dropping whatever was half written.
+            forget();
+            throw e;
+        } finally {
+            sRecord.stop(start);
+        }
+    }
+
+    /** Returns the content of rev, or null if it is not kept. */
+    public synchronized OrgDocument load(String rev) {
+        load();
+        final Snapshot snapshot = find(rev);
+        if (snapshot == null)
+            return null;
+        final long start = sLoad.start();
+        try {
+            RandomAccessFile pack = new RandomAccessFile(packFile(mGeneration), "r");
+            try {
+                StringBuilder sb = new StringBuilder();
+                for (long key : snapshot.blobKeys) {
+                    sb.append(read(pack, key));
+                }
+                return OrgDocument.of(sb.toString());
+            } finally {
+                pack.close();
+            }
+        } catch (IOException e) {
+            OrgLog.d(TAG, "rev " + rev + " unreadable: " + e);
+            return null;
+        } finally {
+            sLoad.stop(start);
+        }
+    }
+
+    /**
+     * Returns what changed from fromRev to toRev, or null if either is not
+     * kept. Only the blobs of differing sections are read, for their titles.
+     */
+    public synchronized Diff diff(String fromRev, String toRev) {
+        load();
+        final Snapshot from = find(fromRev);
+        final Snapshot to = find(toRev);
+        if (from == null || to == null)
+            return null;
+        Map<Long, Long> fromBlobs = new HashMap<>();
+        for (int i = 0; i < from.headingKeys.length; ++i) {
+            fromBlobs.put(from.headingKeys[i], from.blobKeys[i]);
+        }
+        Set<Long> toHeadings = new HashSet<>();
+        Diff diff = new Diff();
+        try {
+            RandomAccessFile pack = new RandomAccessFile(packFile(mGeneration), "r");
+            try {
+                for (int i = 0; i < to.headingKeys.length; ++i) {
+                    toHeadings.add(to.headingKeys[i]);
+                    final Long fromBlob = fromBlobs.get(to.headingKeys[i]);
+                    if (fromBlob == null) {
+                        diff.added.add(titleOf(to.headingKeys[i], read(pack, to.blobKeys[i])));
+                    } else if (fromBlob != to.blobKeys[i]) {
+                        diff.changed.add(titleOf(to.headingKeys[i], read(pack, to.blobKeys[i])));
+                    }
+                }
+                for (int i = 0; i < from.headingKeys.length; ++i) {
+                    if (!toHeadings.contains(from.headingKeys[i]))
+                        diff.removed.add(titleOf(from.headingKeys[i], read(pack, from.blobKeys[i])));
+                }
+            } finally {
+                pack.close();
+            }
+        } catch (IOException e) {
+            OrgLog.d(TAG, "diff of " + fromRev + " and " + toRev + " unreadable: " + e);
+            return null;
+        }
+        return diff;
+    }
+
+    private Snapshot find(String rev) {
+        for (int i = mSnapshots.size() - 1; i >= 0; --i) {
+            if (mSnapshots.get(i).rev.equals(rev))
+                return mSnapshots.get(i);
+        }
+        return null;
+    }
+
+    // Appends text as a blob unless it is stored already; returns its key.
+    private long store(DataOutputStream out, MessageDigest sha1, String text) throws IOException {
+        final byte[] raw = text.getBytes(OrgCache.UTF_8.name());
+        final byte[] digest = sha1.digest(raw);
+        long key = 0;
+        for (int i = 0; i < 8; ++i) {
+            key = key << 8 | (digest[i] & 0xff);
+        }
+        if (mBlobs.containsKey(key)) {
+            sSharedBytes.add(raw.length);
+            return key;
+        }
+
+        byte[] stored = raw;
+        int storedLength = raw.length;
+        if (mLevel != OrgCompression.NONE) {
+            OrgCompression.Compressor compressor = new OrgCompression.Compressor(mLevel, mStats);
+            try {
+                final int size = compressor.compress(raw, 0, raw.length);
+                if (size < raw.length) {
+                    stored = compressor.output();
+                    storedLength = size;
+                }
+            } finally {
+                compressor.end();
+            }
+        }
+        out.writeLong(key);
+        out.writeInt(raw.length);
+        out.writeInt(storedLength);
+        out.write(stored, 0, storedLength);
+        mBlobs.put(key, new Blob(mPackLength + 8 + 4 + 4, raw.length, storedLength));
+        mPackLength += 8 + 4 + 4 + storedLength;
+        sNewBytes.add(raw.length);
+        return key;
+    }
+
+    private String read(RandomAccessFile pack, long key) throws IOException {
+        final Blob blob = mBlobs.get(key);
+        if (blob == null)
+            throw new IOException("missing blob " + Long.toHexString(key));
+        final byte[] stored = new byte[blob.storedLength];
+        pack.seek(blob.offset);
+        pack.readFully(stored);
+        if (blob.storedLength == blob.rawLength)
+            return new String(stored, OrgCache.UTF_8.name());
+        final byte[] raw = new byte[blob.rawLength];
+        try {
+            OrgCompression.decompress(stored, 0, stored.length, raw, 0, raw.length, mStats);
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt blob " + Long.toHexString(key) + ": " + e.getMessage());
+        }
+        return new String(raw, OrgCache.UTF_8.name());
+    }
+
+    // Drops revs past the limits, and rewrites the pack if enough of it is unused.
+    private void trim() throws IOException {
+        while (mSnapshots.size() > mMaxRevs) {
+            mSnapshots.remove(0);
+        }
+        long live = liveBytes();
+        while (live > mMaxBytes && mSnapshots.size() > 1) {
+            mSnapshots.remove(0);
+            live = liveBytes();
+        }
+        if (mPackLength - live > mPackLength / 2 || mPackLength > mMaxBytes)
+            compact();
+    }
+
+    // Pack bytes used by the blobs of kept revs.
+    private long liveBytes() {
+        long live = 0;
+        for (Long key : liveKeys()) {
+            live += 8 + 4 + 4 + mBlobs.get(key).storedLength;
+        }
+        return live;
+    }
+
+    private Set<Long> liveKeys() {
+        Set<Long> keys = new HashSet<>();
+        for (Snapshot snapshot : mSnapshots) {
+            for (long key : snapshot.blobKeys) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    // Copies the live blobs into the next generation's pack. The index still
+    // names the old pack until writeIndex() replaces it, which deletes it.
+    private void compact() throws IOException {
+        final long start = sCompact.start();
+        try {
+            final int generation = mGeneration + 1;
+            final File newPack = packFile(generation);
+            Map<Long, Blob> blobs = new HashMap<>();
+            long length = 0;
+            RandomAccessFile pack = new RandomAccessFile(packFile(mGeneration), "r");
+            try {
+                FileOutputStream fileOut = new FileOutputStream(newPack);
+                try {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                    for (Long key : liveKeys()) {
+                        final Blob blob = mBlobs.get(key);
+                        final byte[] stored = new byte[blob.storedLength];
+                        pack.seek(blob.offset);
+                        pack.readFully(stored);
+                        out.writeLong(key);
+                        out.writeInt(blob.rawLength);
+                        out.writeInt(blob.storedLength);
+                        out.write(stored);
+                        blobs.put(key, new Blob(length + 8 + 4 + 4, blob.rawLength, blob.storedLength));
+                        length += 8 + 4 + 4 + blob.storedLength;
+                    }
+                    out.flush();
+                    fileOut.getFD().sync();
+                } finally {
+                    fileOut.close();
+                }
+            } catch (IOException e) {
+                newPack.delete();
+                throw e;
+            } finally {
+                pack.close();
+            }
+            OrgLog.i(TAG, "compacted " + mPackLength + " bytes to " + length);
+            mBlobs.clear();
+            mBlobs.putAll(blobs);
+            mGeneration = generation;
+            mPackLength = length;
+        } finally {
+            sCompact.stop(start);
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        final File index = new File(mDir, INDEX_FILE_NAME);
+        final File temp = new File(mDir, INDEX_FILE_NAME + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mGeneration);
+            out.writeLong(mPackLength);
+            out.writeInt(mBlobs.size());
+            for (Map.Entry<Long, Blob> entry : mBlobs.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeLong(entry.getValue().offset);
+                out.writeInt(entry.getValue().rawLength);
+                out.writeInt(entry.getValue().storedLength);
+            }
+            out.writeInt(mSnapshots.size());
+            for (Snapshot snapshot : mSnapshots) {
+                out.writeUTF(snapshot.rev);
+                out.writeLong(snapshot.savedAt);
+                out.writeInt(snapshot.blobKeys.length);
+                for (int i = 0; i < snapshot.blobKeys.length; ++i) {
+                    out.writeLong(snapshot.headingKeys[i]);
+                    out.writeLong(snapshot.blobKeys[i]);
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!temp.renameTo(index)) {
+            temp.delete();
+            throw new IOException("rename failed: " + index);
+        }
+        deleteStalePacks();
+    }
+
+    // Reads the index; without a usable one the history starts over, empty.
+    private void load() {
+        if (mLoaded)
+            return;
+        mLoaded = true;
+        final File index = new File(mDir, INDEX_FILE_NAME);
+        if (index.isFile()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+                try {
+                    readIndex(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                OrgLog.d(TAG, "unusable history index: " + e);
+                clear();
+            }
+        }
+        deleteStalePacks();
+        // Blobs appended for a rev whose index was never written are dropped.
+        final File pack = packFile(mGeneration);
+        try {
+            if (pack.length() > mPackLength) {
+                RandomAccessFile raf = new RandomAccessFile(pack, "rw");
+                try {
+                    raf.setLength(mPackLength);
+                } finally {
+                    raf.close();
+                }
+            }
+        } catch (IOException e) {
+            OrgLog.d(TAG, e.toString());
+        }
+    }
+
+    private void forget() {
+        clear();
+        mLoaded = false;
+    }
+
+    private void clear() {
+        mGeneration = 0;
+        mPackLength = 0;
+        mBlobs.clear();
+        mSnapshots.clear();
+    }
+
+    private void readIndex(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            throw new IOException("not a history index");
+        mGeneration = in.readInt();
+        mPackLength = in.readLong();
+        if (packFile(mGeneration).length() < mPackLength)
+            throw new IOException("pack shorter than indexed");
+        final int blobs = in.readInt();
+        for (int i = 0; i < blobs; ++i) {
+            final long key = in.readLong();
+            mBlobs.put(key, new Blob(in.readLong(), in.readInt(), in.readInt()));
+        }
+        final int snapshots = in.readInt();
+        for (int i = 0; i < snapshots; ++i) {
+            final String rev = in.readUTF();
+            final long savedAt = in.readLong();
+            final int sections = in.readInt();
+            if (sections < 0)
+                throw new IOException("bad section count " + sections);
+            final long[] headingKeys = new long[sections];
+            final long[] blobKeys = new long[sections];
+            for (int s = 0; s < sections; ++s) {
+                headingKeys[s] = in.readLong();
+                blobKeys[s] = in.readLong();
+                if (!mBlobs.containsKey(blobKeys[s]))
+                    throw new IOException("missing blob " + Long.toHexString(blobKeys[s]));
+            }
+            mSnapshots.add(new Snapshot(rev, savedAt, headingKeys, blobKeys));
+        }
+    }
+
+    private void deleteStalePacks() {
+        final String current = packFile(mGeneration).getName();
+        final File[] files = mDir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (file.getName().startsWith(PACK_FILE_PREFIX) && !file.getName().equals(current))
+                file.delete();
+        }
+    }
+
+    private File packFile(int generation) {
+        return new File(mDir, PACK_FILE_PREFIX + generation);
+    }
+
+    private static MessageDigest sha1() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("no SHA-1: " + e.getMessage());
+        }
+    }
+
+    private static String titleOf(long headingKey, String section) {
+        if (headingKey == PREAMBLE_KEY)
+            return "(preamble)";
+        final int newline = section.indexOf('\n');
+        return newline < 0 ? section : section.substring(0, newline);
+    }
+
+    // 64-bit FNV-1a over the chars of text[start, end), as OrgIndex hashes sections.
+    private static long hash(String text, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; ++i) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
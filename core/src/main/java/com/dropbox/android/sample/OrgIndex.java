@@ -0,0 +1,551 @@
+package com.dropbox.android.sample;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over the sections of an org file: the words of each heading
+ * and its body, its tags and its TODO keyword. A section is a heading line
+ * and the body up to the next heading; text before the first heading is a
+ * section of level 0.
+ *
+ * Sections are identified by a hash of their text, so update() only
+ * tokenizes sections that are new since the last rev; moved or untouched
+ * sections keep their postings. Postings of dropped sections are left in
+ * place and skipped until enough of them pile up to rebuild the postings.
+ *
+ * The timestamps of each section are kept in date order too, so agenda
+ * queries read a date range instead of scanning the file.
+ *
+ * Queries are whitespace-separated terms that must all match: a word matches
+ * words starting with it, ":tag" matches tags starting with tag, and an
+ * upper case TODO keyword matches headings with that keyword. "@today",
+ * "@week", "@month", "@2016-05-03" and "@2016-05-01..2016-05-15" match
+ * sections with a timestamp in that range and list them by date.
+ */
+public class OrgIndex {
+    private static final String TAG = "OrgIndex";
+    private static final int MAGIC = 0x4f524749; // "ORGI"
+    private static final int VERSION = 2;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAX_TITLE_LENGTH = 256;
+    private static final int MIN_DEAD_TO_COMPACT = 1024;
+    // Postings keys; word terms are letters and digits only, so they never start with these.
+    private static final char TAG_PREFIX = ':';
+    private static final char KEYWORD_PREFIX = '#';
+    private static final char DATE_PREFIX = '@';
+    private static final String DATE_RANGE_SEPARATOR = "..";
+
+    private static class Section {
+        final long hash;
+        final int level;
+        final String title;
+        final String[] terms;
+        final OrgTimestamp[] timestamps;
+
+        Section(long hash, int level, String title, String[] terms, OrgTimestamp[] timestamps) {
+            this.hash = hash;
+            this.level = level;
+            this.title = title;
+            this.terms = terms;
+            this.timestamps = timestamps;
+        }
+    }
+
+    /** Growable list of section ids, in increasing order. */
+    private static class Postings {
+        int[] ids = new int[4];
+        int size = 0;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id)
+                return;
+            if (size == ids.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(ids, 0, grown, 0, size);
+                ids = grown;
+            }
+            ids[size++] = id;
+        }
+    }
+
+    public static class Hit {
+        /** Rev of the content the offsets refer to. */
+        public final String rev;
+        /** Char offsets of the section in the indexed content. */
+        public final int start;
+        public final int end;
+        public final int level;
+        public final String title;
+        /** The timestamp that matched an agenda query, otherwise null. */
+        public final OrgTimestamp timestamp;
+
+        Hit(String rev, int start, int end, int level, String title, OrgTimestamp timestamp) {
+            this.rev = rev;
+            this.start = start;
+            this.end = end;
+            this.level = level;
+            this.title = title;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public String toString() {
+            return timestamp != null ? timestamp + " " + title : title;
+        }
+    }
+
+    // Indexed sections by id; null once dropped. Ids only grow until compact().
+    private final List<Section> mSections = new ArrayList<>();
+    private final Map<Long, Integer> mIds = new HashMap<>();
+    private final TreeMap<String, Postings> mPostings = new TreeMap<>();
+    // Sections by the sort keys of their timestamps.
+    private final TreeMap<Long, Postings> mAgenda = new TreeMap<>();
+    private int mDead = 0;
+
+    private String mRev = "";
+    // Id, start and end of each section of the indexed content, in document order.
+    private int[] mLayout = new int[0];
+    private int[] mStarts = new int[0];
+    private int[] mEnds = new int[0];
+
+    /** Rev of the content last indexed, or "" if none. */
+    public synchronized String getRev() {
+        return mRev;
+    }
+
+    public synchronized int size() {
+        return mLayout.length;
+    }
+
+    /**
+     * Indexes content as of rev. Returns the number of sections that had to
+     * be tokenized.
+     */
+    public synchronized int update(String rev, CharSequence content) {
+        final String text = content.toString();
+        final OrgOutline outline = OrgOutline.parse(content);
+        final int headings = outline.size();
+        final int preamble = (headings == 0 ? text.length() : outline.start(0)) > 0 ? 1 : 0;
+        final int count = preamble + headings;
+
+        int[] layout = new int[count];
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        BitSet seen = new BitSet(mSections.size());
+        int indexed = 0;
+        for (int i = 0; i < count; ++i) {
+            final int heading = i - preamble;
+            starts[i] = heading < 0 ? 0 : outline.start(heading);
+            ends[i] = heading < 0 ? (headings == 0 ? text.length() : outline.start(0)) : outline.end(heading);
+
+            final long hash = hash(text, starts[i], ends[i]);
+            Integer id = mIds.get(hash);
+            if (id == null) {
+                id = add(tokenize(text, outline, heading, starts[i], ends[i], hash));
+                ++indexed;
+            }
+            layout[i] = id;
+            seen.set(id);
+        }
+
+        for (int id = 0; id < mSections.size(); ++id) {
+            final Section section = mSections.get(id);
+            if (section != null && !seen.get(id)) {
+                mIds.remove(section.hash);
+                mSections.set(id, null);
+                ++mDead;
+            }
+        }
+
+        mRev = rev;
+        mLayout = layout;
+        mStarts = starts;
+        mEnds = ends;
+        if (mDead >= MIN_DEAD_TO_COMPACT && mDead > mIds.size())
+            compact();
+        OrgLog.d(TAG, "indexed " + indexed + " of " + count + " sections at " + rev);
+        return indexed;
+    }
+
+    /**
+     * Returns up to limit matching sections, in document order, or in date
+     * order if the query has a date range.
+     */
+    public synchronized List<Hit> search(String query, int limit) {
+        BitSet matches = null;
+        int[] range = null;
+        for (String token : query.trim().split("\\s+")) {
+            if (token.length() == 0)
+                continue;
+            final int[] tokenRange = token.charAt(0) == DATE_PREFIX
+                    ? dateRange(token.substring(1), Calendar.getInstance()) : null;
+            if (tokenRange != null) {
+                range = range == null ? tokenRange
+                        : new int[] { Math.max(range[0], tokenRange[0]), Math.min(range[1], tokenRange[1]) };
+                matches = and(matches, idsIn(range[0], range[1]));
+            } else if (OrgHeading.TODO_KEYWORDS.contains(token)) {
+                matches = and(matches, idsOf(KEYWORD_PREFIX + token, false));
+            } else if (token.charAt(0) == TAG_PREFIX) {
+                for (String tag : token.split(":")) {
+                    if (tag.length() > 0)
+                        matches = and(matches, idsOf(TAG_PREFIX + tag.toLowerCase(Locale.US), true));
+                }
+            } else {
+                // Any prefix may narrow the search, so single letters count here.
+                for (String word : words(token, 1)) {
+                    matches = and(matches, idsOf(word, true));
+                }
+            }
+            if (matches != null && matches.isEmpty())
+                return Collections.emptyList();
+        }
+        if (matches == null)
+            return Collections.emptyList();
+        if (range != null)
+            return agenda(range[0], range[1], null, matches, limit);
+
+        List<Hit> hits = new ArrayList<>();
+        for (int i = 0; i < mLayout.length && hits.size() < limit; ++i) {
+            if (matches.get(mLayout[i])) {
+                final Section section = mSections.get(mLayout[i]);
+                hits.add(new Hit(mRev, mStarts[i], mEnds[i], section.level, section.title, null));
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Returns up to limit timestamps from fromDate to toDate, as yyyymmdd and
+     * inclusive, of the given kinds (null for all), in date order, each with
+     * its section. Reads only the sections in the range.
+     */
+    public synchronized List<Hit> agenda(int fromDate, int toDate, Set<OrgTimestamp.Kind> kinds, int limit) {
+        return agenda(fromDate, toDate, kinds, null, limit);
+    }
+
+    private List<Hit> agenda(int fromDate, int toDate, Set<OrgTimestamp.Kind> kinds, BitSet only, int limit) {
+        List<Hit> hits = new ArrayList<>();
+        if (fromDate > toDate)
+            return hits;
+        // Where each live section is in the indexed content.
+        int[] positions = new int[mSections.size()];
+        for (int i = mLayout.length - 1; i >= 0; --i) {
+            positions[mLayout[i]] = i + 1;
+        }
+        for (Map.Entry<Long, Postings> entry : agendaRange(fromDate, toDate).entrySet()) {
+            final Postings postings = entry.getValue();
+            for (int p = 0; p < postings.size; ++p) {
+                final int id = postings.ids[p];
+                final Section section = mSections.get(id);
+                if (section == null || positions[id] == 0 || (only != null && !only.get(id)))
+                    continue;
+                final int i = positions[id] - 1;
+                for (OrgTimestamp timestamp : section.timestamps) {
+                    if (timestamp.sortKey() != entry.getKey() || (kinds != null && !kinds.contains(timestamp.kind)))
+                        continue;
+                    hits.add(new Hit(mRev, mStarts[i], mEnds[i], section.level, section.title, timestamp));
+                    if (hits.size() >= limit)
+                        return hits;
+                }
+            }
+        }
+        return hits;
+    }
+
+    private SortedMap<Long, Postings> agendaRange(int fromDate, int toDate) {
+        return mAgenda.subMap(new OrgTimestamp(null, fromDate, -1).sortKey(), true,
+                new OrgTimestamp(null, toDate, 24 * 60).sortKey(), true);
+    }
+
+    private BitSet idsIn(int fromDate, int toDate) {
+        BitSet ids = new BitSet(mSections.size());
+        if (fromDate > toDate)
+            return ids;
+        for (Postings postings : agendaRange(fromDate, toDate).values()) {
+            for (int i = 0; i < postings.size; ++i) {
+                ids.set(postings.ids[i]);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Parses "today", "week", "month", "2016-05-03" or "2016-05-01..2016-05-15"
+     * into {from, to} as yyyymmdd, or returns null.
+     */
+    static int[] dateRange(String text, Calendar today) {
+        final Calendar day = (Calendar)today.clone();
+        switch (text.toLowerCase(Locale.US)) {
+            case "today":
+                return new int[] { OrgTimestamp.dateOf(day), OrgTimestamp.dateOf(day) };
+            case "week": {
+                final int back = (day.get(Calendar.DAY_OF_WEEK) - day.getFirstDayOfWeek() + 7) % 7;
+                day.add(Calendar.DAY_OF_MONTH, -back);
+                final int from = OrgTimestamp.dateOf(day);
+                day.add(Calendar.DAY_OF_MONTH, 6);
+                return new int[] { from, OrgTimestamp.dateOf(day) };
+            }
+            case "month": {
+                final int month = OrgTimestamp.dateOf(day) / 100 * 100;
+                return new int[] { month + 1, month + day.getActualMaximum(Calendar.DAY_OF_MONTH) };
+            }
+        }
+        final int separator = text.indexOf(DATE_RANGE_SEPARATOR);
+        final OrgTimestamp from = OrgTimestamp.parse(
+                "[" + (separator < 0 ? text : text.substring(0, separator)) + "]");
+        final OrgTimestamp to = separator < 0 ? from
+                : OrgTimestamp.parse("[" + text.substring(separator + DATE_RANGE_SEPARATOR.length()) + "]");
+        if (from == null || to == null)
+            return null;
+        return new int[] { from.date, to.date };
+    }
+
+    public synchronized void writeTo(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mRev);
+            // Live sections only, renumbered densely.
+            int[] newIds = new int[mSections.size()];
+            out.writeInt(mIds.size());
+            int next = 0;
+            for (int id = 0; id < mSections.size(); ++id) {
+                final Section section = mSections.get(id);
+                if (section == null)
+                    continue;
+                newIds[id] = next++;
+                out.writeLong(section.hash);
+                out.writeInt(section.level);
+                out.writeUTF(section.title);
+                out.writeInt(section.terms.length);
+                for (String term : section.terms) {
+                    out.writeUTF(term);
+                }
+                out.writeInt(section.timestamps.length);
+                for (OrgTimestamp timestamp : section.timestamps) {
+                    out.writeByte(timestamp.kind.ordinal());
+                    out.writeInt(timestamp.date);
+                    out.writeShort(timestamp.minutes);
+                }
+            }
+            out.writeInt(mLayout.length);
+            for (int i = 0; i < mLayout.length; ++i) {
+                out.writeInt(newIds[mLayout[i]]);
+                out.writeInt(mStarts[i]);
+                out.writeInt(mEnds[i]);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("rename failed: " + file);
+        }
+    }
+
+    /** Returns the index stored in file, or an empty index if there is none. */
+    public static OrgIndex readFrom(File file) {
+        OrgIndex index = new OrgIndex();
+        if (!file.isFile())
+            return index;
+        // Every count is of things at least a byte long, so none can exceed this.
+        final long limit = file.length();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                    return index;
+                final String rev = in.readUTF();
+                final int sections = readCount(in, limit);
+                for (int i = 0; i < sections; ++i) {
+                    final long hash = in.readLong();
+                    final int level = in.readInt();
+                    final String title = in.readUTF();
+                    String[] terms = new String[readCount(in, limit)];
+                    for (int t = 0; t < terms.length; ++t) {
+                        terms[t] = in.readUTF();
+                    }
+                    OrgTimestamp[] timestamps = new OrgTimestamp[readCount(in, limit)];
+                    for (int t = 0; t < timestamps.length; ++t) {
+                        final int kind = in.readByte();
+                        if (kind < 0 || kind >= OrgTimestamp.Kind.values().length)
+                            throw new IOException("bad timestamp kind " + kind);
+                        timestamps[t] = new OrgTimestamp(OrgTimestamp.Kind.values()[kind], in.readInt(), in.readShort());
+                    }
+                    index.add(new Section(hash, level, title, terms, timestamps));
+                }
+                final int count = readCount(in, limit);
+                int[] layout = new int[count];
+                int[] starts = new int[count];
+                int[] ends = new int[count];
+                for (int i = 0; i < count; ++i) {
+                    layout[i] = in.readInt();
+                    starts[i] = in.readInt();
+                    ends[i] = in.readInt();
+                    if (layout[i] < 0 || layout[i] >= sections)
+                        throw new IOException("bad section id " + layout[i]);
+                    // Sections tile the content from its start.
+                    if (starts[i] != (i == 0 ? 0 : ends[i - 1]) || ends[i] < starts[i])
+                        throw new IOException("bad section bounds " + starts[i] + ".." + ends[i]);
+                }
+                index.mRev = rev;
+                index.mLayout = layout;
+                index.mStarts = starts;
+                index.mEnds = ends;
+                return index;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            OrgLog.d(TAG, "unusable index: " + e);
+            return new OrgIndex();
+        }
+    }
+
+    private static int readCount(DataInputStream in, long limit) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > limit)
+            throw new IOException("bad count " + count);
+        return count;
+    }
+
+    private int add(Section section) {
+        final int id = mSections.size();
+        mSections.add(section);
+        mIds.put(section.hash, id);
+        for (String term : section.terms) {
+            Postings postings = mPostings.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                mPostings.put(term, postings);
+            }
+            postings.add(id);
+        }
+        for (OrgTimestamp timestamp : section.timestamps) {
+            Postings postings = mAgenda.get(timestamp.sortKey());
+            if (postings == null) {
+                postings = new Postings();
+                mAgenda.put(timestamp.sortKey(), postings);
+            }
+            postings.add(id);
+        }
+        return id;
+    }
+
+    /** Renumbers the live sections and rebuilds the postings without the dropped ones. */
+    private void compact() {
+        List<Section> live = new ArrayList<>(mIds.size());
+        int[] newIds = new int[mSections.size()];
+        for (int id = 0; id < mSections.size(); ++id) {
+            final Section section = mSections.get(id);
+            if (section != null) {
+                newIds[id] = live.size();
+                live.add(section);
+            }
+        }
+        mSections.clear();
+        mIds.clear();
+        mPostings.clear();
+        mAgenda.clear();
+        mDead = 0;
+        for (Section section : live) {
+            add(section);
+        }
+        for (int i = 0; i < mLayout.length; ++i) {
+            mLayout[i] = newIds[mLayout[i]];
+        }
+    }
+
+    private BitSet idsOf(String term, boolean prefix) {
+        BitSet ids = new BitSet(mSections.size());
+        Map<String, Postings> matching = prefix
+                ? mPostings.subMap(term, true, term + Character.MAX_VALUE, true)
+                : mPostings.subMap(term, true, term, true);
+        for (Postings postings : matching.values()) {
+            for (int i = 0; i < postings.size; ++i) {
+                ids.set(postings.ids[i]);
+            }
+        }
+        return ids;
+    }
+
+    private static BitSet and(BitSet matches, BitSet ids) {
+        if (matches == null)
+            return ids;
+        matches.and(ids);
+        return matches;
+    }
+
+    private static Section tokenize(String text, OrgOutline outline, int heading, int start, int end, long hash) {
+        Set<String> terms = new LinkedHashSet<>();
+        int level = 0;
+        String title = "";
+        int bodyStart = start;
+        if (heading >= 0) {
+            OrgHeading parsed = OrgHeading.parse(text, outline, heading);
+            level = parsed.level;
+            title = parsed.title.length() > MAX_TITLE_LENGTH
+                    ? parsed.title.substring(0, MAX_TITLE_LENGTH) : parsed.title;
+            if (parsed.keyword != null)
+                terms.add(KEYWORD_PREFIX + parsed.keyword);
+            for (String tag : parsed.tags) {
+                terms.add(TAG_PREFIX + tag.toLowerCase(Locale.US));
+            }
+            terms.addAll(words(parsed.title, MIN_TERM_LENGTH));
+            bodyStart = outline.bodyStart(heading);
+        }
+        terms.addAll(words(text.substring(bodyStart, end), MIN_TERM_LENGTH));
+        List<OrgTimestamp> timestamps = OrgTimestamp.parseAll(text, start, end);
+        return new Section(hash, level, title, terms.toArray(new String[terms.size()]),
+                timestamps.toArray(new OrgTimestamp[timestamps.size()]));
+    }
+
+    // Lower case runs of letters and digits.
+    private static List<String> words(String text, int minLength) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); ++i) {
+            final char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                if (word.length() >= minLength && word.length() <= MAX_TERM_LENGTH)
+                    words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    // 64-bit FNV-1a over the chars of text[start, end).
+    private static long hash(String text, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; ++i) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
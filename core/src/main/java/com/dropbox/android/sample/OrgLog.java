@@ -0,0 +1,41 @@
+package com.dropbox.android.sample;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging for the core classes, which cannot see android.util.Log. Messages
+ * go to java.util.logging until the app installs a sink that forwards them to
+ * logcat.
+ */
+public final class OrgLog {
+    // Same values as android.util.Log.
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+
+    public interface Sink {
+        void log(int priority, String tag, String msg);
+    }
+
+    private static volatile Sink sSink = new Sink() {
+        @Override
+        public void log(int priority, String tag, String msg) {
+            Logger.getLogger(tag).log(priority >= INFO ? Level.INFO : Level.FINE, msg);
+        }
+    };
+
+    private OrgLog() {
+    }
+
+    public static void setSink(Sink sink) {
+        sSink = sink;
+    }
+
+    public static void d(String tag, String msg) {
+        sSink.log(DEBUG, tag, msg);
+    }
+
+    public static void i(String tag, String msg) {
+        sSink.log(INFO, tag, msg);
+    }
+}
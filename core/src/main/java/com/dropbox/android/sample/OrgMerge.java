@@ -0,0 +1,298 @@
+package com.dropbox.android.sample;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Three-way merge of org files at heading granularity. Every heading starts
+ * a section that runs to the next heading of any level; sections are matched
+ * across versions by their heading line. Sections sharing a heading line,
+ * like a run of "** capture" entries, are matched to the base by a longest
+ * common subsequence of their text, so one inserted among them does not
+ * shift the others. A section changed on only one side takes that side's
+ * version; a section changed differently on both sides is a conflict.
+ */
+public class OrgMerge {
+    private static final String PREAMBLE_KEY = "";
+    // Repeated-heading runs longer than this (after trimming what is unchanged)
+    // are matched by position instead, to bound the LCS table.
+    private static final long MAX_LCS_CELLS = 1 << 20;
+
+    public static class Result {
+        public final String content;
+        public final List<String> conflicts;
+
+        Result(String content, List<String> conflicts) {
+            this.content = content;
+            this.conflicts = conflicts;
+        }
+
+        public boolean isClean() {
+            return conflicts.isEmpty();
+        }
+    }
+
+    // A version's sections in file order: heading line ("" for the preamble) and text.
+    private static class Split {
+        final List<String> headings = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+    }
+
+    private static class Sections {
+        final List<String> keys = new ArrayList<>();
+        final Map<String, String> texts = new HashMap<>();
+    }
+
+    public static Result merge(String base, String local, String remote) {
+        Split baseSplit = split(base);
+        Sections baseSections = keyed(baseSplit, baseKeys(baseSplit));
+        Split localSplit = split(local);
+        Sections localSections = keyed(localSplit, sideKeys(baseSplit, baseSections.keys, localSplit));
+        Split remoteSplit = split(remote);
+        Sections remoteSections = keyed(remoteSplit, sideKeys(baseSplit, baseSections.keys, remoteSplit));
+
+        List<String> order = mergeOrder(baseSections, localSections, remoteSections);
+        List<String> conflicts = new ArrayList<>();
+        StringBuilder sb = new StringBuilder(Math.max(local.length(), remote.length()));
+        for (String key : order) {
+            final String b = baseSections.texts.get(key);
+            final String l = localSections.texts.get(key);
+            final String r = remoteSections.texts.get(key);
+
+            final String merged;
+            if (equal(l, r) || equal(r, b)) {
+                merged = l;
+            } else if (equal(l, b)) {
+                merged = r;
+            } else {
+                final String heading = headingOf(key);
+                conflicts.add(heading.length() != 0 ? heading : "(preamble)");
+                merged = l;
+            }
+            if (merged != null)
+                sb.append(merged);
+        }
+        return new Result(sb.toString(), conflicts);
+    }
+
+    /**
+     * Remote order, with sections added locally inserted after the section
+     * that precedes them in the local version.
+     */
+    private static List<String> mergeOrder(Sections base, Sections local, Sections remote) {
+        Set<String> placed = new HashSet<>(remote.keys);
+        // Each local section not in remote follows the local section before it;
+        // a key has at most one follower, as local order is a list.
+        Map<String, String> follower = new HashMap<>();
+        List<String> leading = new ArrayList<>();
+        String previous = null;
+        for (String key : local.keys) {
+            if (placed.add(key)) {
+                if (previous == null) {
+                    leading.add(key);
+                } else {
+                    follower.put(previous, key);
+                }
+            }
+            previous = key;
+        }
+
+        List<String> order = new ArrayList<>(placed.size() + base.keys.size());
+        appendWithFollowers(order, leading, follower);
+        appendWithFollowers(order, remote.keys, follower);
+        // Sections deleted remotely but changed locally must still be visited to surface the conflict.
+        for (String key : base.keys) {
+            if (placed.add(key))
+                order.add(key);
+        }
+        return order;
+    }
+
+    private static void appendWithFollowers(List<String> order, List<String> keys, Map<String, String> follower) {
+        for (String key : keys) {
+            order.add(key);
+            for (String next = follower.get(key); next != null; next = follower.get(next)) {
+                order.add(next);
+            }
+        }
+    }
+
+    private static Split split(String content) {
+        Split split = new Split();
+        OrgOutline outline = OrgOutline.parse(content);
+        final int firstStart = outline.size() > 0 ? outline.start(0) : content.length();
+        if (firstStart > 0)
+            add(split, PREAMBLE_KEY, content.substring(0, firstStart));
+        for (int i = 0; i < outline.size(); ++i) {
+            add(split, content.substring(outline.start(i), outline.titleEnd(i)),
+                    content.substring(outline.start(i), outline.end(i)));
+        }
+        return split;
+    }
+
+    private static void add(Split split, String heading, String text) {
+        // A missing final newline must not make the last section look edited
+        // once something is appended after it.
+        if (!text.endsWith("\n"))
+            text = text + "\n";
+        split.headings.add(heading);
+        split.texts.add(text);
+    }
+
+    private static Sections keyed(Split split, List<String> keys) {
+        Sections sections = new Sections();
+        for (int i = 0; i < keys.size(); ++i) {
+            sections.keys.add(keys.get(i));
+            sections.texts.put(keys.get(i), split.texts.get(i));
+        }
+        return sections;
+    }
+
+    // The base's sections are keyed by heading line and occurrence.
+    private static List<String> baseKeys(Split base) {
+        List<String> keys = new ArrayList<>(base.headings.size());
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (String heading : base.headings) {
+            Integer seen = occurrences.get(heading);
+            seen = seen == null ? 0 : seen + 1;
+            occurrences.put(heading, seen);
+            keys.add(heading.length() != 0 ? heading + "\n" + seen : PREAMBLE_KEY);
+        }
+        return keys;
+    }
+
+    /**
+     * Keys a side's sections by the base sections they correspond to. Per
+     * heading line, sections with the same text as a base section are matched
+     * along their LCS; between two matches, the remaining sections are taken
+     * as edits of the base ones in order, and any left over as additions.
+     * Additions are keyed by their text, so the same section added on both
+     * sides is one section.
+     */
+    private static List<String> sideKeys(Split base, List<String> baseKeys, Split side) {
+        Map<String, List<Integer>> baseByHeading = byHeading(base);
+        Map<String, List<Integer>> sideByHeading = byHeading(side);
+        String[] keys = new String[side.headings.size()];
+        Map<String, Integer> added = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : sideByHeading.entrySet()) {
+            final String heading = entry.getKey();
+            final List<Integer> sideIndices = entry.getValue();
+            List<Integer> baseIndices = baseByHeading.get(heading);
+            if (baseIndices == null)
+                baseIndices = new ArrayList<>();
+
+            final int[] match = match(base.texts, baseIndices, side.texts, sideIndices);
+            for (int s = 0; s < sideIndices.size(); ++s) {
+                final int i = sideIndices.get(s);
+                if (match[s] >= 0) {
+                    keys[i] = baseKeys.get(baseIndices.get(match[s]));
+                } else {
+                    final String key = heading + "\n+" + side.texts.get(i).hashCode();
+                    Integer seen = added.get(key);
+                    seen = seen == null ? 0 : seen + 1;
+                    added.put(key, seen);
+                    keys[i] = key + "\n" + seen;
+                }
+            }
+        }
+        List<String> result = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            result.add(key);
+        }
+        return result;
+    }
+
+    private static Map<String, List<Integer>> byHeading(Split split) {
+        Map<String, List<Integer>> byHeading = new HashMap<>();
+        for (int i = 0; i < split.headings.size(); ++i) {
+            List<Integer> indices = byHeading.get(split.headings.get(i));
+            if (indices == null) {
+                indices = new ArrayList<>();
+                byHeading.put(split.headings.get(i), indices);
+            }
+            indices.add(i);
+        }
+        return byHeading;
+    }
+
+    /**
+     * Returns, per side section, the position in baseIndices of the base
+     * section it corresponds to, or -1 if it is new.
+     */
+    private static int[] match(List<String> baseTexts, List<Integer> baseIndices,
+                               List<String> sideTexts, List<Integer> sideIndices) {
+        final int n = baseIndices.size();
+        final int m = sideIndices.size();
+        final int[] match = new int[m];
+        // Equal heads and tails need no table; usually that is all of it.
+        int head = 0;
+        while (head < n && head < m
+                && baseTexts.get(baseIndices.get(head)).equals(sideTexts.get(sideIndices.get(head)))) {
+            match[head] = head;
+            ++head;
+        }
+        int tail = 0;
+        while (tail < n - head && tail < m - head && baseTexts.get(baseIndices.get(n - 1 - tail))
+                .equals(sideTexts.get(sideIndices.get(m - 1 - tail)))) {
+            match[m - 1 - tail] = n - 1 - tail;
+            ++tail;
+        }
+
+        final int rows = n - head - tail;
+        final int cols = m - head - tail;
+        // Anchors in the middle, as (base, side) position pairs, ending with the tail.
+        List<int[]> anchors = new ArrayList<>();
+        if (rows > 0 && cols > 0 && (long)rows * cols <= MAX_LCS_CELLS) {
+            final int[][] lcs = new int[rows + 1][cols + 1];
+            for (int b = rows - 1; b >= 0; --b) {
+                final String text = baseTexts.get(baseIndices.get(head + b));
+                for (int s = cols - 1; s >= 0; --s) {
+                    lcs[b][s] = text.equals(sideTexts.get(sideIndices.get(head + s)))
+                            ? lcs[b + 1][s + 1] + 1 : Math.max(lcs[b + 1][s], lcs[b][s + 1]);
+                }
+            }
+            int b = 0;
+            int s = 0;
+            while (b < rows && s < cols) {
+                if (baseTexts.get(baseIndices.get(head + b)).equals(sideTexts.get(sideIndices.get(head + s)))) {
+                    anchors.add(new int[] { head + b, head + s });
+                    ++b;
+                    ++s;
+                } else if (lcs[b + 1][s] >= lcs[b][s + 1]) {
+                    ++b;
+                } else {
+                    ++s;
+                }
+            }
+        }
+        anchors.add(new int[] { n - tail, m - tail });
+
+        int fromBase = head;
+        int fromSide = head;
+        for (int[] anchor : anchors) {
+            // Between anchors, pair the unmatched sections in order.
+            for (int s = fromSide; s < anchor[1]; ++s) {
+                final int b = fromBase + (s - fromSide);
+                match[s] = b < anchor[0] ? b : -1;
+            }
+            if (anchor[1] < m - tail)
+                match[anchor[1]] = anchor[0];
+            fromBase = anchor[0] + 1;
+            fromSide = anchor[1] + 1;
+        }
+        return match;
+    }
+
+    private static String headingOf(String key) {
+        final int newline = key.indexOf('\n');
+        return newline < 0 ? key : key.substring(0, newline);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
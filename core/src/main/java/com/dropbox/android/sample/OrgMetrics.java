@@ -0,0 +1,204 @@
+package com.dropbox.android.sample;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide timers and counters for the sync and edit hot paths. A timer
+ * sample costs two nanoTime() calls and a few atomic adds, so they stay on.
+ * Classes look their metrics up once, into static fields; report() and
+ * writeCsv() read them out, with the rates that matter worked out.
+ */
+public class OrgMetrics {
+    // Timer buckets are powers of two of microseconds, 1 us up to about 35 minutes.
+    private static final int BUCKETS = 32;
+
+    private static final ConcurrentMap<String, Timer> sTimers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Counter> sCounters = new ConcurrentHashMap<>();
+
+    public static class Timer {
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+
+        /** Returns a start time for stop(). */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        public void stop(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        public void record(long nanos) {
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(nanos);
+            long max = mMaxNanos.get();
+            while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+                max = mMaxNanos.get();
+            }
+            final long micros = nanos / 1000;
+            final int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            mBuckets.incrementAndGet(bucket);
+        }
+
+        public long count() {
+            return mCount.get();
+        }
+
+        public double totalMillis() {
+            return mTotalNanos.get() / 1e6;
+        }
+
+        public double meanMillis() {
+            final long count = mCount.get();
+            return count == 0 ? 0 : mTotalNanos.get() / 1e6 / count;
+        }
+
+        public double maxMillis() {
+            return mMaxNanos.get() / 1e6;
+        }
+
+        /** Upper bound of the bucket holding the given fraction of samples, e.g. 0.95. */
+        public double percentileMillis(double fraction) {
+            final long count = mCount.get();
+            if (count == 0)
+                return 0;
+            final long rank = (long)Math.ceil(fraction * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+                seen += mBuckets.get(bucket);
+                if (seen >= rank)
+                    return Math.min((1L << bucket) / 1000.0, maxMillis());
+            }
+            return maxMillis();
+        }
+
+        void reset() {
+            mCount.set(0);
+            mTotalNanos.set(0);
+            mMaxNanos.set(0);
+            for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+                mBuckets.set(bucket, 0);
+            }
+        }
+    }
+
+    public static class Counter {
+        private final AtomicLong mValue = new AtomicLong();
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(long n) {
+            mValue.addAndGet(n);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+
+        void reset() {
+            mValue.set(0);
+        }
+    }
+
+    public static Timer timer(String name) {
+        Timer timer = sTimers.get(name);
+        if (timer == null) {
+            final Timer created = new Timer();
+            timer = sTimers.putIfAbsent(name, created);
+            if (timer == null)
+                timer = created;
+        }
+        return timer;
+    }
+
+    public static Counter counter(String name) {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            final Counter created = new Counter();
+            counter = sCounters.putIfAbsent(name, created);
+            if (counter == null)
+                counter = created;
+        }
+        return counter;
+    }
+
+    /** Zeroes every metric, e.g. to measure one session on its own. */
+    public static void reset() {
+        for (Timer timer : sTimers.values()) {
+            timer.reset();
+        }
+        for (Counter counter : sCounters.values()) {
+            counter.reset();
+        }
+    }
+
+    /** hits / (hits + misses) of two counters, or -1 if both are zero. */
+    public static double rate(String hits, String misses) {
+        final long h = counter(hits).get();
+        final long total = h + counter(misses).get();
+        return total == 0 ? -1 : (double)h / total;
+    }
+
+    /** Readable summary: derived rates first, then every timer and counter by name. */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        appendRate(sb, "rev cache hit rate", "rev_cache.hit", "rev_cache.miss");
+        appendRate(sb, "outline cache hit rate", "outline.hit", "outline.miss");
+        appendRate(sb, "fetches with nothing to download", "fetch.unchanged", "fetch.downloaded");
+        appendRate(sb, "rev mismatch rate", "update.rev_mismatch", "update.rev_match");
+        appendThroughput(sb, "download", "store.read", "store.read.bytes");
+        appendThroughput(sb, "upload", "store.write", "store.write.bytes");
+        sb.append('\n');
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(sTimers).entrySet()) {
+            final Timer timer = entry.getValue();
+            if (timer.count() == 0)
+                continue;
+            sb.append(String.format("%s: %d x, mean %.2f ms, p50 %.2f ms, p95 %.2f ms, max %.2f ms\n",
+                    entry.getKey(), timer.count(), timer.meanMillis(), timer.percentileMillis(0.5),
+                    timer.percentileMillis(0.95), timer.maxMillis()));
+        }
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(sCounters).entrySet()) {
+            if (entry.getValue().get() != 0)
+                sb.append(entry.getKey()).append(": ").append(entry.getValue().get()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** One line per metric, for a spreadsheet: kind,name,count,total_ms,mean_ms,p50_ms,p95_ms,max_ms. */
+    public static void writeCsv(Writer out) throws IOException {
+        out.write("kind,name,count,total_ms,mean_ms,p50_ms,p95_ms,max_ms\n");
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(sTimers).entrySet()) {
+            final Timer timer = entry.getValue();
+            out.write(String.format("timer,%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f\n", entry.getKey(), timer.count(),
+                    timer.totalMillis(), timer.meanMillis(), timer.percentileMillis(0.5),
+                    timer.percentileMillis(0.95), timer.maxMillis()));
+        }
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(sCounters).entrySet()) {
+            out.write("counter," + entry.getKey() + "," + entry.getValue().get() + ",,,,,\n");
+        }
+    }
+
+    private static void appendRate(StringBuilder sb, String label, String hits, String misses) {
+        final double rate = rate(hits, misses);
+        if (rate >= 0)
+            sb.append(String.format("%s: %.0f%%\n", label, 100 * rate));
+    }
+
+    private static void appendThroughput(StringBuilder sb, String label, String timer, String bytes) {
+        final double seconds = timer(timer).totalMillis() / 1000;
+        final long total = counter(bytes).get();
+        if (seconds > 0)
+            sb.append(String.format("%s: %d bytes, %.1f KB/s\n", label, total, total / 1024.0 / seconds));
+    }
+}
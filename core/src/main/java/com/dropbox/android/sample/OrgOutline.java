@@ -0,0 +1,333 @@
+package com.dropbox.android.sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Headline index of an org file. Each entry keeps the heading level and the
+ * char offsets of the heading line, its body and its section end, so callers
+ * can slice the original content instead of re-scanning it with a regex.
+ */
+public class OrgOutline {
+    private static final int INITIAL_CAPACITY = 64;
+    // Segments smaller than this cost more to hand to a thread than to scan.
+    private static final int MIN_SEGMENT_LENGTH = 1024 * 1024;
+
+    private static ExecutorService sParsePool;
+
+    private int mCount = 0;
+    private int mLength = 0;
+    private int[] mLevels = new int[INITIAL_CAPACITY];
+    private int[] mStarts = new int[INITIAL_CAPACITY];
+    private int[] mTitleEnds = new int[INITIAL_CAPACITY];
+    private int[] mEnds = new int[INITIAL_CAPACITY];
+
+    public static OrgOutline parse(CharSequence content) {
+        Scanner scanner = new Scanner();
+        if (content instanceof OrgDocument) {
+            // Walk the pieces rather than pay a tree lookup per charAt().
+            ((OrgDocument)content).feed(scanner);
+        } else {
+            scanner.feed(content, 0, content.length());
+        }
+        return scanner.finish();
+    }
+
+    /**
+     * Like parse(), but splits content at line starts into one segment per
+     * core, scans them on a shared pool and the calling thread, and stitches
+     * the results. Content too short to split is parsed sequentially.
+     */
+    public static OrgOutline parseParallel(CharSequence content) {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int segments = Math.min(cores, content.length() / MIN_SEGMENT_LENGTH);
+        if (segments < 2)
+            return parse(content);
+        return parseParallel(content, parsePool(cores), segments);
+    }
+
+    /** Parses content in the given number of segments, all but the last on executor. */
+    public static OrgOutline parseParallel(final CharSequence content, ExecutorService executor, int segments) {
+        final int length = content.length();
+        int[] bounds = new int[segments + 1];
+        for (int i = 1; i < segments; ++i) {
+            // Heading lines never span segments: each starts just past a newline.
+            int bound = Math.max(bounds[i - 1], (int)((long)length * i / segments));
+            while (bound < length && (bound == 0 || content.charAt(bound - 1) != '\n')) {
+                ++bound;
+            }
+            bounds[i] = bound;
+        }
+        bounds[segments] = length;
+
+        List<Future<OrgOutline>> futures = new ArrayList<>(segments - 1);
+        for (int i = 0; i < segments - 1; ++i) {
+            final int from = bounds[i];
+            final int to = bounds[i + 1];
+            Callable<OrgOutline> task = new Callable<OrgOutline>() {
+                @Override
+                public OrgOutline call() {
+                    return parseSegment(content, from, to);
+                }
+            };
+            try {
+                futures.add(executor.submit(task));
+            } catch (RejectedExecutionException e) {
+                futures.add(null);
+            }
+        }
+
+        List<OrgOutline> parts = new ArrayList<>(segments);
+        final OrgOutline last = parseSegment(content, bounds[segments - 1], length);
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); ++i) {
+            final Future<OrgOutline> future = futures.get(i);
+            if (future == null) {
+                parts.add(parseSegment(content, bounds[i], bounds[i + 1]));
+                continue;
+            }
+            while (true) {
+                try {
+                    parts.add(future.get());
+                    break;
+                } catch (InterruptedException e) {
+                    // Segments are quick; finish, and leave the interrupt for the caller.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException)
+                        throw (RuntimeException)e.getCause();
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        parts.add(last);
+        return stitch(parts, length);
+    }
+
+    private static OrgOutline parseSegment(CharSequence content, int from, int to) {
+        Scanner scanner = new Scanner(from);
+        if (content instanceof OrgDocument) {
+            ((OrgDocument)content).subSequence(from, to).feed(scanner);
+        } else {
+            scanner.feed(content, from, to);
+        }
+        return scanner.finish();
+    }
+
+    // Joins segment outlines in order. Only section ends cross segments.
+    private static OrgOutline stitch(List<OrgOutline> parts, int length) {
+        int count = 0;
+        for (OrgOutline part : parts) {
+            count += part.mCount;
+        }
+        OrgOutline outline = new OrgOutline();
+        if (count > INITIAL_CAPACITY) {
+            outline.mLevels = new int[count];
+            outline.mStarts = new int[count];
+            outline.mTitleEnds = new int[count];
+            outline.mEnds = new int[count];
+        }
+        for (OrgOutline part : parts) {
+            System.arraycopy(part.mLevels, 0, outline.mLevels, outline.mCount, part.mCount);
+            System.arraycopy(part.mStarts, 0, outline.mStarts, outline.mCount, part.mCount);
+            System.arraycopy(part.mTitleEnds, 0, outline.mTitleEnds, outline.mCount, part.mCount);
+            outline.mCount += part.mCount;
+        }
+        for (int i = 0; i < count - 1; ++i) {
+            outline.mEnds[i] = outline.mStarts[i + 1];
+        }
+        if (count > 0)
+            outline.mEnds[count - 1] = length;
+        outline.mLength = length;
+        return outline;
+    }
+
+    private static synchronized ExecutorService parsePool(int cores) {
+        if (sParsePool == null) {
+            // The calling thread scans a segment too.
+            sParsePool = Executors.newFixedThreadPool(cores - 1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "OrgOutline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sParsePool;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /** Length of the content this outline was built from. */
+    public int length() {
+        return mLength;
+    }
+
+    public int level(int index) {
+        return mLevels[index];
+    }
+
+    /** Offset of the first '*' of the heading line. */
+    public int start(int index) {
+        return mStarts[index];
+    }
+
+    public int titleStart(int index) {
+        return mStarts[index] + mLevels[index] + 1;
+    }
+
+    /** Offset of the newline ending the heading line, or the content length. */
+    public int titleEnd(int index) {
+        return mTitleEnds[index];
+    }
+
+    /** Offset just past the heading line, including its newline. */
+    public int bodyStart(int index) {
+        return Math.min(mTitleEnds[index] + 1, mLength);
+    }
+
+    /** Offset where the next heading of any level starts, or the content length. */
+    public int end(int index) {
+        return mEnds[index];
+    }
+
+    /** Offset where the next heading of the same or a higher level starts. */
+    public int subtreeEnd(int index) {
+        final int level = mLevels[index];
+        for (int i = index + 1; i < mCount; ++i) {
+            if (mLevels[i] <= level)
+                return mStarts[i];
+        }
+        return mLength;
+    }
+
+    public String title(CharSequence content, int index) {
+        return content.subSequence(titleStart(index), titleEnd(index)).toString();
+    }
+
+    /** Index of the heading whose section contains the given offset, or -1. */
+    public int indexAt(int offset) {
+        int lo = 0;
+        int hi = mCount - 1;
+        int found = -1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (mStarts[mid] <= offset) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private void add(int level, int start) {
+        if (mCount == mLevels.length) {
+            final int capacity = mCount * 2;
+            mLevels = copyOf(mLevels, capacity);
+            mStarts = copyOf(mStarts, capacity);
+            mTitleEnds = copyOf(mTitleEnds, capacity);
+            mEnds = copyOf(mEnds, capacity);
+        }
+        if (mCount > 0)
+            mEnds[mCount - 1] = start;
+        mLevels[mCount] = level;
+        mStarts[mCount] = start;
+        mTitleEnds[mCount] = -1;
+        mEnds[mCount] = -1;
+        ++mCount;
+    }
+
+    private static int[] copyOf(int[] src, int capacity) {
+        int[] dst = new int[capacity];
+        System.arraycopy(src, 0, dst, 0, src.length);
+        return dst;
+    }
+
+    /**
+     * Single forward pass over the content, fed in arbitrary chunks. A heading
+     * is a line that starts with one or more '*' followed by a space.
+     */
+    public static class Scanner {
+        private final OrgOutline mOutline = new OrgOutline();
+        private int mOffset;
+        private boolean mAtLineStart = true;
+        private boolean mInHeadingLine = false;
+        private int mStars = 0;
+        private int mCandidateStart = -1;
+
+        public Scanner() {
+            this(0);
+        }
+
+        // Scans from a line start at offset; reported offsets count from the content start.
+        Scanner(int offset) {
+            mOffset = offset;
+        }
+
+        public void feed(CharSequence chunk, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                step(chunk.charAt(i));
+            }
+        }
+
+        public void feed(char[] chunk, int from, int to) {
+            for (int i = from; i < to; ++i) {
+                step(chunk[i]);
+            }
+        }
+
+        private void step(char c) {
+            if (mInHeadingLine) {
+                if (c == '\n') {
+                    mOutline.mTitleEnds[mOutline.mCount - 1] = mOffset;
+                    mInHeadingLine = false;
+                    mAtLineStart = true;
+                }
+            } else if (mCandidateStart >= 0) {
+                if (c == '*') {
+                    ++mStars;
+                } else {
+                    if (c == ' ') {
+                        mOutline.add(mStars, mCandidateStart);
+                        mInHeadingLine = true;
+                    }
+                    mAtLineStart = (c == '\n');
+                    mCandidateStart = -1;
+                    mStars = 0;
+                }
+            } else if (mAtLineStart && c == '*') {
+                mCandidateStart = mOffset;
+                mStars = 1;
+                mAtLineStart = false;
+            } else {
+                mAtLineStart = (c == '\n');
+            }
+            ++mOffset;
+        }
+
+        public OrgOutline finish() {
+            final OrgOutline outline = mOutline;
+            outline.mLength = mOffset;
+            if (outline.mCount > 0) {
+                if (mInHeadingLine)
+                    outline.mTitleEnds[outline.mCount - 1] = mOffset;
+                outline.mEnds[outline.mCount - 1] = mOffset;
+            }
+            return outline;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.dropbox.android.sample;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the rev of one file in the background. Each poll waits on the
+ * store for a change; the pause between polls starts at the minimum
+ * interval, doubles after every poll that finds nothing new or fails, and
+ * drops back to the minimum once the file changes.
+ */
+public class OrgRevPoller {
+    private static final String TAG = "OrgRevPoller";
+
+    public interface OnRevChangedListener {
+        /** rev is null if the file was deleted. */
+        void onRevChanged(String path, String rev);
+    }
+
+    private final OrgStore mStore;
+    private final String mPath;
+    private final long mMinIntervalMs;
+    private final long mMaxIntervalMs;
+    private final long mWaitMs;
+    private final Executor mCallbackExecutor;
+    private final OnRevChangedListener mListener;
+    private ScheduledExecutorService mTimer;
+    private ScheduledFuture<?> mNextPoll;
+    private String mKnownRev;
+    private long mIntervalMs;
+
+    /**
+     * @param waitMs how long a single poll may wait on stores that can block
+     *               until a change.
+     */
+    public OrgRevPoller(OrgStore store, String path, long minIntervalMs, long maxIntervalMs,
+                        long waitMs, Executor callbackExecutor, OnRevChangedListener listener) {
+        mStore = store;
+        mPath = path;
+        mMinIntervalMs = minIntervalMs;
+        mMaxIntervalMs = maxIntervalMs;
+        mWaitMs = waitMs;
+        mCallbackExecutor = callbackExecutor;
+        mListener = listener;
+    }
+
+    public synchronized void start(String knownRev) {
+        if (mTimer != null)
+            return;
+        mKnownRev = knownRev;
+        mIntervalMs = mMinIntervalMs;
+        mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        schedule(mIntervalMs);
+    }
+
+    public synchronized void stop() {
+        if (mTimer == null)
+            return;
+        mTimer.shutdownNow();
+        mTimer = null;
+        mNextPoll = null;
+    }
+
+    /**
+     * Records a rev the app already knows about, e.g. after its own upload, so
+     * it is not reported as a change. Polling speeds up again as well.
+     */
+    public synchronized void setKnownRev(String rev) {
+        mKnownRev = rev;
+        mIntervalMs = mMinIntervalMs;
+        if (mNextPoll != null && mNextPoll.cancel(false))
+            schedule(mIntervalMs);
+    }
+
+    private void schedule(long delayMs) {
+        final ScheduledExecutorService timer = mTimer;
+        mNextPoll = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll(timer);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void poll(ScheduledExecutorService timer) {
+        final String knownRev;
+        synchronized (this) {
+            knownRev = mKnownRev;
+        }
+
+        String rev = knownRev;
+        boolean failed = false;
+        try {
+            rev = mStore.awaitChange(mPath, knownRev, mWaitMs);
+        } catch (IOException e) {
+            OrgLog.d(TAG, e.toString());
+            failed = true;
+        }
+
+        final boolean changed = !failed && (rev == null ? knownRev != null : !rev.equals(knownRev));
+        final boolean report;
+        synchronized (this) {
+            // Stopped, and maybe started again, while we were waiting.
+            if (mTimer != timer)
+                return;
+            // A known rev set during the poll takes precedence over what the poll saw.
+            report = changed && knownRev == mKnownRev;
+            if (report) {
+                mKnownRev = rev;
+                mIntervalMs = mMinIntervalMs;
+            } else {
+                mIntervalMs = Math.min(mIntervalMs * 2, mMaxIntervalMs);
+            }
+            schedule(mIntervalMs);
+        }
+        if (report)
+            notifyChanged(rev);
+    }
+
+    private void notifyChanged(final String rev) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onRevChanged(mPath, rev);
+            }
+        });
+    }
+}
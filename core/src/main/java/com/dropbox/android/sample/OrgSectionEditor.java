@@ -0,0 +1,219 @@
+package com.dropbox.android.sample;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Editing model of the daily log entry, split into its sub-headings. Rows
+ * are the sections whose ancestors are all expanded; the entry itself is
+ * always expanded and sub-headings start collapsed. A section's body is
+ * sliced out of the document only when asked for, and edits are kept per
+ * section, so saving splices just the edited bodies into the document.
+ */
+public class OrgSectionEditor {
+    private final String mRev;
+    private final OrgDocument mContent;
+    private final OrgOutline mOutline;
+    // Outline entries of the daily log subtree.
+    private final int mCount;
+    private final boolean[] mExpanded;
+    // Entry, relative to the first, to its edited body.
+    private final Map<Integer, String> mEdits = new TreeMap<>();
+    private int[] mRows;
+    private int mEditCount = 0;
+
+    public OrgSectionEditor(String rev, OrgDocument content) {
+        mRev = rev;
+        mContent = content;
+        mOutline = OrgUtil.GetOrgOutline(content);
+        mCount = mOutline.size() > 0 && mOutline.start(0) == 0 && mOutline.level(0) == 1
+                ? entriesIn(mOutline, 0) : 0;
+        mExpanded = new boolean[mCount];
+        if (mCount > 0)
+            mExpanded[0] = true;
+        layOut();
+    }
+
+    public String getRev() {
+        return mRev;
+    }
+
+    public OrgDocument getContent() {
+        return mContent;
+    }
+
+    public int getRowCount() {
+        return mRows.length;
+    }
+
+    public int level(int row) {
+        return mOutline.level(mRows[row]);
+    }
+
+    /** The heading line without its stars. */
+    public String title(int row) {
+        return mOutline.title(mContent, mRows[row]);
+    }
+
+    public boolean hasChildren(int row) {
+        final int entry = mRows[row];
+        return entry + 1 < mCount && mOutline.level(entry + 1) > mOutline.level(entry);
+    }
+
+    public boolean isExpanded(int row) {
+        return mExpanded[mRows[row]];
+    }
+
+    /** Expands or collapses the row; rows after it shift accordingly. */
+    public void toggle(int row) {
+        final int entry = mRows[row];
+        if (entry == 0)
+            return;
+        mExpanded[entry] = !mExpanded[entry];
+        layOut();
+    }
+
+    /** Expands the sections with the given titles, e.g. the ones expanded before a refresh. */
+    public void expand(Set<String> titles) {
+        for (int entry = 1; entry < mCount; ++entry) {
+            if (titles.contains(mOutline.title(mContent, entry)))
+                mExpanded[entry] = true;
+        }
+        layOut();
+    }
+
+    public Set<String> expandedTitles() {
+        Set<String> titles = new HashSet<>();
+        for (int entry = 1; entry < mCount; ++entry) {
+            if (mExpanded[entry])
+                titles.add(mOutline.title(mContent, entry));
+        }
+        return titles;
+    }
+
+    public String body(int row) {
+        final int entry = mRows[row];
+        final String edited = mEdits.get(entry);
+        if (edited != null)
+            return edited;
+        return mContent.subSequence(bodyStart(mOutline, entry), bodyEnd(mOutline, entry)).toString();
+    }
+
+    public void setBody(int row, String body) {
+        final int entry = mRows[row];
+        if (body.equals(body(row)))
+            return;
+        if (mContent.subSequence(bodyStart(mOutline, entry), bodyEnd(mOutline, entry)).contentEquals(body)) {
+            mEdits.remove(entry);
+        } else {
+            mEdits.put(entry, body);
+        }
+        ++mEditCount;
+    }
+
+    public boolean isEdited() {
+        return !mEdits.isEmpty();
+    }
+
+    /** Grows with every change, to tell whether edits were made since some point. */
+    public int getEditCount() {
+        return mEditCount;
+    }
+
+    /** Returns the edits made so far, unaffected by later ones, e.g. to apply on another thread. */
+    public Edits edits() {
+        return new Edits(new TreeMap<>(mEdits));
+    }
+
+    public class Edits {
+        private final Map<Integer, String> mBodies;
+
+        private Edits(Map<Integer, String> bodies) {
+            mBodies = bodies;
+        }
+
+        /**
+         * Returns base with the edited bodies spliced in. If base is not the
+         * content the editor was built from, each edited section is found by
+         * its heading line, nearest to where it was; returns null if one is gone.
+         */
+        public OrgDocument applyTo(OrgDocument base) {
+            return apply(mBodies, base);
+        }
+    }
+
+    private OrgDocument apply(Map<Integer, String> edits, OrgDocument base) {
+        OrgOutline outline = base == mContent ? mOutline : OrgUtil.GetOrgOutline(base);
+        // Entries of base by start offset, so edits apply back to front.
+        TreeMap<Integer, Integer> targets = new TreeMap<>();
+        Map<Integer, String> bodies = new TreeMap<>();
+        for (Map.Entry<Integer, String> edit : edits.entrySet()) {
+            final int entry = edit.getKey();
+            final int target = base == mContent ? entry : find(outline, base, entry);
+            if (target < 0 || bodies.containsKey(target))
+                return null;
+            targets.put(outline.start(target), target);
+            bodies.put(target, edit.getValue());
+        }
+        OrgDocument result = base;
+        for (int target : targets.descendingMap().values()) {
+            final int start = bodyStart(outline, target);
+            final int end = bodyEnd(outline, target);
+            String body = bodies.get(target);
+            // A section without a body has no newline of its own before the next heading.
+            if (start == end && end < outline.length() && body.length() > 0)
+                body += "\n";
+            // Nor does a heading that ends the file without one.
+            if (start == outline.titleEnd(target) && body.length() > 0)
+                body = "\n" + body;
+            result = result.replace(start, end, body);
+        }
+        return result;
+    }
+
+    private int find(OrgOutline outline, OrgDocument base, int entry) {
+        final int level = mOutline.level(entry);
+        final String title = mOutline.title(mContent, entry);
+        int found = -1;
+        for (int i = 0; i < outline.size(); ++i) {
+            if (outline.level(i) == level && outline.title(base, i).equals(title)
+                    && (found < 0 || Math.abs(i - entry) < Math.abs(found - entry)))
+                found = i;
+        }
+        return found;
+    }
+
+    private void layOut() {
+        int[] rows = new int[mCount];
+        int count = 0;
+        for (int entry = 0; entry < mCount; ) {
+            rows[count++] = entry;
+            entry = mExpanded[entry] ? entry + 1 : entry + entriesIn(mOutline, entry);
+        }
+        mRows = new int[count];
+        System.arraycopy(rows, 0, mRows, 0, count);
+    }
+
+    // Number of entries in the subtree of entry, itself included.
+    private static int entriesIn(OrgOutline outline, int entry) {
+        final int level = outline.level(entry);
+        int end = entry + 1;
+        while (end < outline.size() && outline.level(end) > level) {
+            ++end;
+        }
+        return end - entry;
+    }
+
+    private static int bodyStart(OrgOutline outline, int entry) {
+        return outline.bodyStart(entry);
+    }
+
+    // Up to the next heading, leaving out the newline that ends the section.
+    private static int bodyEnd(OrgOutline outline, int entry) {
+        final int end = outline.end(entry);
+        final int start = bodyStart(outline, entry);
+        return end < outline.length() && end > start ? end - 1 : end;
+    }
+}
@@ -0,0 +1,121 @@
+package com.dropbox.android.sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Storage backend for org files. Paths are absolute and '/'-separated, and
+ * every file carries an opaque rev that changes on each write.
+ */
+public interface OrgStore {
+
+    interface ProgressListener {
+        void onProgress(long bytes, long total);
+    }
+
+    /** Thrown by a conditional write when the file is no longer at the expected rev. */
+    class RevMismatchException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final String currentRev;
+
+        public RevMismatchException(String path, String expectedRev, String currentRev) {
+            super("rev mismatch on " + path + ": expected " + expectedRev + ", found " + currentRev);
+            this.currentRev = currentRev;
+        }
+    }
+
+    /** Where a chunked upload stands: its id and how many bytes the store holds. */
+    class UploadStatus {
+        public final String uploadId;
+        public final long offset;
+
+        public UploadStatus(String uploadId, long offset) {
+            this.uploadId = uploadId;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Thrown by uploadChunk when the store holds a different number of bytes
+     * of the upload than the chunk was sent from. offset is what it holds, or
+     * -1 if it no longer knows the upload at all.
+     */
+    class UploadOffsetException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final long offset;
+
+        public UploadOffsetException(String uploadId, long expectedOffset, long offset) {
+            super(offset < 0 ? "upload " + uploadId + " expired"
+                    : "upload " + uploadId + " is at " + offset + ", not " + expectedOffset);
+            this.offset = offset;
+        }
+    }
+
+    /** Returns the current rev of the file, or null if it does not exist. */
+    String getRev(String path) throws IOException;
+
+    /**
+     * Blocks until the rev of the file differs from knownRev, or timeoutMs has
+     * passed, and returns the current rev (null if the file does not exist).
+     * Stores without change notification check once and return.
+     */
+    String awaitChange(String path, String knownRev, long timeoutMs) throws IOException;
+
+    /** Streams the file into out and returns the rev that was read. */
+    String read(String path, OutputStream out) throws IOException;
+
+    /**
+     * Replaces the file only if it is still at parentRev; a null parentRev
+     * requires the file not to exist yet. Returns the new rev.
+     */
+    String write(String path, InputStream in, long length, String parentRev,
+                 ProgressListener listener) throws IOException;
+
+    boolean canAppend();
+
+    /**
+     * Appends to the end of the file and returns the new rev. Optional, see
+     * canAppend; stores without it throw IOException.
+     */
+    String append(String path, InputStream in, long length) throws IOException;
+
+    boolean canReadRanges();
+
+    /**
+     * Returns the chunk manifest of the file's current content. Optional, see
+     * canReadRanges; stores without it throw IOException.
+     */
+    ChunkManifest readManifest(String path) throws IOException;
+
+    /**
+     * Streams length bytes from offset into out and returns the rev they were
+     * read from. Optional, see canReadRanges; stores without it throw
+     * IOException.
+     */
+    String readRange(String path, long offset, long length, OutputStream out) throws IOException;
+
+    boolean canUploadChunks();
+
+    /**
+     * Adds length bytes at offset to the upload with the given id, or starts
+     * a new upload with them if uploadId is null, and returns where the upload
+     * stands after them. Uploads expire after a day or so if not committed.
+     * Optional, see canUploadChunks.
+     */
+    UploadStatus uploadChunk(String uploadId, long offset, InputStream in, long length) throws IOException;
+
+    /**
+     * Replaces the file with the uploaded bytes under the same condition as
+     * write and returns the new rev. Optional, see canUploadChunks.
+     */
+    String commitUpload(String path, String uploadId, String parentRev) throws IOException;
+
+    /** Lists the files directly under folder in name order; empty if it does not exist. */
+    List<String> list(String folder) throws IOException;
+
+    void delete(String path) throws IOException;
+}
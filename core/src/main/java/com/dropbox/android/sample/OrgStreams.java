@@ -0,0 +1,212 @@
+package com.dropbox.android.sample;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Stream helpers for moving org content between the store, the local cache
+ * and memory in a single pass over the bytes.
+ */
+public class OrgStreams {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private OrgStreams() {
+    }
+
+    public static long copy(InputStream in, OutputStream out, long length,
+                            OrgStore.ProgressListener listener) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long total = 0;
+        while (length < 0 || total < length) {
+            final int want = length < 0 ? buf.length : (int)Math.min(buf.length, length - total);
+            final int n = in.read(buf, 0, want);
+            if (n == -1)
+                break;
+            out.write(buf, 0, n);
+            total += n;
+            if (listener != null)
+                listener.onProgress(total, length < 0 ? total : length);
+        }
+        return total;
+    }
+
+    /** Growable byte buffer whose bytes can be read back or decoded without a copy. */
+    public static class ContentBuffer extends ByteArrayOutputStream {
+        public ContentBuffer() {
+            super(BUFFER_SIZE);
+        }
+
+        public ContentBuffer(int capacity) {
+            super(capacity);
+        }
+
+        public byte[] buffer() {
+            return buf;
+        }
+
+        public InputStream newInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+
+        public String decode() {
+            try {
+                return new String(buf, 0, count, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /** Writes every byte to both streams. */
+    public static class TeeOutputStream extends OutputStream {
+        private final OutputStream mFirst;
+        private final OutputStream mSecond;
+
+        public TeeOutputStream(OutputStream first, OutputStream second) {
+            mFirst = first;
+            mSecond = second;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mFirst.write(b);
+            mSecond.write(b);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            mFirst.write(buf, off, len);
+            mSecond.write(buf, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mFirst.flush();
+            mSecond.flush();
+        }
+    }
+
+    /** Copies every byte read from in to a side stream. */
+    public static class TeeInputStream extends FilterInputStream {
+        private final OutputStream mSide;
+
+        public TeeInputStream(InputStream in, OutputStream side) {
+            super(in);
+            mSide = side;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b != -1)
+                mSide.write(b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            final int n = in.read(buf, off, len);
+            if (n > 0)
+                mSide.write(buf, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes must still reach the side stream.
+            byte[] buf = new byte[(int)Math.min(n, BUFFER_SIZE)];
+            final int read = read(buf, 0, buf.length);
+            return read < 0 ? 0 : read;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /** Reads the rest of the stream, so the side stream sees all of it. */
+        public void drain() throws IOException {
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (read(buf, 0, buf.length) != -1) {
+            }
+        }
+    }
+
+    /**
+     * Normalizes line endings the way BufferedReader.readLine() did: "\r\n" and
+     * a lone '\r' become '\n', and non-empty content always ends with '\n'.
+     * Both are ASCII, so this is safe on UTF-8 bytes. Call finish() at the end.
+     */
+    public static class LineEndingOutputStream extends FilterOutputStream {
+        private boolean mPendingCr = false;
+        private boolean mSawCr = false;
+        private int mLast = -1;
+
+        public LineEndingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            b &= 0xff;
+            if (mPendingCr) {
+                mPendingCr = false;
+                emit('\n');
+                if (b == '\n')
+                    return;
+            }
+            if (b == '\r') {
+                mPendingCr = true;
+                mSawCr = true;
+            } else {
+                emit(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            final int end = off + len;
+            int runStart = off;
+            for (int i = off; i < end; ++i) {
+                if (buf[i] == '\r' || mPendingCr) {
+                    if (i > runStart) {
+                        out.write(buf, runStart, i - runStart);
+                        mLast = buf[i - 1] & 0xff;
+                    }
+                    write(buf[i]);
+                    runStart = i + 1;
+                }
+            }
+            if (end > runStart) {
+                out.write(buf, runStart, end - runStart);
+                mLast = buf[end - 1] & 0xff;
+            }
+        }
+
+        /** True if any byte was rewritten, so the output is not a prefix of the input. */
+        public boolean sawCarriageReturn() {
+            return mSawCr;
+        }
+
+        public void finish() throws IOException {
+            if (mPendingCr) {
+                mPendingCr = false;
+                emit('\n');
+            }
+            if (mLast != -1 && mLast != '\n')
+                emit('\n');
+            out.flush();
+        }
+
+        private void emit(int b) throws IOException {
+            out.write(b);
+            mLast = b;
+        }
+    }
+}
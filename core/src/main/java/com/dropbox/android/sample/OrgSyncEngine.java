@@ -0,0 +1,643 @@
+package com.dropbox.android.sample;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.dropbox.android.sample.OrgUtil.OrgData;
+
+/**
+ * Blocking sync operations for one org file: fetch, conditional update with
+ * merge, and capture flush. Callers run these off the UI thread, see
+ * OrgSyncScheduler.
+ */
+public class OrgSyncEngine {
+    private static final String TAG = "OrgSyncEngine";
+    private static final String ORG_INBOX_NAME_FORMAT = "yyyyMMdd-HHmmss-SSS";
+    private static final int MAX_MERGE_ATTEMPTS = 3;
+    private static final int MAX_TRACKED_WRITES = 16;
+    private static final String SIDECAR_SUFFIX = ".z";
+    private static final int SIDECAR_MAGIC = 0x4f52475a; // "ORGZ"
+    private static final int SIDECAR_BUFFER_SIZE = 64 * 1024;
+    // Files bigger than one chunk go up in chunks, where the store can take them.
+    private static final long MIN_CHUNKED_UPLOAD_LENGTH = ChunkedUploader.DEFAULT_CHUNK_SIZE;
+    private static final String UPLOAD_STATE_SUFFIX = ".upload";
+    // A staged inbox this big or this old is folded into the file without waiting for an edit.
+    private static final int MAX_INBOX_FILES = 32;
+    private static final long MAX_INBOX_AGE_MS = 24 * 60 * 60 * 1000;
+
+    private static final OrgMetrics.Timer sFetch = OrgMetrics.timer("sync.fetch");
+    private static final OrgMetrics.Timer sUpdate = OrgMetrics.timer("sync.update");
+    private static final OrgMetrics.Timer sFlush = OrgMetrics.timer("sync.flush_captures");
+    private static final OrgMetrics.Timer sDecode = OrgMetrics.timer("sync.decode");
+    private static final OrgMetrics.Counter sUnchanged = OrgMetrics.counter("fetch.unchanged");
+    private static final OrgMetrics.Counter sDownloaded = OrgMetrics.counter("fetch.downloaded");
+    private static final OrgMetrics.Counter sDelta = OrgMetrics.counter("fetch.delta");
+    private static final OrgMetrics.Counter sSidecarReads = OrgMetrics.counter("fetch.sidecar");
+    private static final OrgMetrics.Counter sRevMatch = OrgMetrics.counter("update.rev_match");
+    private static final OrgMetrics.Counter sRevMismatch = OrgMetrics.counter("update.rev_mismatch");
+    private static final OrgMetrics.Counter sRetries = OrgMetrics.counter("update.retry");
+    private static final OrgMetrics.Counter sMerges = OrgMetrics.counter("update.merge");
+    private static final OrgMetrics.Counter sConflicts = OrgMetrics.counter("update.conflict");
+    private static final OrgMetrics.Counter sFlushed = OrgMetrics.counter("captures.flushed");
+    private static final OrgMetrics.Counter sFlushFailed = OrgMetrics.counter("captures.failed");
+    private static final OrgMetrics.Counter sInboxFolds = OrgMetrics.counter("captures.inbox_folded");
+
+    private final OrgStore mStore;
+    private final OrgCache mCache;
+    private final String mPath;
+    // Captures are staged here, one small file each, and folded into the org
+    // file by the next full write.
+    private final String mInboxPath;
+    // Level of the compressed copy kept next to the file, or OrgCompression.NONE for none.
+    private final int mSidecarLevel;
+    private final OrgCompression.Stats mSidecarStats = new OrgCompression.Stats();
+    // Null if the store cannot take chunked uploads.
+    private final ChunkedUploader mUploader;
+    // Revs synced here, or null to keep none.
+    private final OrgHistory mHistory;
+    // Last content known to be at the store, as fetched, written or found on conflict.
+    private volatile OrgData mSynced = null;
+    // Parent rev of each rev uploaded here, to tell our own successors of a rev from remote edits.
+    private final Map<String, String> mWrittenFrom = new LinkedHashMap<String, String>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_TRACKED_WRITES;
+        }
+    };
+
+    /** The local edit overlaps remote changes; remote is the current remote content. */
+    public static class ConflictException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final OrgData remote;
+        public final List<String> conflictingHeadings;
+
+        public ConflictException(OrgData remote, List<String> conflictingHeadings) {
+            super("merge conflicts in " + conflictingHeadings);
+            this.remote = remote;
+            this.conflictingHeadings = conflictingHeadings;
+        }
+    }
+
+    public static class FlushResult {
+        public final int flushed;
+        public final int pending;
+
+        FlushResult(int flushed, int pending) {
+            this.flushed = flushed;
+            this.pending = pending;
+        }
+    }
+
+    public OrgSyncEngine(OrgStore store, OrgCache cache, String path) {
+        this(store, cache, path, OrgCompression.NONE);
+    }
+
+    /**
+     * With a sidecar level, every upload also writes a deflated copy of the
+     * file tagged with its rev, at path + ".z", and full downloads read that
+     * copy instead while it is current. Other clients keep reading and
+     * writing the plain file; a stale copy is simply not used.
+     */
+    public OrgSyncEngine(OrgStore store, OrgCache cache, String path, int sidecarLevel) {
+        this(store, cache, path, sidecarLevel, null);
+    }
+
+    /**
+     * With a history, every rev fetched, written or found on conflict is kept
+     * in it. It then serves as the merge base of updates given none, and
+     * rollback() can restore its revs without a download.
+     */
+    public OrgSyncEngine(OrgStore store, OrgCache cache, String path, int sidecarLevel, OrgHistory history) {
+        mStore = store;
+        mCache = cache;
+        mPath = path;
+        mInboxPath = inboxPathOf(path);
+        mSidecarLevel = sidecarLevel;
+        mUploader = store.canUploadChunks()
+                ? new ChunkedUploader(store, new File(cache.getFile().getPath() + UPLOAD_STATE_SUFFIX)) : null;
+        mHistory = history;
+    }
+
+    /** "/life.org" stages captures in "/life.inbox", "/journal/2016-05.org" in "/journal/2016-05.inbox". */
+    static String inboxPathOf(String path) {
+        final String base = path.endsWith(".org") ? path.substring(0, path.length() - 4) : path;
+        return base + ".inbox";
+    }
+
+    public String getPath() {
+        return mPath;
+    }
+
+    public OrgCompression.Stats getSidecarStats() {
+        return mSidecarStats;
+    }
+
+    /** Returns the history of the file, or null if none is kept. */
+    public OrgHistory getHistory() {
+        return mHistory;
+    }
+
+    /** Returns the last content synced with the store, or null if there was none yet. */
+    public OrgData getSyncedData() {
+        return mSynced;
+    }
+
+    /**
+     * Returns the last synced content if it descends from rev through uploads
+     * made by this engine only, otherwise null. An edit based on rev can then
+     * simply be applied to it, with nothing from elsewhere to merge.
+     */
+    public OrgData getSyncedDataSince(String rev) {
+        final OrgData synced = mSynced;
+        if (synced == null)
+            return null;
+        synchronized (mWrittenFrom) {
+            String ancestor = synced.rev;
+            while (ancestor != null && !ancestor.equals(rev)) {
+                ancestor = mWrittenFrom.get(ancestor);
+            }
+            return ancestor != null ? synced : null;
+        }
+    }
+
+    public OrgData loadCache() {
+        OrgData orgData = mCache.load();
+        if (mSynced == null && orgData.rev.length() != 0) {
+            mSynced = orgData;
+            remember(orgData);
+        }
+        return orgData;
+    }
+
+    /**
+     * Fetches the file when its rev differs from prevRev and returns it, or
+     * returns null if it is unchanged. The download is normalized and teed into
+     * the cache file and the in-memory buffer in one pass. Stores that can read
+     * ranges only send the chunks missing from the cache.
+     */
+    public OrgData fetch(String prevRev) throws IOException {
+        final long start = sFetch.start();
+        try {
+            if (prevRev.equals(mStore.getRev(mPath))) {
+                sUnchanged.increment();
+                return null;
+            }
+            sDownloaded.increment();
+
+            ChunkManifest localManifest = mStore.canReadRanges() ? mCache.readManifest() : null;
+            if (localManifest != null && localManifest.rev.equals(prevRev)) {
+                try {
+                    return fetchInto(localManifest);
+                } catch (OrgDeltaSync.RevChangedException e) {
+                    OrgLog.i(TAG, e.getMessage() + ", refetching");
+                }
+            }
+            return fetchInto(null);
+        } finally {
+            sFetch.stop(start);
+        }
+    }
+
+    // Delta-fetches against localManifest if given, otherwise reads the whole file.
+    private OrgData fetchInto(ChunkManifest localManifest) throws IOException {
+        OrgStreams.ContentBuffer content = new OrgStreams.ContentBuffer();
+        OrgCache.Writer cacheWriter = mCache.openWriter();
+        try {
+            OrgStreams.LineEndingOutputStream normalizer = new OrgStreams.LineEndingOutputStream(
+                    new OrgStreams.TeeOutputStream(cacheWriter, content));
+            ChunkManifest.Builder manifestBuilder = new ChunkManifest.Builder();
+            OutputStream outputStream = new OrgStreams.TeeOutputStream(normalizer, manifestBuilder);
+
+            final String rev;
+            if (localManifest != null) {
+                sDelta.increment();
+                OrgDeltaSync.Stats stats = new OrgDeltaSync.Stats();
+                rev = OrgDeltaSync.fetch(mStore, mPath, mCache, localManifest, outputStream, stats);
+                OrgLog.i(TAG, "delta sync: " + stats);
+            } else {
+                final String sidecarRev = mSidecarLevel != OrgCompression.NONE ? readSidecar(outputStream) : null;
+                rev = sidecarRev != null ? sidecarRev : mStore.read(mPath, outputStream);
+            }
+            normalizer.finish();
+            cacheWriter.commit(rev);
+            cacheWriter = null;
+
+            // Chunk offsets address the cache only while normalizing left the bytes alone.
+            mCache.storeManifest(normalizer.sawCarriageReturn() ? null : manifestBuilder.finish(rev));
+
+            OrgData orgData = new OrgData();
+            orgData.rev = rev;
+            final long start = sDecode.start();
+            orgData.fileFullContent = OrgDocument.of(content.decode());
+            sDecode.stop(start);
+            mSynced = orgData;
+            remember(orgData);
+            return orgData;
+        } finally {
+            if (cacheWriter != null)
+                cacheWriter.abort();
+        }
+    }
+
+    /**
+     * Uploads new content, folding in pending inbox captures. If the store moved
+     * past prevRev and baseContent (the content at prevRev) is given, the edit
+     * is merged with the remote version by OrgMerge and uploaded against the new
+     * rev; only overlapping edits fail, with a ConflictException. Without
+     * baseContent, the content at prevRev is taken from the history if kept
+     * there. The upload is
+     * encoded from the document as it is sent and teed into the cache file, so
+     * the file is never held as one big byte array.
+     */
+    public OrgData update(String prevRev, OrgDocument newContent, OrgDocument baseContent,
+                          OrgStore.ProgressListener listener) throws IOException {
+        final long start = sUpdate.start();
+        try {
+            return updateMerging(prevRev, newContent, baseContent, listener);
+        } finally {
+            sUpdate.stop(start);
+        }
+    }
+
+    private OrgData updateMerging(String prevRev, OrgDocument newContent, OrgDocument baseContent,
+                                  OrgStore.ProgressListener listener) throws IOException {
+        String currRev = mStore.getRev(mPath);
+        OrgDocument content = newContent;
+        for (int attempt = 0; ; ++attempt) {
+            if (Thread.interrupted())
+                throw new InterruptedIOException();
+
+            if (prevRev.equals(currRev)) {
+                sRevMatch.increment();
+                OrgLog.i(TAG, "rev match. using cached data");
+            } else {
+                sRevMismatch.increment();
+                OrgLog.i(TAG, "rev mismatch.");
+                if (baseContent == null && mHistory != null)
+                    baseContent = mHistory.load(prevRev);
+                if (baseContent == null || attempt >= MAX_MERGE_ATTEMPTS)
+                    throw new OrgStore.RevMismatchException(mPath, prevRev, currRev);
+
+                OrgStreams.ContentBuffer remote = new OrgStreams.ContentBuffer();
+                OrgStreams.LineEndingOutputStream outputStream =
+                        new OrgStreams.LineEndingOutputStream(remote);
+                currRev = mStore.read(mPath, outputStream);
+                outputStream.finish();
+                final String remoteContent = remote.decode();
+
+                OrgMerge.Result merge = OrgMerge.merge(baseContent.toString(), newContent.toString(),
+                        remoteContent);
+                if (!merge.isClean()) {
+                    sConflicts.increment();
+                    OrgLog.i(TAG, "merge conflicts: " + merge.conflicts);
+                    mCache.store(currRev, remote.buffer(), 0, remote.size());
+                    mCache.storeManifest(null);
+                    OrgData remoteData = new OrgData();
+                    remoteData.rev = currRev;
+                    remoteData.fileFullContent = OrgDocument.of(remoteContent);
+                    mSynced = remoteData;
+                    remember(remoteData);
+                    throw new ConflictException(remoteData, merge.conflicts);
+                }
+                sMerges.increment();
+                OrgLog.i(TAG, "merged with rev " + currRev);
+                content = OrgDocument.of(merge.content);
+            }
+
+            try {
+                return writeContent(content, currRev, listener);
+            } catch (OrgStore.RevMismatchException e) {
+                // Changed again since we looked; merge against the newer rev.
+                sRetries.increment();
+                currRev = e.currentRev != null ? e.currentRev : mStore.getRev(mPath);
+            }
+        }
+    }
+
+    /**
+     * Uploads the content the file had at rev, as kept in the history, over
+     * prevRev. Changes made since prevRev elsewhere are merged in as by
+     * update() if prevRev is kept too.
+     */
+    public OrgData rollback(String rev, String prevRev, OrgStore.ProgressListener listener) throws IOException {
+        final OrgDocument content = mHistory != null ? mHistory.load(rev) : null;
+        if (content == null)
+            throw new IOException("rev " + rev + " of " + mPath + " not in history");
+        OrgLog.i(TAG, "rolling back to rev " + rev);
+        return update(prevRev, content, null, listener);
+    }
+
+    private OrgData writeContent(OrgDocument newContent, String currRev,
+                                 OrgStore.ProgressListener listener) throws IOException {
+        List<String> inboxPaths = mStore.list(mInboxPath);
+
+        OrgDocument content = newContent;
+        // Inbox files whose delete failed after an earlier fold are in the file
+        // already; captures carry their time, so a match is that very entry.
+        final String folded = inboxPaths.isEmpty() ? "" : newContent.toString();
+        for (String inboxPath : inboxPaths) {
+            OrgStreams.ContentBuffer inbox = new OrgStreams.ContentBuffer(0);
+            mStore.read(inboxPath, inbox);
+            final String entries = inbox.decode();
+            if (!folded.contains(entries))
+                content = content.append(entries);
+        }
+
+        OrgData orgData = new OrgData();
+        orgData.fileFullContent = content;
+        OrgCache.Writer cacheWriter = mCache.openWriter();
+        try {
+            ChunkManifest.Builder manifestBuilder = new ChunkManifest.Builder();
+            OrgStreams.TeeInputStream in = new OrgStreams.TeeInputStream(content.newUtf8InputStream(),
+                    new OrgStreams.TeeOutputStream(cacheWriter, manifestBuilder));
+            final long length = content.utf8Length();
+            if (mUploader != null && length > MIN_CHUNKED_UPLOAD_LENGTH) {
+                orgData.rev = mUploader.upload(mPath, in, length, checksum(content), currRev, listener);
+            } else {
+                orgData.rev = mStore.write(mPath, in, length, currRev, listener);
+            }
+            in.drain();
+            cacheWriter.commit(orgData.rev);
+            cacheWriter = null;
+            mCache.storeManifest(manifestBuilder.finish(orgData.rev));
+        } finally {
+            if (cacheWriter != null)
+                cacheWriter.abort();
+        }
+
+        synchronized (mWrittenFrom) {
+            mWrittenFrom.put(orgData.rev, currRev);
+        }
+        mSynced = orgData;
+        remember(orgData);
+        // Best effort: the write stands either way, and an inbox file left
+        // behind is recognized as folded the next time.
+        for (String inboxPath : inboxPaths) {
+            try {
+                mStore.delete(inboxPath);
+            } catch (IOException e) {
+                OrgLog.d(TAG, "inbox file " + inboxPath + " not deleted: " + e);
+            }
+        }
+        if (mSidecarLevel != OrgCompression.NONE)
+            writeSidecar(orgData);
+        return orgData;
+    }
+
+    // Best effort: a rev missing from the history is only not available to merge against or roll back to.
+    private void remember(OrgData orgData) {
+        if (mHistory == null)
+            return;
+        try {
+            mHistory.record(orgData.rev, orgData.fileFullContent);
+        } catch (IOException e) {
+            OrgLog.d(TAG, "rev " + orgData.rev + " not kept in history: " + e);
+        }
+    }
+
+    // Tells a resumable upload of this content from one of other content.
+    private static long checksum(OrgDocument content) throws IOException {
+        final CRC32 crc = new CRC32();
+        content.writeUtf8(new OutputStream() {
+            @Override
+            public void write(int b) {
+                crc.update(b);
+            }
+
+            @Override
+            public void write(byte[] buf, int off, int len) {
+                crc.update(buf, off, len);
+            }
+        });
+        return crc.getValue();
+    }
+
+    // Best effort: a sidecar that fails to upload is stale and so never read.
+    private void writeSidecar(OrgData orgData) {
+        final String sidecarPath = mPath + SIDECAR_SUFFIX;
+        try {
+            OrgStreams.ContentBuffer compressed = new OrgStreams.ContentBuffer();
+            DataOutputStream header = new DataOutputStream(compressed);
+            header.writeInt(SIDECAR_MAGIC);
+            header.writeUTF(orgData.rev);
+            header.writeLong(orgData.fileFullContent.utf8Length());
+            final int headerSize = compressed.size();
+
+            final long start = System.nanoTime();
+            Deflater deflater = new Deflater(mSidecarLevel);
+            try {
+                DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater);
+                orgData.fileFullContent.writeUtf8(out);
+                out.finish();
+            } finally {
+                deflater.end();
+            }
+            mSidecarStats.deflated(orgData.fileFullContent.utf8Length(), compressed.size() - headerSize,
+                    System.nanoTime() - start);
+
+            mStore.write(sidecarPath, compressed.newInputStream(), compressed.size(),
+                    mStore.getRev(sidecarPath), null);
+            OrgLog.i(TAG, "sidecar written, " + mSidecarStats);
+        } catch (IOException e) {
+            OrgLog.d(TAG, "sidecar not written: " + e);
+        }
+    }
+
+    // Streams the sidecar's content into out and returns its rev if it is the
+    // current rev of the file, otherwise returns null without writing anything.
+    private String readSidecar(OutputStream out) throws IOException {
+        final String sidecarPath = mPath + SIDECAR_SUFFIX;
+        if (mStore.getRev(sidecarPath) == null)
+            return null;
+        OrgStreams.ContentBuffer compressed = new OrgStreams.ContentBuffer();
+        mStore.read(sidecarPath, compressed);
+        DataInputStream in = new DataInputStream(compressed.newInputStream());
+        if (compressed.size() < 4 || in.readInt() != SIDECAR_MAGIC)
+            return null;
+        final String rev = in.readUTF();
+        final long length = in.readLong();
+        if (!rev.equals(mStore.getRev(mPath)))
+            return null;
+
+        final long start = System.nanoTime();
+        Inflater inflater = new Inflater();
+        try {
+            final long copied = OrgStreams.copy(new InflaterInputStream(in, inflater, SIDECAR_BUFFER_SIZE),
+                    out, length, null);
+            if (copied != length)
+                throw new IOException("short sidecar: " + copied + " of " + length);
+        } catch (IOException e) {
+            // Part of it may be in out already, so this fetch fails; the next reads the file.
+            try {
+                mStore.delete(sidecarPath);
+            } catch (IOException deleteError) {
+                OrgLog.d(TAG, deleteError.toString());
+            }
+            throw e;
+        } finally {
+            inflater.end();
+        }
+        mSidecarStats.inflated(length, System.nanoTime() - start);
+        sSidecarReads.increment();
+        OrgLog.i(TAG, "read sidecar of rev " + rev + ", " + compressed.size() + " of " + length + " bytes");
+        return rev;
+    }
+
+    /**
+     * Uploads the captures queued in the journal for this engine's file; other
+     * targets are left to their own engines, so they can flush in parallel.
+     * Captures filed under a heading, and captures to files not there yet,
+     * are written into the file. Otherwise they are appended directly when
+     * the store can append, or staged as a single inbox file, so the upload
+     * is the size of the captures whatever the size of the file.
+     * Flushed records are removed from the journal; if the upload fails they
+     * stay queued for the next flush.
+     */
+    public FlushResult flushCaptures(CaptureJournal journal) {
+        final long start = sFlush.start();
+        try {
+            final FlushResult result = flushJournal(journal);
+            sFlushed.add(result.flushed);
+            sFlushFailed.add(result.pending);
+            return result;
+        } finally {
+            sFlush.stop(start);
+        }
+    }
+
+    private FlushResult flushJournal(CaptureJournal journal) {
+        List<CaptureJournal.Record> records = new ArrayList<>();
+        boolean underHeading = false;
+        for (CaptureJournal.Record record : journal.readAll()) {
+            if (record.path.equals(mPath)) {
+                records.add(record);
+                underHeading |= record.heading != null;
+            }
+        }
+        if (records.isEmpty())
+            return new FlushResult(0, 0);
+
+        try {
+            if (underHeading || mStore.getRev(mPath) == null) {
+                writeCaptures(records);
+            } else {
+                StringBuilder sb = new StringBuilder();
+                for (CaptureJournal.Record record : records) {
+                    sb.append(record.entry);
+                }
+                uploadCaptures(sb.toString());
+            }
+        } catch (IOException e) {
+            OrgLog.d(TAG, e.toString());
+            return new FlushResult(0, records.size());
+        }
+
+        try {
+            journal.remove(records);
+        } catch (IOException e) {
+            // The next flush will upload these again.
+            OrgLog.d(TAG, e.toString());
+        }
+
+        // The captures are safe in the inbox already; folding it in can wait for the next try.
+        try {
+            foldInboxIfDue();
+        } catch (IOException e) {
+            OrgLog.d(TAG, "inbox not folded: " + e);
+        }
+        return new FlushResult(records.size(), 0);
+    }
+
+    /**
+     * Folds the staged inbox into the file once it holds MAX_INBOX_FILES
+     * captures or its oldest is MAX_INBOX_AGE_MS old. Otherwise staged
+     * captures only reach the file with the next full write, which without
+     * an edit may never come. Downloads the file if the cache is stale.
+     * Returns true if it folded.
+     */
+    public boolean foldInboxIfDue() throws IOException {
+        final List<String> inboxPaths = mStore.list(mInboxPath);
+        if (inboxPaths.isEmpty())
+            return false;
+        if (inboxPaths.size() < MAX_INBOX_FILES && !isOlderThan(inboxPaths.get(0), MAX_INBOX_AGE_MS))
+            return false;
+        OrgLog.i(TAG, "folding " + inboxPaths.size() + " inbox captures into " + mPath);
+        // writeContent() takes in whatever is staged, so there is nothing else to add.
+        writeCaptures(new ArrayList<CaptureJournal.Record>());
+        sInboxFolds.increment();
+        return true;
+    }
+
+    // Inbox files are named by the time they were staged; the list is sorted, so the first is the oldest.
+    private static boolean isOlderThan(String inboxPath, long ageMs) {
+        String name = inboxPath.substring(inboxPath.lastIndexOf('/') + 1);
+        if (name.endsWith(".org"))
+            name = name.substring(0, name.length() - 4);
+        try {
+            final Date staged = OrgTimestamp.formatter(ORG_INBOX_NAME_FORMAT, Locale.US).parse(name);
+            return System.currentTimeMillis() - staged.getTime() >= ageMs;
+        } catch (ParseException e) {
+            // Not one of ours; fold it in with the rest.
+            return true;
+        }
+    }
+
+    // Reads the file (from the cache when current), files the captures into it
+    // and writes it back with the staged inbox, retrying when it changes in between.
+    private void writeCaptures(List<CaptureJournal.Record> records) throws IOException {
+        for (int attempt = 0; ; ++attempt) {
+            if (Thread.interrupted())
+                throw new InterruptedIOException();
+
+            final String currRev = mStore.getRev(mPath);
+            OrgDocument content = OrgDocument.EMPTY;
+            if (currRev != null) {
+                final OrgData known = mSynced != null ? mSynced : loadCache();
+                final OrgData fetched = fetch(known.rev);
+                content = (fetched != null ? fetched : known).fileFullContent;
+            }
+            for (CaptureJournal.Record record : records) {
+                content = OrgUtil.AddOrgCaptureEntry(content, record.heading, record.entry);
+            }
+            try {
+                writeContent(content, currRev, null);
+                return;
+            } catch (OrgStore.RevMismatchException e) {
+                if (attempt + 1 >= MAX_MERGE_ATTEMPTS)
+                    throw e;
+                sRetries.increment();
+                OrgLog.i(TAG, "rev changed while filing captures, retrying");
+            }
+        }
+    }
+
+    private void uploadCaptures(String captures) throws IOException {
+        final byte[] bytes = captures.getBytes(OrgCache.UTF_8.name());
+        if (mStore.canAppend()) {
+            mStore.append(mPath, new ByteArrayInputStream(bytes), bytes.length);
+        } else {
+            final String inboxPath = mInboxPath + "/"
+                    + OrgTimestamp.formatter(ORG_INBOX_NAME_FORMAT, Locale.US).format(new Date()) + ".org";
+            // A null parent rev never overwrites an existing inbox file.
+            mStore.write(inboxPath, new ByteArrayInputStream(bytes), bytes.length, null, null);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.dropbox.android.sample;
+
+/**
+ * Receives the outcome of an operation run by OrgSyncScheduler. Callbacks
+ * arrive on the scheduler's callback executor, and never after the handle
+ * returned for this listener was cancelled.
+ */
+public abstract class OrgSyncListener<T> {
+    public abstract void onSyncSuccess(T result);
+
+    /** e is a TimeoutException if the operation ran past its timeout. */
+    public abstract void onSyncFailure(Exception e);
+
+    public void onSyncProgress(int percent) {
+    }
+}
@@ -0,0 +1,345 @@
+package com.dropbox.android.sample;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs sync operations on a bounded pool of background threads. Operations
+ * submitted under the same key (normally the path of the file they touch)
+ * run one at a time in submission order, so two uploads of a file never
+ * overlap. Operations on different keys run in parallel.
+ *
+ * A read joins the last queued read with the same tag instead of running
+ * again, and a coalesced operation replaces the last queued one with the
+ * same tag if that has not started yet; in both cases every listener gets
+ * the one result. Handles cancel their listener, and a read nobody listens
+ * to any more is dropped, or interrupted if it is running. Writes and
+ * coalesced operations always run to the end, listened to or not, so an
+ * upload queued by a screen that goes away still happens.
+ *
+ * A read's timeout runs from when it starts; when it expires the read fails
+ * and is interrupted. A write's timeout runs from when it is queued and only
+ * fails it while it is still waiting: a write that has started may land
+ * any moment, so its listener gets the real result whenever that comes.
+ */
+public class OrgSyncScheduler {
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+    private enum Kind { READ, WRITE, COALESCE }
+
+    public interface Operation<T> {
+        /** Runs on a background thread; should give up when interrupted. */
+        T run(Progress progress) throws Exception;
+    }
+
+    public interface Progress {
+        void publish(int percent);
+    }
+
+    public interface Handle {
+        /** Detaches the listener; it will not be called after this returns. */
+        void cancel();
+
+        /** True once the listener has had its result or the handle was cancelled. */
+        boolean isDone();
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final ScheduledExecutorService mTimer;
+    private final Executor mCallbackExecutor;
+    private final Map<String, ArrayDeque<Task<?>>> mQueues = new HashMap<>();
+
+    /**
+     * @param maxThreads upper bound on operations running at once.
+     * @param callbackExecutor where listeners are called, e.g. the main thread.
+     */
+    public OrgSyncScheduler(int maxThreads, Executor callbackExecutor) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "OrgSync #" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+        mTimer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /** Queues a read; it may share the result of an equal read already queued under key. */
+    public <T> Handle read(String key, String tag, long timeoutMs,
+                           Operation<T> operation, OrgSyncListener<T> listener) {
+        return submit(key, Kind.READ, tag, timeoutMs, operation, listener);
+    }
+
+    public <T> Handle write(String key, long timeoutMs,
+                            Operation<T> operation, OrgSyncListener<T> listener) {
+        return submit(key, Kind.WRITE, null, timeoutMs, operation, listener);
+    }
+
+    /**
+     * Queues an operation that supersedes a not yet started one with the same
+     * tag, e.g. an upload of state that only the latest version of matters.
+     */
+    public <T> Handle coalesce(String key, String tag, long timeoutMs,
+                               Operation<T> operation, OrgSyncListener<T> listener) {
+        return submit(key, Kind.COALESCE, tag, timeoutMs, operation, listener);
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Handle submit(String key, Kind kind, String tag, long timeoutMs,
+                                           Operation<T> operation, OrgSyncListener<T> listener) {
+        ArrayDeque<Task<?>> queue = mQueues.get(key);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            mQueues.put(key, queue);
+        }
+
+        // Only the tail may absorb the new operation, or it would jump ahead of
+        // writes queued after it.
+        Task<T> task = null;
+        Task<?> last = queue.peekLast();
+        if (last != null && last.mKind == kind && kind != Kind.WRITE
+                && last.mTag.equals(tag) && !last.mDelivered && !last.mInterrupted) {
+            if (kind == Kind.READ) {
+                task = (Task<T>)last;
+            } else if (!last.mStarted) {
+                task = (Task<T>)last;
+                task.mOperation = operation;
+                task.mTimeoutMs = timeoutMs;
+                if (task.mTimeout != null)
+                    task.mTimeout.cancel(false);
+                scheduleTimeout(task);
+            }
+        }
+        if (task == null) {
+            task = new Task<>(key, kind, tag, operation, timeoutMs);
+            queue.addLast(task);
+            if (kind != Kind.READ)
+                scheduleTimeout(task);
+        }
+
+        Subscription<T> subscription = new Subscription<>(task, listener);
+        task.mSubscriptions.add(subscription);
+        if (queue.peekFirst() == task && !task.mStarted)
+            start(task);
+        return subscription;
+    }
+
+    private void start(final Task<?> task) {
+        task.mStarted = true;
+        mExecutor.execute(task);
+        if (task.mKind == Kind.READ)
+            scheduleTimeout(task);
+    }
+
+    // Called with the scheduler locked.
+    private void scheduleTimeout(final Task<?> task) {
+        if (task.mTimeoutMs <= 0)
+            return;
+        task.mTimeout = mTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                timeOut(task);
+            }
+        }, task.mTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private <T> void timeOut(Task<T> task) {
+        List<Subscription<T>> subscriptions;
+        synchronized (this) {
+            if (task.mDelivered)
+                return;
+            if (task.mKind != Kind.READ) {
+                if (task.mStarted)
+                    return;
+                // Never started, so failing it is the truth; the head of a queue is always started.
+                mQueues.get(task.mKey).remove(task);
+            } else {
+                task.interrupt();
+            }
+            task.mDelivered = true;
+            subscriptions = new ArrayList<>(task.mSubscriptions);
+        }
+        // A read's queue moves on only once the operation has actually returned.
+        deliver(subscriptions, null, new TimeoutException(
+                "sync of " + task.mKey + " timed out after " + task.mTimeoutMs + " ms"));
+    }
+
+    private <T> void finish(Task<T> task, T result, Exception error) {
+        List<Subscription<T>> subscriptions = null;
+        synchronized (this) {
+            if (task.mTimeout != null)
+                task.mTimeout.cancel(false);
+            if (!task.mDelivered) {
+                task.mDelivered = true;
+                subscriptions = new ArrayList<>(task.mSubscriptions);
+            }
+
+            ArrayDeque<Task<?>> queue = mQueues.get(task.mKey);
+            queue.remove(task);
+            Task<?> next = queue.peekFirst();
+            if (next != null) {
+                start(next);
+            } else {
+                mQueues.remove(task.mKey);
+            }
+        }
+        if (subscriptions != null)
+            deliver(subscriptions, result, error);
+    }
+
+    private synchronized void cancel(Subscription<?> subscription) {
+        subscription.mCancelled = true;
+        Task<?> task = subscription.mTask;
+        task.mSubscriptions.remove(subscription);
+        if (!task.mSubscriptions.isEmpty() || task.mDelivered || task.mKind != Kind.READ)
+            return;
+        if (!task.mStarted) {
+            mQueues.get(task.mKey).remove(task);
+        } else {
+            task.interrupt();
+        }
+    }
+
+    private <T> void deliver(final List<? extends Subscription<T>> subscriptions,
+                             final T result, final Exception error) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Subscription<T> subscription : subscriptions) {
+                    // Checked here as well, cancel() may have run since delivery was queued.
+                    if (subscription.mCancelled)
+                        continue;
+                    try {
+                        if (error == null) {
+                            subscription.mListener.onSyncSuccess(result);
+                        } else {
+                            subscription.mListener.onSyncFailure(error);
+                        }
+                    } finally {
+                        subscription.mDone = true;
+                    }
+                }
+            }
+        });
+    }
+
+    private class Task<T> implements Runnable, Progress {
+        final String mKey;
+        final Kind mKind;
+        final String mTag;
+        final List<Subscription<T>> mSubscriptions = new ArrayList<>();
+        Operation<T> mOperation;
+        long mTimeoutMs;
+        ScheduledFuture<?> mTimeout;
+        Thread mThread;
+        boolean mStarted = false;
+        boolean mInterrupted = false;
+        boolean mDelivered = false;
+
+        Task(String key, Kind kind, String tag, Operation<T> operation, long timeoutMs) {
+            mKey = key;
+            mKind = kind;
+            mTag = tag != null ? tag : "";
+            mOperation = operation;
+            mTimeoutMs = timeoutMs;
+        }
+
+        @Override
+        public void run() {
+            final Operation<T> operation;
+            synchronized (OrgSyncScheduler.this) {
+                mThread = Thread.currentThread();
+                operation = mOperation;
+                if (mInterrupted)
+                    mThread.interrupt();
+            }
+
+            T result = null;
+            Exception error = null;
+            try {
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedIOException("sync of " + mKey + " cancelled");
+                result = operation.run(this);
+            } catch (Exception e) {
+                error = e;
+            } finally {
+                synchronized (OrgSyncScheduler.this) {
+                    mThread = null;
+                }
+                // Don't hand an interrupted thread back to the pool.
+                Thread.interrupted();
+            }
+            finish(this, result, error);
+        }
+
+        // Called with the scheduler locked.
+        void interrupt() {
+            mInterrupted = true;
+            if (mThread != null)
+                mThread.interrupt();
+        }
+
+        @Override
+        public void publish(final int percent) {
+            final List<Subscription<T>> subscriptions;
+            synchronized (OrgSyncScheduler.this) {
+                if (mDelivered)
+                    return;
+                subscriptions = new ArrayList<>(mSubscriptions);
+            }
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Subscription<T> subscription : subscriptions) {
+                        if (!subscription.mCancelled)
+                            subscription.mListener.onSyncProgress(percent);
+                    }
+                }
+            });
+        }
+    }
+
+    private class Subscription<T> implements Handle {
+        final Task<T> mTask;
+        final OrgSyncListener<T> mListener;
+        volatile boolean mCancelled = false;
+        volatile boolean mDone = false;
+
+        Subscription(Task<T> task, OrgSyncListener<T> listener) {
+            mTask = task;
+            mListener = listener;
+        }
+
+        @Override
+        public void cancel() {
+            OrgSyncScheduler.this.cancel(this);
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone || mCancelled;
+        }
+    }
+}
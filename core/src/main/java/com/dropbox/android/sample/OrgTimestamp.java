@@ -0,0 +1,138 @@
+package com.dropbox.android.sample;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An org timestamp: "<2016-05-03 Tue 10:00>" is active, "[2016-05-03 Tue]"
+ * inactive, and either may follow "SCHEDULED:", "DEADLINE:" or "CLOSED:".
+ * Repeaters, warning periods and the end of a time range are accepted and
+ * ignored. Dates are local calendar days; there is no time zone to apply.
+ *
+ * Also home to the date formatters of the app. SimpleDateFormat is slow to
+ * build and not thread-safe, so each thread keeps its own per pattern.
+ */
+public class OrgTimestamp implements Comparable<OrgTimestamp> {
+    /** Inactive timestamp put under every capture. "MM.dd" is what older captures have. */
+    public static final String CAPTURE_FORMAT = "[yyyy-MM.dd EEE]";
+
+    public enum Kind { ACTIVE, INACTIVE, SCHEDULED, DEADLINE, CLOSED }
+
+    // The day may follow '.', as CAPTURE_FORMAT writes it.
+    private static final Pattern TIMESTAMP = Pattern.compile(
+            "(?:(SCHEDULED|DEADLINE|CLOSED): *)?([<\\[])(\\d{4})-(\\d{2})[-.](\\d{2})"
+            + "(?: +[^\\s\\d>\\]]+)?(?: +(\\d{1,2}):(\\d{2})(?:-\\d{1,2}:\\d{2})?)?"
+            + "(?: +[.+]?\\+\\d+[hdwmy])?(?: +--?\\d+[hdwmy])?([>\\]])");
+
+    private static final ThreadLocal<Map<String, SimpleDateFormat>> sFormatters =
+            new ThreadLocal<Map<String, SimpleDateFormat>>() {
+        @Override
+        protected Map<String, SimpleDateFormat> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    public final Kind kind;
+    /** The day as yyyymmdd, e.g. 20160503. */
+    public final int date;
+    /** Minutes past midnight up to 24:00, or -1 if only the day is given. */
+    public final int minutes;
+
+    public OrgTimestamp(Kind kind, int date, int minutes) {
+        this.kind = kind;
+        this.date = date;
+        this.minutes = minutes;
+    }
+
+    /** The calling thread's formatter for pattern in locale; do not hand it to other threads. */
+    public static SimpleDateFormat formatter(String pattern, Locale locale) {
+        final String key = pattern + '\u0000' + locale;
+        Map<String, SimpleDateFormat> formatters = sFormatters.get();
+        SimpleDateFormat formatter = formatters.get(key);
+        if (formatter == null) {
+            formatter = new SimpleDateFormat(pattern, locale);
+            formatters.put(key, formatter);
+        }
+        return formatter;
+    }
+
+    public static String format(String pattern, Date date) {
+        return formatter(pattern, Locale.getDefault()).format(date);
+    }
+
+    /** Returns the timestamps in text[from, to), in order. */
+    public static List<OrgTimestamp> parseAll(CharSequence text, int from, int to) {
+        List<OrgTimestamp> timestamps = new ArrayList<>();
+        Matcher m = TIMESTAMP.matcher(text).region(from, to);
+        while (m.find()) {
+            final OrgTimestamp timestamp = of(m);
+            if (timestamp != null)
+                timestamps.add(timestamp);
+        }
+        return timestamps;
+    }
+
+    /** Parses a single timestamp, keyword included, or returns null. */
+    public static OrgTimestamp parse(String text) {
+        Matcher m = TIMESTAMP.matcher(text.trim());
+        return m.matches() ? of(m) : null;
+    }
+
+    private static OrgTimestamp of(Matcher m) {
+        final boolean active = m.group(2).equals("<");
+        if (active != m.group(8).equals(">"))
+            return null;
+        final int month = Integer.parseInt(m.group(4));
+        final int day = Integer.parseInt(m.group(5));
+        if (month < 1 || month > 12 || day < 1 || day > 31)
+            return null;
+        int minutes = -1;
+        if (m.group(6) != null) {
+            final int hour = Integer.parseInt(m.group(6));
+            final int minute = Integer.parseInt(m.group(7));
+            if (hour > 24 || minute > 59 || (hour == 24 && minute > 0))
+                return null;
+            minutes = hour * 60 + minute;
+        }
+        final Kind kind = m.group(1) != null ? Kind.valueOf(m.group(1)) : active ? Kind.ACTIVE : Kind.INACTIVE;
+        return new OrgTimestamp(kind, Integer.parseInt(m.group(3)) * 10000 + month * 100 + day, minutes);
+    }
+
+    /** The day of calendar as yyyymmdd. */
+    public static int dateOf(Calendar calendar) {
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /** Orders by day, then time, with day-only timestamps first and 24:00 last. */
+    public long sortKey() {
+        return (long)date * (24 * 60 + 2) + minutes + 1;
+    }
+
+    @Override
+    public int compareTo(OrgTimestamp other) {
+        final long a = sortKey();
+        final long b = other.sortKey();
+        return a < b ? -1 : a > b ? 1 : 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(32);
+        if (kind == Kind.SCHEDULED || kind == Kind.DEADLINE || kind == Kind.CLOSED)
+            sb.append(kind).append(": ");
+        sb.append(kind == Kind.INACTIVE || kind == Kind.CLOSED ? '[' : '<');
+        sb.append(String.format(Locale.US, "%04d-%02d-%02d", date / 10000, date / 100 % 100, date % 100));
+        if (minutes >= 0)
+            sb.append(String.format(Locale.US, " %02d:%02d", minutes / 60, minutes % 60));
+        return sb.append(kind == Kind.INACTIVE || kind == Kind.CLOSED ? ']' : '>').toString();
+    }
+}
@@ -0,0 +1,166 @@
+package com.dropbox.android.sample;
+
+import java.util.Date;
+
+public class OrgUtil {
+    static final String ORG_PATH = "/life.org";
+
+    private static final OrgMetrics.Counter sOutlineHits = OrgMetrics.counter("outline.hit");
+    private static final OrgMetrics.Counter sOutlineMisses = OrgMetrics.counter("outline.miss");
+    private static final OrgMetrics.Timer sOutlineParse = OrgMetrics.timer("outline.parse");
+    private static final OrgMetrics.Timer sGetDailyLog = OrgMetrics.timer("util.GetOrgDailyLog");
+    private static final OrgMetrics.Timer sReviseDailyLog = OrgMetrics.timer("util.GetRevisedDailyLog");
+    private static final OrgMetrics.Timer sAddContent = OrgMetrics.timer("util.CreateOrgAddedContent");
+    private static final OrgMetrics.Timer sAddCapture = OrgMetrics.timer("util.AddOrgCaptureEntry");
+
+    // Guards the last (content, outline) pair; never held while parsing.
+    private static final Object sOutlineLock = new Object();
+    private static CharSequence sIndexedContent = null;
+    private static OrgOutline sIndexedOutline = null;
+
+    public static class OrgData {
+        OrgDocument fileFullContent;
+        String rev;
+    };
+
+    /**
+     * Returns the outline of the given content, reusing the last one built when
+     * called again with the same content instance. The parse runs outside the
+     * lock, so callers with content already parsed never wait behind it.
+     */
+    public static OrgOutline GetOrgOutline(CharSequence orgFullContent) {
+        synchronized (sOutlineLock) {
+            if (sIndexedContent == orgFullContent && sIndexedOutline != null) {
+                sOutlineHits.increment();
+                return sIndexedOutline;
+            }
+        }
+        sOutlineMisses.increment();
+        final long start = sOutlineParse.start();
+        final OrgOutline outline = OrgOutline.parseParallel(orgFullContent);
+        sOutlineParse.stop(start);
+        synchronized (sOutlineLock) {
+            sIndexedContent = orgFullContent;
+            sIndexedOutline = outline;
+        }
+        return outline;
+    }
+
+    // The daily log is the body of a leading "* " entry, up to the next heading.
+    private static int GetOrgDailyLogEnd(OrgOutline outline) {
+        if (outline.size() < 2 || outline.start(0) != 0 || outline.level(0) != 1)
+            return -1;
+        return outline.start(1) - 1;
+    }
+
+    public static String GetOrgDailyLog(OrgDocument orgFullContent){
+        final long start = sGetDailyLog.start();
+        try {
+            final int end = GetOrgDailyLogEnd(GetOrgOutline(orgFullContent));
+            if (end < 0)
+                return "";
+            return orgFullContent.subSequence(0, end).toString();
+        } finally {
+            sGetDailyLog.stop(start);
+        }
+    }
+
+    /** Splices the new daily log in; the rest of the file is shared, not copied. */
+    public static OrgDocument GetRevisedDailyLog(OrgDocument orgFullContent, String newDailyLog){
+        final long start = sReviseDailyLog.start();
+        try {
+            final int end = GetOrgDailyLogEnd(GetOrgOutline(orgFullContent));
+            if (end < 0)
+                return orgFullContent;
+            return orgFullContent.replace(0, end, newDailyLog);
+        } finally {
+            sReviseDailyLog.stop(start);
+        }
+    }
+
+    public static OrgDocument CreateOrgAddedContent(OrgDocument orgContent, String captureTitle, String captureContent) {
+        final long start = sAddContent.start();
+        try {
+            return orgContent.append(CreateOrgCaptureEntry(captureTitle, captureContent));
+        } finally {
+            sAddContent.stop(start);
+        }
+    }
+
+    /**
+     * Files a capture entry (as made by CreateOrgCaptureEntry) at the end of
+     * the subtree of the first heading titled heading, one level below it; the
+     * heading is added at the end of the file if missing. A null heading
+     * appends the entry as is.
+     */
+    public static OrgDocument AddOrgCaptureEntry(OrgDocument orgContent, String heading, String entry) {
+        final long start = sAddCapture.start();
+        try {
+            return FileOrgCaptureEntry(orgContent, heading, entry);
+        } finally {
+            sAddCapture.stop(start);
+        }
+    }
+
+    private static OrgDocument FileOrgCaptureEntry(OrgDocument orgContent, String heading, String entry) {
+        if (heading == null)
+            return orgContent.append(entry);
+        OrgOutline outline = GetOrgOutline(orgContent);
+        for (int i = 0; i < outline.size(); ++i) {
+            if (!OrgHeading.parse(orgContent, outline, i).title.equals(heading))
+                continue;
+            final String filed = RelevelOrgEntry(entry, outline.level(i) + 1);
+            final int end = outline.subtreeEnd(i);
+            if (end == outline.length())
+                return orgContent.append(filed);
+            // The entry starts with a newline and has none at its end; before
+            // the next heading it goes the other way round.
+            return orgContent.replace(end, end, filed.substring(1) + "\n");
+        }
+        final int length = orgContent.length();
+        final String prefix = length == 0 || orgContent.charAt(length - 1) == '\n' ? "* " : "\n* ";
+        return orgContent.append(prefix + heading + RelevelOrgEntry(entry, 2));
+    }
+
+    // Shifts the headings of entry so that the first one is at the given level.
+    private static String RelevelOrgEntry(String entry, int level) {
+        String[] lines = entry.split("\n", -1);
+        int delta = 0;
+        boolean first = true;
+        StringBuilder sb = new StringBuilder(entry.length() + 8);
+        for (int i = 0; i < lines.length; ++i) {
+            String line = lines[i];
+            int stars = 0;
+            while (stars < line.length() && line.charAt(stars) == '*') {
+                ++stars;
+            }
+            if (stars > 0 && stars < line.length() && line.charAt(stars) == ' ') {
+                if (first) {
+                    delta = level - stars;
+                    first = false;
+                }
+                final int newStars = Math.max(1, stars + delta);
+                StringBuilder heading = new StringBuilder(newStars + line.length());
+                for (int s = 0; s < newStars; ++s) {
+                    heading.append('*');
+                }
+                line = heading.append(line, stars, line.length()).toString();
+            }
+            if (i > 0)
+                sb.append('\n');
+            sb.append(line);
+        }
+        return sb.toString();
+    }
+
+    public static String CreateOrgCaptureEntry(String captureTitle, String captureContent) {
+        String temp = "\n** ";
+        temp += (captureTitle.length() != 0) ? captureTitle : "capture";
+        temp += "\n   " + OrgTimestamp.format(OrgTimestamp.CAPTURE_FORMAT, new Date());
+        temp += "\n   ";
+        temp += captureContent;
+
+        return temp;
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CaptureJournalTest {
+    private static final int[] LEVELS = { OrgCompression.NONE, 6 };
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("journal", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAll(mDir);
+    }
+
+    @Test
+    public void readsRecordsInCaptureOrder() throws IOException {
+        for (int level : LEVELS) {
+            CaptureJournal journal = new CaptureJournal(new File(mDir, "captures" + level), level);
+            assertTrue(journal.isEmpty());
+            journal.append("/life.org", entry(0));
+            journal.append("/inbox.org", "Inbox", entry(1));
+            // Long enough to be stored deflated at level 6.
+            journal.append("/life.org", "Tasks", repeat(entry(2), 50));
+
+            List<CaptureJournal.Record> records = journal.readAll();
+            assertEquals(3, records.size());
+            assertRecord("/life.org", null, entry(0), records.get(0));
+            assertRecord("/inbox.org", "Inbox", entry(1), records.get(1));
+            assertRecord("/life.org", "Tasks", repeat(entry(2), 50), records.get(2));
+            assertEquals(Arrays.asList("/life.org", "/inbox.org"), new ArrayList<>(journal.paths()));
+            assertFalse(journal.isEmpty());
+
+            // Records of either level are read whatever level the journal is opened with.
+            CaptureJournal other = new CaptureJournal(new File(mDir, "captures" + level),
+                    level == OrgCompression.NONE ? 6 : OrgCompression.NONE);
+            assertEquals(3, other.readAll().size());
+            assertRecord("/life.org", "Tasks", repeat(entry(2), 50), other.readAll().get(2));
+        }
+    }
+
+    @Test
+    public void ignoresTornAppend() throws IOException {
+        for (int level : LEVELS) {
+            File file = new File(mDir, "captures" + level);
+            CaptureJournal journal = new CaptureJournal(file, level);
+            journal.append("/life.org", entry(0));
+            journal.append("/life.org", "Tasks", entry(1));
+            final long intact = file.length();
+            journal.append("/life.org", repeat(entry(2), 50));
+            final long full = file.length();
+
+            // Cuts into the last record, from its length field to its last byte.
+            for (long cut = intact + 1; cut < full; cut += Math.max(1, (full - intact) / 17)) {
+                truncate(file, intact);
+                journal.append("/life.org", repeat(entry(2), 50));
+                truncate(file, cut);
+                List<CaptureJournal.Record> records = journal.readAll();
+                assertEquals("level " + level + " cut " + cut, 2, records.size());
+                assertRecord("/life.org", "Tasks", entry(1), records.get(1));
+
+                // The next append replaces the torn tail instead of following it.
+                journal.append("/life.org", entry(3));
+                records = journal.readAll();
+                assertEquals(3, records.size());
+                assertRecord("/life.org", null, entry(3), records.get(2));
+            }
+        }
+    }
+
+    @Test
+    public void ignoresZeroFilledTail() throws IOException {
+        // A crash can leave the file longer than what reached the disk, the rest zeros.
+        File file = new File(mDir, "captures");
+        CaptureJournal journal = new CaptureJournal(file);
+        journal.append("/life.org", entry(0));
+        final long intact = file.length();
+        truncate(file, intact + 100);
+        assertEquals(1, journal.readAll().size());
+
+        journal.append("/life.org", "Tasks", entry(1));
+        List<CaptureJournal.Record> records = journal.readAll();
+        assertEquals(2, records.size());
+        assertRecord("/life.org", "Tasks", entry(1), records.get(1));
+    }
+
+    @Test
+    public void stopsAtCorruptRecord() throws IOException {
+        File file = new File(mDir, "captures");
+        CaptureJournal journal = new CaptureJournal(file);
+        journal.append("/life.org", entry(0));
+        final long first = file.length();
+        journal.append("/life.org", entry(1));
+        journal.append("/life.org", entry(2));
+
+        // Flip a payload byte of the second record; its checksum no longer matches.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(first + 4 + 8 + 3);
+            final int b = raf.read();
+            raf.seek(first + 4 + 8 + 3);
+            raf.write(b ^ 0x20);
+        } finally {
+            raf.close();
+        }
+        List<CaptureJournal.Record> records = journal.readAll();
+        assertEquals(1, records.size());
+        assertRecord("/life.org", null, entry(0), records.get(0));
+    }
+
+    @Test
+    public void stopsAtBadLength() throws IOException {
+        File file = new File(mDir, "captures");
+        CaptureJournal journal = new CaptureJournal(file);
+        journal.append("/life.org", entry(0));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(file.length());
+            raf.writeInt(Integer.MAX_VALUE);
+            raf.writeLong(0);
+            raf.write(new byte[64]);
+        } finally {
+            raf.close();
+        }
+        assertEquals(1, journal.readAll().size());
+    }
+
+    @Test
+    public void removesOnlyFlushedRecords() throws IOException {
+        CaptureJournal journal = new CaptureJournal(new File(mDir, "captures"));
+        journal.append("/life.org", entry(0));
+        journal.append("/inbox.org", entry(1));
+        journal.append("/life.org", entry(0));
+        List<CaptureJournal.Record> flushed = new ArrayList<>();
+        for (CaptureJournal.Record record : journal.readAll()) {
+            if (record.path.equals("/life.org"))
+                flushed.add(record);
+        }
+        // Captured while the flush was uploading: an identical entry, counted separately.
+        journal.append("/life.org", entry(0));
+        journal.remove(flushed.subList(0, 1));
+        journal.remove(flushed.subList(1, 2));
+
+        List<CaptureJournal.Record> records = journal.readAll();
+        assertEquals(2, records.size());
+        assertRecord("/inbox.org", null, entry(1), records.get(0));
+        assertRecord("/life.org", null, entry(0), records.get(1));
+    }
+
+    @Test
+    public void removingEverythingDeletesTheJournal() throws IOException {
+        File file = new File(mDir, "captures");
+        CaptureJournal journal = new CaptureJournal(file);
+        journal.append("/life.org", entry(0));
+        journal.append("/life.org", "Tasks", entry(1));
+        journal.remove(journal.readAll());
+        assertFalse(file.exists());
+        assertTrue(journal.isEmpty());
+        assertTrue(journal.paths().isEmpty());
+    }
+
+    private static void assertRecord(String path, String heading, String entry, CaptureJournal.Record record) {
+        assertEquals(path, record.path);
+        if (heading == null) {
+            assertNull(record.heading);
+        } else {
+            assertEquals(heading, record.heading);
+        }
+        assertEquals(entry, record.entry);
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Entries span lines and hold non-ASCII text, as real captures do.
+    private static String entry(int i) {
+        return "\n** capture " + i + "\n   [2016-05-0" + (i % 9 + 1) + " Mon 10:00]\n   café 日本 " + i;
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; ++i) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
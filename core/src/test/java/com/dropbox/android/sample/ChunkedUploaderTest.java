@@ -0,0 +1,185 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkedUploaderTest {
+    private static final String PATH = "/life.org";
+    private static final int CHUNK_SIZE = 1000;
+
+    private File mDir;
+    private File mStateFile;
+    private CountingStore mStore;
+    private byte[] mContent;
+    private long mChecksum;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("upload", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mStateFile = new File(mDir, "upload.state");
+        mStore = new CountingStore(new File(mDir, "store"));
+        mContent = new byte[10 * CHUNK_SIZE + 123];
+        new Random(1).nextBytes(mContent);
+        CRC32 crc = new CRC32();
+        crc.update(mContent);
+        mChecksum = crc.getValue();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAll(mDir);
+    }
+
+    @Test
+    public void uploadsInChunksAndCommits() throws IOException {
+        final String rev = upload(new ChunkedUploader(mStore, mStateFile, CHUNK_SIZE), null);
+        assertEquals(rev, mStore.getRev(PATH));
+        assertArrayEquals(mContent, stored());
+        assertEquals(11, mStore.mChunks);
+        assertEquals(mContent.length, mStore.mAccepted);
+        assertFalse(mStateFile.exists());
+    }
+
+    @Test
+    public void carriesOnFromStoreOffsetAfterLostAcknowledgement() throws IOException {
+        mStore.mLoseAckAt = 3;
+        upload(new ChunkedUploader(mStore, mStateFile, CHUNK_SIZE), null);
+        assertArrayEquals(mContent, stored());
+        // The retry is refused with the store's offset, so no byte goes in twice.
+        assertEquals(mContent.length, mStore.mAccepted);
+        assertFalse(mStateFile.exists());
+    }
+
+    @Test
+    public void resumesFromStateFileAfterOffsetMismatch() throws IOException {
+        // The fourth chunk goes in but its acknowledgement is lost, and then the link is down.
+        mStore.mLoseAckAt = 4;
+        mStore.mDownAfter = 4;
+        try {
+            upload(new ChunkedUploader(mStore, mStateFile, CHUNK_SIZE), null);
+            fail("upload should have failed");
+        } catch (IOException expected) {
+        }
+        assertTrue(mStateFile.isFile());
+        assertEquals(null, mStore.getRev(PATH));
+
+        // A new uploader, as after a restart, picks up the upload the state file describes.
+        mStore.mDownAfter = Integer.MAX_VALUE;
+        final long acceptedBefore = mStore.mAccepted;
+        upload(new ChunkedUploader(mStore, mStateFile, CHUNK_SIZE), null);
+        assertArrayEquals(mContent, stored());
+        assertEquals(4 * CHUNK_SIZE, acceptedBefore);
+        assertEquals(mContent.length, mStore.mAccepted);
+        assertFalse(mStateFile.exists());
+    }
+
+    @Test
+    public void startsOverForDifferentContent() throws IOException {
+        mStore.mDownAfter = 2;
+        try {
+            upload(new ChunkedUploader(mStore, mStateFile, CHUNK_SIZE), null);
+            fail("upload should have failed");
+        } catch (IOException expected) {
+        }
+        mStore.mDownAfter = Integer.MAX_VALUE;
+        mContent[0] ^= 1;
+        mChecksum ^= 1;
+        upload(new ChunkedUploader(mStore, mStateFile, CHUNK_SIZE), null);
+        assertArrayEquals(mContent, stored());
+        assertEquals(2 * CHUNK_SIZE + mContent.length, mStore.mAccepted);
+    }
+
+    @Test
+    public void revMismatchDropsState() throws IOException {
+        final String rev = mStore.write(PATH, new ByteArrayInputStream(new byte[1]), 1, null, null);
+        try {
+            upload(new ChunkedUploader(mStore, mStateFile, CHUNK_SIZE), "stale");
+            fail("commit should have been refused");
+        } catch (OrgStore.RevMismatchException expected) {
+        }
+        assertEquals(rev, mStore.getRev(PATH));
+        assertFalse(mStateFile.exists());
+    }
+
+    @Test
+    public void completesThroughFlakyStore() throws IOException {
+        FlakyOrgStore flaky = new FlakyOrgStore(mStore, 0.3, 42);
+        String rev = null;
+        for (int attempt = 0; rev == null; ++attempt) {
+            assertTrue("no progress after " + attempt + " attempts", attempt < 20);
+            try {
+                rev = upload(new ChunkedUploader(flaky, mStateFile, CHUNK_SIZE), null);
+            } catch (FlakyOrgStore.InjectedFailureException e) {
+                // Try again, the way the next sync would.
+            }
+        }
+        assertTrue(flaky.failures() > 0);
+        assertEquals(rev, mStore.getRev(PATH));
+        assertArrayEquals(mContent, stored());
+        assertFalse(mStateFile.exists());
+    }
+
+    private String upload(ChunkedUploader uploader, String parentRev) throws IOException {
+        return uploader.upload(PATH, new ByteArrayInputStream(mContent), mContent.length, mChecksum,
+                parentRev, null);
+    }
+
+    private byte[] stored() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mStore.read(PATH, out);
+        return out.toByteArray();
+    }
+
+    /** Counts what the store took in, and can lose an acknowledgement or go down. */
+    private static class CountingStore extends LocalOrgStore {
+        int mChunks = 0;
+        long mAccepted = 0;
+        int mLoseAckAt = -1;
+        int mDownAfter = Integer.MAX_VALUE;
+        private int mCalls = 0;
+
+        CountingStore(File root) {
+            super(root);
+        }
+
+        @Override
+        public synchronized UploadStatus uploadChunk(String uploadId, long offset, InputStream in, long length)
+                throws IOException {
+            if (++mCalls > mDownAfter)
+                throw new IOException("store unreachable");
+            final UploadStatus status = super.uploadChunk(uploadId, offset, in, length);
+            ++mChunks;
+            mAccepted += status.offset - offset;
+            if (mCalls == mLoseAckAt)
+                throw new IOException("acknowledgement lost");
+            return status;
+        }
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
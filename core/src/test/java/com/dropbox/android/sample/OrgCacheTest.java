@@ -0,0 +1,223 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dropbox.android.sample.OrgUtil.OrgData;
+
+public class OrgCacheTest {
+    private static final int[] LEVELS = { OrgCompression.NONE, 6 };
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("cache", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAll(mDir);
+    }
+
+    @Test
+    public void loadsWhatWasStored() throws IOException {
+        for (int level : LEVELS) {
+            OrgCache cache = new OrgCache(new File(mDir, "life" + level + ".cache"), level);
+            final String content = org(3000);
+            cache.store("rev-" + level, OrgDocument.of(content));
+            assertEquals("rev-" + level, cache.readRev());
+            OrgData data = cache.load();
+            assertEquals("rev-" + level, data.rev);
+            assertEquals(content, data.fileFullContent.toString());
+
+            // A cache of any level is read whatever level it is opened with.
+            OrgCache other = new OrgCache(cache.getFile(), level == OrgCompression.NONE ? 6 : OrgCompression.NONE);
+            assertEquals(content, other.load().fileFullContent.toString());
+        }
+    }
+
+    @Test
+    public void storesEmptyContent() throws IOException {
+        for (int level : LEVELS) {
+            OrgCache cache = new OrgCache(new File(mDir, "empty" + level + ".cache"), level);
+            cache.store("r1", OrgDocument.EMPTY);
+            OrgData data = cache.load();
+            assertEquals("r1", data.rev);
+            assertEquals("", data.fileFullContent.toString());
+        }
+    }
+
+    @Test
+    public void revFillsTheSlot() throws IOException {
+        OrgCache cache = new OrgCache(new File(mDir, "life.cache"));
+        final String rev = repeat('r', 64);
+        cache.store(rev, OrgDocument.of("* a\n"));
+        assertEquals(rev, cache.readRev());
+        assertEquals(rev, cache.load().rev);
+    }
+
+    @Test
+    public void rejectsRevTooLongForTheSlot() throws IOException {
+        OrgCache cache = new OrgCache(new File(mDir, "life.cache"));
+        cache.store("r1", OrgDocument.of("* a\n"));
+        try {
+            cache.store(repeat('r', 65), OrgDocument.of("* b\n"));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        // The cache in place is left alone, and no temp file either.
+        OrgData data = cache.load();
+        assertEquals("r1", data.rev);
+        assertEquals("* a\n", data.fileFullContent.toString());
+        assertEquals(1, mDir.list().length);
+    }
+
+    @Test
+    public void copiesContentRanges() throws IOException {
+        final String content = org(5000);
+        final byte[] bytes = content.getBytes(OrgCache.UTF_8.name());
+        // The compressed cache splits content into 64k blocks; cover ranges within and across them.
+        final long[][] ranges = {
+            { 0, 0 }, { 0, 10 }, { 100, 1000 }, { 65536 - 10, 20 }, { 65536, 65536 },
+            { 1000, 140000 }, { bytes.length - 7, 7 }, { 0, bytes.length },
+        };
+        assertTrue(bytes.length > 2 * 65536);
+        for (int level : LEVELS) {
+            OrgCache cache = new OrgCache(new File(mDir, "life" + level + ".cache"), level);
+            cache.store("r1", OrgDocument.of(content));
+            for (long[] range : ranges) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                cache.copyContentRange(range[0], range[1], out);
+                assertArrayEquals("level " + level + " range " + Arrays.toString(range),
+                        Arrays.copyOfRange(bytes, (int)range[0], (int)(range[0] + range[1])), out.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void missingCacheIsEmpty() {
+        OrgCache cache = new OrgCache(new File(mDir, "none.cache"));
+        assertFalse(cache.exists());
+        assertEquals("", cache.readRev());
+        OrgData data = cache.load();
+        assertEquals("", data.rev);
+        assertEquals("", data.fileFullContent.toString());
+    }
+
+    @Test
+    public void truncatedCacheIsEmpty() throws IOException {
+        for (int level : LEVELS) {
+            File file = new File(mDir, "life" + level + ".cache");
+            OrgCache cache = new OrgCache(file, level);
+            cache.store("r1", OrgDocument.of(org(3000)));
+            final long length = file.length();
+            // Cut into the header, the content, and for compressed caches the block index.
+            final long[] cuts = { length - 1, length - 4, length / 2, 100, 10, 0 };
+            for (long cut : cuts) {
+                cache.store("r1", OrgDocument.of(org(3000)));
+                truncate(file, cut);
+                OrgData data = cache.load();
+                assertEquals("level " + level + " cut " + cut, "", data.rev);
+                assertEquals("", data.fileFullContent.toString());
+            }
+        }
+    }
+
+    @Test
+    public void corruptContentIsEmpty() throws IOException {
+        for (int level : LEVELS) {
+            File file = new File(mDir, "life" + level + ".cache");
+            OrgCache cache = new OrgCache(file, level);
+            cache.store("r1", OrgDocument.of(org(3000)));
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                final long position = file.length() / 2;
+                raf.seek(position);
+                final int b = raf.read();
+                raf.seek(position);
+                raf.write(b ^ 0x20);
+            } finally {
+                raf.close();
+            }
+            OrgData data = cache.load();
+            assertEquals("level " + level, "", data.rev);
+            assertEquals("", data.fileFullContent.toString());
+        }
+    }
+
+    @Test
+    public void garbageIsEmpty() throws IOException {
+        File file = new File(mDir, "life.cache");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(repeat('x', 4096).getBytes(OrgCache.UTF_8.name()));
+        } finally {
+            raf.close();
+        }
+        OrgCache cache = new OrgCache(file);
+        assertEquals("", cache.readRev());
+        assertEquals("", cache.load().fileFullContent.toString());
+    }
+
+    @Test
+    public void writerAbortKeepsTheCache() throws IOException {
+        OrgCache cache = new OrgCache(new File(mDir, "life.cache"));
+        cache.store("r1", OrgDocument.of("* a\n"));
+        OrgCache.Writer writer = cache.openWriter();
+        writer.write("* b\n".getBytes(OrgCache.UTF_8.name()));
+        writer.abort();
+        assertEquals("* a\n", cache.load().fileFullContent.toString());
+        assertEquals(1, mDir.list().length);
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    // Non-ASCII content, so byte and char offsets differ.
+    private static String org(int sections) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sections; ++i) {
+            sb.append("* section ").append(i).append(" café\n   body ").append(i * 31).append(" 日本\n");
+        }
+        return sb.toString();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,52 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import org.junit.Test;
+
+public class OrgCaptureTemplateTest {
+    private static final Date WHEN = new GregorianCalendar(2026, Calendar.MARCH, 7).getTime();
+
+    @Test
+    public void expandsDateAndTagPlaceholders() {
+        assertEquals("/journal/2026-03.org",
+                new OrgCaptureTemplate("j", "/journal/{date:yyyy-MM}.org", null).resolvePath("note", WHEN));
+        assertEquals("/tags/work.org",
+                new OrgCaptureTemplate("t", "/tags/{tag}.org", null).resolvePath("call Bob :work:home:", WHEN));
+        assertEquals("/tags/untagged.org",
+                new OrgCaptureTemplate("t", "/tags/{tag}.org", null).resolvePath("call Bob", WHEN));
+    }
+
+    @Test
+    public void keepsExpansionsInOnePathSegment() {
+        assertEquals("/2026_03_07.org",
+                new OrgCaptureTemplate("d", "/{date:yyyy/MM/dd}.org", null).resolvePath("note", WHEN));
+    }
+
+    @Test
+    public void trimsHeadingAndAllowsNone() {
+        assertEquals("Entries", new OrgCaptureTemplate("j", "/j.org", " Entries ").heading);
+        assertNull(OrgCaptureTemplate.defaultTemplate().heading);
+        assertEquals(OrgUtil.ORG_PATH, OrgCaptureTemplate.defaultTemplate().resolvePath("note", WHEN));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRelativePath() {
+        new OrgCaptureTemplate("r", "inbox.org", null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unclosedPlaceholderFailsToResolve() {
+        new OrgCaptureTemplate("u", "/journal/{date:yyyy-MM.org", null).resolvePath("note", WHEN);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badDatePatternFailsToResolve() {
+        new OrgCaptureTemplate("b", "/journal/{date:yyyy-qq}.org", null).resolvePath("note", WHEN);
+    }
+}
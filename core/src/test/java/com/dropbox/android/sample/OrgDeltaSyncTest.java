@@ -0,0 +1,169 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrgDeltaSyncTest {
+    private static final String PATH = "/life.org";
+
+    private File mDir;
+    private LocalOrgStore mStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("delta", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mStore = new LocalOrgStore(new File(mDir, "store"));
+    }
+
+    @After
+    public void tearDown() {
+        deleteAll(mDir);
+    }
+
+    @Test
+    public void manifestSurvivesWriteAndRead() throws IOException {
+        final byte[] content = org(400, 1);
+        ChunkManifest manifest = ChunkManifest.of("r1", content, 0, content.length);
+        File file = new File(mDir, "manifest");
+        manifest.writeTo(file);
+
+        ChunkManifest read = ChunkManifest.readFrom(file);
+        assertNotNull(read);
+        assertEquals("r1", read.rev);
+        assertEquals(content.length, read.length());
+        assertEquals(manifest.chunks().size(), read.chunks().size());
+        for (int i = 0; i < manifest.chunks().size(); ++i) {
+            assertEquals(manifest.chunks().get(i).offset, read.chunks().get(i).offset);
+            assertEquals(manifest.chunks().get(i).length, read.chunks().get(i).length);
+            assertEquals(manifest.chunks().get(i).hash, read.chunks().get(i).hash);
+        }
+        assertNull(ChunkManifest.readFrom(new File(mDir, "missing")));
+    }
+
+    @Test
+    public void builderMatchesSingleByteWrites() {
+        final byte[] content = org(200, 2);
+        ChunkManifest.Builder builder = new ChunkManifest.Builder();
+        for (byte b : content) {
+            builder.write(b);
+        }
+        ChunkManifest bytewise = builder.finish("r");
+        ChunkManifest bulk = ChunkManifest.of("r", content, 0, content.length);
+        assertEquals(bulk.chunks().size(), bytewise.chunks().size());
+        for (int i = 0; i < bulk.chunks().size(); ++i) {
+            assertEquals(bulk.chunks().get(i).hash, bytewise.chunks().get(i).hash);
+        }
+    }
+
+    @Test
+    public void editOnlyChangesNearbyChunks() {
+        final byte[] before = org(1000, 3);
+        final byte[] after = edit(before, before.length / 2);
+        ChunkManifest old = ChunkManifest.of("r1", before, 0, before.length);
+        ChunkManifest changed = ChunkManifest.of("r2", after, 0, after.length);
+        int fresh = 0;
+        for (ChunkManifest.Chunk chunk : changed.chunks()) {
+            if (old.find(chunk.hash) == null)
+                ++fresh;
+        }
+        assertTrue("too many new chunks: " + fresh + " of " + changed.chunks().size(), fresh <= 3);
+    }
+
+    @Test
+    public void fetchRebuildsRemoteFromCacheAndMissingChunks() throws IOException {
+        roundTrip(OrgCompression.NONE);
+    }
+
+    @Test
+    public void fetchReadsRangesFromCompressedCache() throws IOException {
+        roundTrip(6);
+    }
+
+    private void roundTrip(int level) throws IOException {
+        final byte[] before = org(5000, 4);
+        final String rev1 = mStore.write(PATH, new ByteArrayInputStream(before), before.length, null, null);
+        OrgCache cache = new OrgCache(new File(mDir, "life.org.cache"), level);
+        cache.store(rev1, before, 0, before.length);
+        cache.storeManifest(ChunkManifest.of(rev1, before, 0, before.length));
+
+        byte[] after = edit(before, before.length / 3);
+        after = edit(after, 2 * after.length / 3);
+        final String rev2 = mStore.write(PATH, new ByteArrayInputStream(after), after.length, rev1, null);
+
+        ChunkManifest local = cache.readManifest();
+        assertNotNull(local);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OrgDeltaSync.Stats stats = new OrgDeltaSync.Stats();
+        assertEquals(rev2, OrgDeltaSync.fetch(mStore, PATH, cache, local, out, stats));
+        assertArrayEquals(after, out.toByteArray());
+
+        assertEquals(after.length, stats.totalBytes);
+        assertEquals(after.length, stats.fetchedBytes + stats.reusedBytes);
+        // Each insert touches a chunk or two; everything else comes from the cache.
+        assertTrue(stats.toString(), stats.fetchedChunks >= 2 && stats.fetchedChunks <= 4);
+        assertTrue(stats.toString(), stats.fetchedBytes < after.length / 4);
+    }
+
+    @Test
+    public void manifestOfOtherRevIsIgnored() throws IOException {
+        final byte[] content = org(50, 5);
+        OrgCache cache = new OrgCache(new File(mDir, "life.org.cache"));
+        cache.store("r2", content, 0, content.length);
+        cache.storeManifest(ChunkManifest.of("r1", content, 0, content.length));
+        assertNull(cache.readManifest());
+    }
+
+    /** Returns headings with a few list items each, seeded so runs repeat. */
+    private static byte[] org(int headings, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < headings; ++i) {
+            sb.append("* TODO heading ").append(i).append(" :tag").append(random.nextInt(10)).append(":\n");
+            final int items = 1 + random.nextInt(6);
+            for (int j = 0; j < items; ++j) {
+                sb.append("- item ").append(Long.toHexString(random.nextLong())).append('\n');
+            }
+        }
+        return sb.toString().getBytes(OrgCache.UTF_8);
+    }
+
+    /** Returns content with a short line inserted at about offset. */
+    private static byte[] edit(byte[] content, int offset) {
+        final byte[] insert = "- inserted item\n".getBytes(OrgCache.UTF_8);
+        while (content[offset - 1] != '\n') {
+            ++offset;
+        }
+        byte[] result = new byte[content.length + insert.length];
+        System.arraycopy(content, 0, result, 0, offset);
+        System.arraycopy(insert, 0, result, offset, insert.length);
+        System.arraycopy(content, offset, result, offset + insert.length, content.length - offset);
+        return result;
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
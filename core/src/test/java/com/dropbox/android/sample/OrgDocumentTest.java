@@ -0,0 +1,166 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class OrgDocumentTest {
+    // ASCII, two- and three-byte chars, and a surrogate pair (U+1F600).
+    private static final String[] FRAGMENTS = {
+        "* heading\n", "- item ", "café ", "日本 ", "😀", "x", "\n", "",
+    };
+
+    @Test
+    public void randomEditsMatchStringBuilder() throws IOException {
+        Random random = new Random(1);
+        for (int round = 0; round < 20; ++round) {
+            OrgDocument document = OrgDocument.EMPTY;
+            StringBuilder expected = new StringBuilder();
+            for (int edit = 0; edit < 300; ++edit) {
+                final String text = text(random);
+                final int start = random.nextInt(expected.length() + 1);
+                final int end = start + random.nextInt(Math.min(expected.length() - start, 40) + 1);
+                switch (random.nextInt(4)) {
+                    case 0:
+                        document = document.replace(start, end, text);
+                        expected.replace(start, end, text);
+                        break;
+                    case 1:
+                        document = document.insert(start, text);
+                        expected.insert(start, text);
+                        break;
+                    case 2:
+                        document = document.delete(start, end);
+                        expected.delete(start, end);
+                        break;
+                    default:
+                        document = document.append(text);
+                        expected.append(text);
+                        break;
+                }
+                assertEquals(expected.length(), document.length());
+            }
+            assertMatches(expected.toString(), document);
+        }
+    }
+
+    @Test
+    public void subSequencesMatchSubstring() throws IOException {
+        Random random = new Random(2);
+        OrgDocument document = OrgDocument.EMPTY;
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 200; ++i) {
+            final String text = text(random);
+            final int at = random.nextInt(expected.length() + 1);
+            document = document.insert(at, text);
+            expected.insert(at, text);
+        }
+        final String content = expected.toString();
+        for (int i = 0; i < 200; ++i) {
+            final int start = random.nextInt(content.length() + 1);
+            final int end = start + random.nextInt(content.length() - start + 1);
+            assertMatches(content.substring(start, end), document.subSequence(start, end));
+        }
+    }
+
+    @Test
+    public void editsLeaveTheOriginalUnchanged() {
+        final OrgDocument original = OrgDocument.of("* a\nbody\n");
+        final OrgDocument edited = original.replace(2, 3, "b").append("* c\n");
+        assertEquals("* a\nbody\n", original.toString());
+        assertEquals("* b\nbody\n* c\n", edited.toString());
+        assertTrue(edited.pieceCount() <= original.pieceCount() + 3);
+    }
+
+    @Test
+    public void surrogatePairSplitAcrossPiecesEncodesAsOneCodePoint() throws IOException {
+        final OrgDocument document = OrgDocument.of("a\ud83d").append("\ude00b");
+        assertEquals(2, document.pieceCount());
+        assertMatches("a😀b", document);
+        assertEquals(6, document.utf8Length());
+    }
+
+    @Test
+    public void unpairedSurrogatesEncodeLikeString() throws IOException {
+        assertMatches("\ud83d", OrgDocument.of("\ud83d"));
+        assertMatches("x\ude00\ud83dy", OrgDocument.of("x\ude00").append("\ud83dy"));
+    }
+
+    @Test
+    public void encodesLongContentAcrossBufferBoundaries() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40000; ++i) {
+            sb.append(FRAGMENTS[i % FRAGMENTS.length]);
+        }
+        OrgDocument document = OrgDocument.EMPTY;
+        for (int i = 0; i < sb.length(); i += 997) {
+            document = document.append(sb.subSequence(i, Math.min(sb.length(), i + 997)));
+        }
+        assertMatches(sb.toString(), document);
+
+        // Byte at a time, as some consumers read.
+        final byte[] bytes = sb.toString().getBytes(OrgCache.UTF_8.name());
+        InputStream in = document.newUtf8InputStream();
+        for (byte b : bytes) {
+            assertEquals(b & 0xff, in.read());
+        }
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void comparesContent() {
+        final OrgDocument document = OrgDocument.of("* a\n").append("b\n");
+        assertTrue(document.contentEquals("* a\nb\n"));
+        assertTrue(document.contentEquals(OrgDocument.of("* a\nb\n")));
+        assertFalse(document.contentEquals("* a\nc\n"));
+        assertFalse(document.contentEquals("* a\n"));
+    }
+
+    @Test
+    public void rejectsBadRanges() {
+        final OrgDocument document = OrgDocument.of("abc");
+        final int[][] ranges = { { -1, 1 }, { 2, 1 }, { 0, 4 } };
+        for (int[] range : ranges) {
+            try {
+                document.replace(range[0], range[1], "x");
+                fail("accepted " + range[0] + ".." + range[1]);
+            } catch (IndexOutOfBoundsException expected) {
+            }
+        }
+    }
+
+    private static String text(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = random.nextInt(4); n > 0; --n) {
+            sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static void assertMatches(String expected, OrgDocument document) throws IOException {
+        assertEquals(expected, document.toString());
+        assertEquals(expected.length(), document.length());
+        for (int i = 0; i < expected.length(); i += 7) {
+            assertEquals(expected.charAt(i), document.charAt(i));
+        }
+        StringBuilder appended = new StringBuilder();
+        document.appendTo(appended);
+        assertEquals(expected, appended.toString());
+        assertTrue(document.contentEquals(expected));
+
+        final byte[] bytes = expected.getBytes(OrgCache.UTF_8.name());
+        assertEquals(bytes.length, document.utf8Length());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        document.writeUtf8(out);
+        assertArrayEquals(bytes, out.toByteArray());
+    }
+}
@@ -0,0 +1,186 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrgHistoryTest {
+    private static final int SECTIONS = 50;
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("history", "");
+        mDir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAll(mDir);
+    }
+
+    @Test
+    public void loadsEveryRecordedRev() throws IOException {
+        OrgHistory history = new OrgHistory(mDir, 10, Long.MAX_VALUE);
+        final String[] contents = new String[4];
+        for (int i = 0; i < contents.length; ++i) {
+            contents[i] = org(i);
+            history.record("r" + i, contents[i]);
+        }
+        assertEquals(Arrays.asList("r3", "r2", "r1", "r0"), history.revs());
+        for (int i = 0; i < contents.length; ++i) {
+            assertEquals(contents[i], history.load("r" + i).toString());
+        }
+        assertNull(history.load("r4"));
+    }
+
+    @Test
+    public void storesUnchangedSectionsOnce() throws IOException {
+        OrgHistory history = new OrgHistory(mDir, 10, Long.MAX_VALUE);
+        history.record("r0", org(0));
+        final long first = history.sizeBytes();
+        history.record("r1", org(1));
+        // One changed section and a longer index, not a second copy.
+        assertTrue(history.sizeBytes() - first < org(1).length() / 5);
+        // Recording a kept rev again is a no-op.
+        final long second = history.sizeBytes();
+        history.record("r1", "* something else\n");
+        assertEquals(second, history.sizeBytes());
+        assertEquals(org(1), history.load("r1").toString());
+    }
+
+    @Test
+    public void keepsRevsAcrossReopen() throws IOException {
+        OrgHistory history = new OrgHistory(mDir, 10, Long.MAX_VALUE);
+        history.record("r0", org(0));
+        history.record("r1", org(1));
+
+        OrgHistory reopened = new OrgHistory(mDir, 10, Long.MAX_VALUE);
+        assertEquals(Arrays.asList("r1", "r0"), reopened.revs());
+        assertEquals(org(0), reopened.load("r0").toString());
+        assertEquals(org(1), reopened.load("r1").toString());
+        reopened.record("r2", org(2));
+        assertEquals(org(2), new OrgHistory(mDir, 10, Long.MAX_VALUE).load("r2").toString());
+    }
+
+    @Test
+    public void compactsOnceOldRevsDropOut() throws IOException {
+        OrgHistory history = new OrgHistory(mDir, 2, Long.MAX_VALUE);
+        // Every rev rewrites all sections, so dropped revs leave only garbage behind.
+        for (int i = 0; i < 5; ++i) {
+            history.record("r" + i, org(100 * i).replace("- item", "- item " + i));
+        }
+        assertEquals(Arrays.asList("r4", "r3"), history.revs());
+        assertFalse(history.contains("r2"));
+        assertEquals(1, packFiles().length);
+        assertTrue(history.sizeBytes() < 3 * org(0).length());
+
+        OrgHistory reopened = new OrgHistory(mDir, 2, Long.MAX_VALUE);
+        assertEquals(Arrays.asList("r4", "r3"), reopened.revs());
+        assertEquals(org(300).replace("- item", "- item 3"), reopened.load("r3").toString());
+        assertEquals(org(400).replace("- item", "- item 4"), reopened.load("r4").toString());
+    }
+
+    @Test
+    public void sizeCapDropsOldestRevsButKeepsNewest() throws IOException {
+        final long cap = org(0).length() * 3 / 2;
+        OrgHistory history = new OrgHistory(mDir, 10, cap);
+        for (int i = 0; i < 4; ++i) {
+            history.record("r" + i, org(0).replace("- item", "- item " + i));
+        }
+        assertEquals(Arrays.asList("r3"), history.revs());
+        assertEquals(org(0).replace("- item", "- item 3"), history.load("r3").toString());
+        assertEquals(1, packFiles().length);
+        assertTrue(packFiles()[0].length() <= cap);
+    }
+
+    @Test
+    public void diffNamesChangedAddedAndRemovedSections() throws IOException {
+        OrgHistory history = new OrgHistory(mDir, 10, Long.MAX_VALUE);
+        history.record("a", "#+TITLE: life\n* Work\n- report\n* Home\n- dishes\n");
+        history.record("b", "#+TITLE: life\n* Work\n- slides\n* Garden\n- weeds\n");
+        OrgHistory.Diff diff = history.diff("a", "b");
+        assertEquals(Arrays.asList("* Work"), diff.changed);
+        assertEquals(Arrays.asList("* Garden"), diff.added);
+        assertEquals(Arrays.asList("* Home"), diff.removed);
+        assertTrue(history.diff("a", "a").isEmpty());
+        assertNull(history.diff("a", "missing"));
+    }
+
+    @Test
+    public void dropsBlobsOfUnindexedRecord() throws IOException {
+        OrgHistory history = new OrgHistory(mDir, 10, Long.MAX_VALUE);
+        history.record("r0", org(0));
+        final long length = packFiles()[0].length();
+        // As if the process died after appending blobs but before writing the index.
+        FileOutputStream out = new FileOutputStream(packFiles()[0], true);
+        try {
+            out.write(new byte[1000]);
+        } finally {
+            out.close();
+        }
+
+        OrgHistory reopened = new OrgHistory(mDir, 10, Long.MAX_VALUE);
+        assertEquals(org(0), reopened.load("r0").toString());
+        assertEquals(length, packFiles()[0].length());
+        reopened.record("r1", org(1));
+        assertEquals(org(1), new OrgHistory(mDir, 10, Long.MAX_VALUE).load("r1").toString());
+    }
+
+    @Test
+    public void readsCompressedBlobsAtAnyLevel() throws IOException {
+        OrgHistory compressed = new OrgHistory(mDir, 10, Long.MAX_VALUE, 6);
+        compressed.record("r0", org(0));
+        assertTrue(compressed.getStats().ratio() < 1);
+
+        OrgHistory plain = new OrgHistory(mDir, 10, Long.MAX_VALUE);
+        plain.record("r1", org(1));
+        assertEquals(org(0), plain.load("r0").toString());
+        assertEquals(org(1), plain.load("r1").toString());
+    }
+
+    /** Returns a file of SECTIONS headings, the one at edit % SECTIONS edited. */
+    private static String org(int edit) {
+        StringBuilder sb = new StringBuilder("#+TITLE: life\n");
+        for (int i = 0; i < SECTIONS; ++i) {
+            sb.append("* TODO heading ").append(i).append('\n');
+            for (int j = 0; j < 5; ++j) {
+                sb.append("- item ").append(i).append('.').append(j).append(" of the list under it\n");
+            }
+            if (edit > 0 && i == edit % SECTIONS)
+                sb.append("- edit ").append(edit).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private File[] packFiles() {
+        return mDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("pack.");
+            }
+        });
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,294 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrgIndexTest {
+    private static final String ORG =
+            "#+TITLE: life\n"
+            + "* TODO Call the plumber :home:urgent:\n"
+            + "  about the kitchen sink\n"
+            + "* Reading list :books:\n"
+            + "** DONE Refactoring\n"
+            + "   finished in the kitchen\n"
+            + "** Café society :books:paris:\n";
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("index", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAll(mDir);
+    }
+
+    @Test
+    public void findsWordsTagsAndKeywords() {
+        OrgIndex index = new OrgIndex();
+        assertEquals(5, index.update("r1", ORG));
+        assertEquals("r1", index.getRev());
+        assertEquals(5, index.size());
+
+        assertEquals(Arrays.asList("Call the plumber", "Refactoring"), titles(index.search("kitchen", 10)));
+        // Words match by prefix, case aside, all terms at once.
+        assertEquals(Arrays.asList("Call the plumber"), titles(index.search("KITCH plumb", 10)));
+        assertEquals(Arrays.asList("Reading list", "Café society"), titles(index.search(":books", 10)));
+        assertEquals(Arrays.asList("Café society"), titles(index.search(":books:par", 10)));
+        assertEquals(Arrays.asList("Café society"), titles(index.search("café", 10)));
+        assertEquals(Arrays.asList("Call the plumber"), titles(index.search("TODO", 10)));
+        assertEquals(Arrays.asList("Refactoring"), titles(index.search("DONE kitchen", 10)));
+        // The preamble is a section of its own, without a title.
+        assertEquals(Arrays.asList(""), titles(index.search("life", 10)));
+        assertEquals(Arrays.asList("Call the plumber"), titles(index.search("kitchen", 1)));
+        assertTrue(index.search("plumber :books", 10).isEmpty());
+        assertTrue(index.search("   ", 10).isEmpty());
+    }
+
+    @Test
+    public void hitsPointIntoTheContent() {
+        OrgIndex index = new OrgIndex();
+        index.update("r1", ORG);
+        OrgIndex.Hit hit = index.search("refactoring", 10).get(0);
+        assertEquals("r1", hit.rev);
+        assertEquals(2, hit.level);
+        assertEquals("** DONE Refactoring\n   finished in the kitchen\n", ORG.substring(hit.start, hit.end));
+    }
+
+    @Test
+    public void updateTokenizesOnlyChangedSections() {
+        OrgIndex index = new OrgIndex();
+        final String content = org(200);
+        assertEquals(200, index.update("r1", content));
+        assertEquals(0, index.update("r1", content));
+
+        // One section edited and a new one in front: two to tokenize, the rest moved.
+        final String edited = "* inserted zebra\n" + content.replace("body 17 ", "body 17 walrus ");
+        assertEquals(2, index.update("r2", edited));
+        assertEquals("r2", index.getRev());
+        assertEquals(201, index.size());
+        assertEquals(Arrays.asList("section 17"), titles(index.search("walrus", 10)));
+        assertEquals(Arrays.asList("inserted zebra"), titles(index.search("zebra", 10)));
+        OrgIndex.Hit moved = index.search("section 150", 10).get(0);
+        assertEquals("r2", moved.rev);
+        assertTrue(edited.substring(moved.start, moved.end).startsWith("* section 150\n"));
+
+        // Dropped sections no longer match, and an edit undone is tokenized again.
+        assertEquals(1, index.update("r3", content));
+        assertTrue(index.search("zebra", 10).isEmpty());
+        assertTrue(index.search("walrus", 10).isEmpty());
+        assertEquals("section 17", index.search("section 17", 10).get(0).title);
+    }
+
+    @Test
+    public void compactsAfterManyDroppedSections() {
+        OrgIndex index = new OrgIndex();
+        for (int rev = 0; rev < 6; ++rev) {
+            // Every section changes each time, so each rev drops all of the last.
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 500; ++i) {
+                sb.append("* section ").append(i).append(" rev").append(rev).append('\n');
+            }
+            assertEquals(500, index.update("r" + rev, sb.toString()));
+            assertEquals(500, index.size());
+            assertEquals(1, index.search("section 499 rev" + rev, 10).size());
+            if (rev > 0)
+                assertTrue(index.search("rev" + (rev - 1), 10).isEmpty());
+        }
+    }
+
+    @Test
+    public void listsAgendaInDateOrder() {
+        final String content = "* TODO Call the plumber\n"
+                + "  SCHEDULED: <2016-05-03 Tue 09:00> DEADLINE: <2016-05-10 Tue>\n"
+                + "* Dentist <2016-05-03 Tue 08:00>\n"
+                + "* Notes\n"
+                + "  seen [2016-05-01 Sun], party <2016-05-03 Tue 24:00>\n"
+                + "* Next month <2016-06-01 Wed>\n";
+        OrgIndex index = new OrgIndex();
+        index.update("r1", content);
+
+        assertEquals(Arrays.asList("[2016-05-01] Notes", "<2016-05-03 08:00> Dentist <2016-05-03 Tue 08:00>",
+                "SCHEDULED: <2016-05-03 09:00> Call the plumber", "<2016-05-03 24:00> Notes",
+                "DEADLINE: <2016-05-10> Call the plumber"),
+                strings(index.agenda(20160501, 20160531, null, 100)));
+        // A timestamp at 24:00 belongs to its own day, not the next.
+        assertEquals(Arrays.asList("<2016-05-03 08:00> Dentist <2016-05-03 Tue 08:00>", "SCHEDULED: <2016-05-03 09:00> Call the plumber",
+                "<2016-05-03 24:00> Notes"), strings(index.agenda(20160503, 20160503, null, 100)));
+        assertTrue(index.agenda(20160504, 20160509, null, 100).isEmpty());
+        assertEquals(Arrays.asList("SCHEDULED: <2016-05-03 09:00> Call the plumber",
+                "DEADLINE: <2016-05-10> Call the plumber"),
+                strings(index.agenda(20160101, 20161231,
+                        EnumSet.of(OrgTimestamp.Kind.SCHEDULED, OrgTimestamp.Kind.DEADLINE), 100)));
+        assertEquals(2, index.agenda(20160101, 20161231, null, 2).size());
+        assertTrue(index.agenda(20160510, 20160501, null, 100).isEmpty());
+
+        OrgIndex.Hit hit = index.agenda(20160601, 20160601, null, 100).get(0);
+        assertEquals("* Next month <2016-06-01 Wed>\n", content.substring(hit.start, hit.end));
+
+        // Date ranges combine with the other terms and list by date.
+        assertEquals(Arrays.asList("<2016-05-03 08:00> Dentist <2016-05-03 Tue 08:00>", "SCHEDULED: <2016-05-03 09:00> Call the plumber",
+                "<2016-05-03 24:00> Notes"), strings(index.search("@2016-05-03", 100)));
+        assertEquals(Arrays.asList("DEADLINE: <2016-05-10> Call the plumber"),
+                strings(index.search("@2016-05-04..2016-05-31 plumber", 100)));
+        assertEquals(Arrays.asList("<2016-05-03 24:00> Notes"),
+                strings(index.search("@2016-05-01..2016-05-03 @2016-05-03..2016-05-09 party", 100)));
+        assertTrue(index.search("@2016-05-04..2016-05-09", 100).isEmpty());
+
+        // Dropped sections leave the agenda with their timestamps.
+        index.update("r2", content.replace("* Dentist <2016-05-03 Tue 08:00>\n", ""));
+        assertEquals(2, index.agenda(20160503, 20160503, null, 100).size());
+    }
+
+    @Test
+    public void keepsTheAgendaAcrossWriteAndRead() throws IOException {
+        OrgIndex index = new OrgIndex();
+        index.update("r1", "* Dentist <2016-05-03 Tue 08:00>\n* Plumber\n  DEADLINE: <2016-05-10 Tue>\n");
+        File file = new File(mDir, "index");
+        index.writeTo(file);
+        assertEquals(strings(index.agenda(20160101, 20161231, null, 100)),
+                strings(OrgIndex.readFrom(file).agenda(20160101, 20161231, null, 100)));
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        OrgIndex index = new OrgIndex();
+        final String content = ORG + org(100);
+        index.update("r1", content);
+        File file = new File(mDir, "index");
+        index.writeTo(file);
+
+        OrgIndex read = OrgIndex.readFrom(file);
+        assertEquals("r1", read.getRev());
+        assertEquals(index.size(), read.size());
+        for (String query : new String[] { "kitchen", ":books", "TODO", "section 5", "café", "body" }) {
+            assertHits(index.search(query, 1000), read.search(query, 1000));
+        }
+        // The read index carries on incrementally.
+        assertEquals(1, read.update("r2", content.replace("body 17 ", "body 17 walrus ")));
+        assertEquals(Arrays.asList("section 17"), titles(read.search("walrus", 10)));
+    }
+
+    @Test
+    public void missingIndexIsEmpty() {
+        OrgIndex index = OrgIndex.readFrom(new File(mDir, "none"));
+        assertEquals("", index.getRev());
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void truncatedIndexIsEmpty() throws IOException {
+        OrgIndex index = new OrgIndex();
+        index.update("r1", ORG + org(20));
+        File file = new File(mDir, "index");
+        final File written = new File(mDir, "written");
+        index.writeTo(written);
+        final long length = written.length();
+        for (long cut = 0; cut < length; cut += 7) {
+            index.writeTo(file);
+            truncate(file, cut);
+            OrgIndex read = OrgIndex.readFrom(file);
+            assertEquals("cut " + cut, "", read.getRev());
+            assertEquals(0, read.size());
+            assertTrue(read.search("kitchen", 10).isEmpty());
+        }
+    }
+
+    @Test
+    public void corruptIndexIsEmptyOrConsistent() throws IOException {
+        OrgIndex index = new OrgIndex();
+        final String content = ORG + org(20);
+        index.update("r1", content);
+        File file = new File(mDir, "index");
+        index.writeTo(file);
+        final long length = file.length();
+        Random random = new Random(1);
+        for (int round = 0; round < 500; ++round) {
+            index.writeTo(file);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                for (int i = 0; i < 4; ++i) {
+                    raf.seek(random.nextInt((int)length));
+                    raf.write(random.nextInt(256));
+                }
+            } finally {
+                raf.close();
+            }
+            // Whatever survives must not point outside the content it claims to index.
+            OrgIndex read = OrgIndex.readFrom(file);
+            for (OrgIndex.Hit hit : read.search("section", 1000)) {
+                assertTrue(0 <= hit.start && hit.start <= hit.end);
+            }
+        }
+    }
+
+    private static void assertHits(List<OrgIndex.Hit> expected, List<OrgIndex.Hit> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.get(i).start, actual.get(i).start);
+            assertEquals(expected.get(i).end, actual.get(i).end);
+            assertEquals(expected.get(i).level, actual.get(i).level);
+            assertEquals(expected.get(i).title, actual.get(i).title);
+        }
+    }
+
+    private static List<String> strings(List<OrgIndex.Hit> hits) {
+        List<String> strings = new ArrayList<>();
+        for (OrgIndex.Hit hit : hits) {
+            strings.add(hit.toString());
+        }
+        return strings;
+    }
+
+    private static List<String> titles(List<OrgIndex.Hit> hits) {
+        List<String> titles = new ArrayList<>();
+        for (OrgIndex.Hit hit : hits) {
+            titles.add(hit.title);
+        }
+        return titles;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String org(int sections) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sections; ++i) {
+            sb.append("* section ").append(i).append("\n  body ").append(i).append(" text\n");
+        }
+        return sb.toString();
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,168 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class OrgMergeTest {
+    private static final String BASE = "#+TITLE: life\n"
+            + "* Work\n"
+            + "- report\n"
+            + "* Home\n"
+            + "- dishes\n"
+            + "* Garden\n"
+            + "- weeds\n";
+
+    @Test
+    public void mergesEditsToDifferentSections() {
+        final String local = BASE.replace("- report\n", "- report\n- slides\n");
+        final String remote = BASE.replace("- weeds\n", "- roses\n");
+        OrgMerge.Result result = OrgMerge.merge(BASE, local, remote);
+        assertTrue(result.isClean());
+        assertEquals("#+TITLE: life\n"
+                + "* Work\n"
+                + "- report\n"
+                + "- slides\n"
+                + "* Home\n"
+                + "- dishes\n"
+                + "* Garden\n"
+                + "- roses\n", result.content);
+    }
+
+    @Test
+    public void keepsSectionsAddedOnBothSides() {
+        final String local = BASE.replace("* Home\n", "* Errands\n- bank\n* Home\n");
+        final String remote = BASE + "* Reading\n- novel\n";
+        OrgMerge.Result result = OrgMerge.merge(BASE, local, remote);
+        assertTrue(result.isClean());
+        assertEquals("#+TITLE: life\n"
+                + "* Work\n"
+                + "- report\n"
+                + "* Errands\n"
+                + "- bank\n"
+                + "* Home\n"
+                + "- dishes\n"
+                + "* Garden\n"
+                + "- weeds\n"
+                + "* Reading\n"
+                + "- novel\n", result.content);
+    }
+
+    @Test
+    public void sameEditOnBothSidesIsNotAConflict() {
+        final String edited = BASE.replace("- dishes\n", "- dishes\n- laundry\n");
+        OrgMerge.Result result = OrgMerge.merge(BASE, edited, edited);
+        assertTrue(result.isClean());
+        assertEquals(edited, result.content);
+    }
+
+    @Test
+    public void deletionOnOneSideWins() {
+        final String local = BASE.replace("* Home\n- dishes\n", "");
+        OrgMerge.Result result = OrgMerge.merge(BASE, local, BASE);
+        assertTrue(result.isClean());
+        assertEquals(local, result.content);
+    }
+
+    @Test
+    public void matchesRepeatedHeadingsByOccurrence() {
+        final String base = "* Notes\n- one\n* Notes\n- two\n* Notes\n- three\n";
+        final String local = base.replace("- one\n", "- one!\n");
+        final String remote = base.replace("- three\n", "- three!\n");
+        OrgMerge.Result result = OrgMerge.merge(base, local, remote);
+        assertTrue(result.isClean());
+        assertEquals("* Notes\n- one!\n* Notes\n- two\n* Notes\n- three!\n", result.content);
+    }
+
+    @Test
+    public void insertedRepeatedHeadingDoesNotShiftTheOthers() {
+        final String base = "* Inbox\n** capture\n- milk\n** capture\n- bread\n** capture\n- eggs\n";
+        final String local = base.replace("* Inbox\n", "* Inbox\n** capture\n- tea\n");
+        final String remote = base.replace("- eggs\n", "- eggs, a dozen\n");
+        OrgMerge.Result result = OrgMerge.merge(base, local, remote);
+        assertTrue(result.conflicts.toString(), result.isClean());
+        assertEquals("* Inbox\n** capture\n- tea\n** capture\n- milk\n** capture\n- bread\n"
+                + "** capture\n- eggs, a dozen\n", result.content);
+    }
+
+    @Test
+    public void editAndDeletionAmongRepeatedHeadingsMerge() {
+        final String base = "* Inbox\n** capture\n- milk\n** capture\n- bread\n** capture\n- eggs\n";
+        final String local = base.replace("** capture\n- milk\n", "").replace("- bread\n", "- rye bread\n");
+        final String remote = base + "** capture\n- jam\n";
+        OrgMerge.Result result = OrgMerge.merge(base, local, remote);
+        assertTrue(result.conflicts.toString(), result.isClean());
+        assertEquals("* Inbox\n** capture\n- rye bread\n** capture\n- eggs\n** capture\n- jam\n",
+                result.content);
+    }
+
+    @Test
+    public void capturesAddedOnBothSidesAreAllKept() {
+        final String base = "* Inbox\n** capture\n- milk\n";
+        final String local = base + "** capture\n- tea\n";
+        final String remote = base + "** capture\n- jam\n";
+        OrgMerge.Result result = OrgMerge.merge(base, local, remote);
+        assertTrue(result.isClean());
+        assertEquals(base + "** capture\n- tea\n** capture\n- jam\n", result.content);
+        // The same capture on both sides is kept once.
+        assertEquals(local, OrgMerge.merge(base, local, local).content);
+    }
+
+    @Test
+    public void conflictingEditsOfRepeatedHeadingAreReported() {
+        final String base = "* Inbox\n** capture\n- milk\n** capture\n- bread\n";
+        final String local = base.replace("- bread\n", "- rye bread\n");
+        final String remote = base.replace("- bread\n", "- white bread\n");
+        OrgMerge.Result result = OrgMerge.merge(base, local, remote);
+        assertEquals(Arrays.asList("** capture"), result.conflicts);
+        assertEquals(local, result.content);
+    }
+
+    @Test
+    public void mergesManyAddedSectionsQuickly() {
+        StringBuilder added = new StringBuilder();
+        for (int i = 0; i < 20000; ++i) {
+            added.append("** capture\n- item ").append(i).append('\n');
+        }
+        final String local = BASE.replace("* Home\n", added + "* Home\n");
+        final String remote = BASE.replace("- weeds\n", "- roses\n");
+        final long start = System.nanoTime();
+        OrgMerge.Result result = OrgMerge.merge(BASE, local, remote);
+        final long millis = (System.nanoTime() - start) / 1000000;
+        assertTrue(result.isClean());
+        assertEquals(local.replace("- weeds\n", "- roses\n"), result.content);
+        assertTrue("took " + millis + " ms", millis < 5000);
+    }
+
+    @Test
+    public void reportsConflictAndKeepsLocalVersion() {
+        final String local = BASE.replace("- dishes\n", "- dishes tonight\n");
+        final String remote = BASE.replace("- dishes\n", "- dishes tomorrow\n");
+        OrgMerge.Result result = OrgMerge.merge(BASE, local, remote);
+        assertFalse(result.isClean());
+        assertEquals(Arrays.asList("* Home"), result.conflicts);
+        assertEquals(local, result.content);
+    }
+
+    @Test
+    public void localEditToRemotelyDeletedSectionConflicts() {
+        final String local = BASE.replace("- weeds\n", "- weeds and moss\n");
+        final String remote = BASE.replace("* Garden\n- weeds\n", "");
+        OrgMerge.Result result = OrgMerge.merge(BASE, local, remote);
+        assertEquals(Arrays.asList("* Garden"), result.conflicts);
+    }
+
+    @Test
+    public void missingFinalNewlineDoesNotConflict() {
+        final String base = "* Work\n- report";
+        final String local = "* Work\n- report\n* Home\n- dishes\n";
+        final String remote = "#+TITLE: life\n* Work\n- report";
+        OrgMerge.Result result = OrgMerge.merge(base, local, remote);
+        assertTrue(result.isClean());
+        assertEquals("#+TITLE: life\n* Work\n- report\n* Home\n- dishes\n", result.content);
+    }
+}
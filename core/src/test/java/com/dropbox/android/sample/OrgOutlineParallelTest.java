@@ -0,0 +1,137 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class OrgOutlineParallelTest {
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void shutDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void matchesSequentialParseForAnySegmentCount() {
+        Random random = new Random(7);
+        for (int round = 0; round < 50; ++round) {
+            final String content = generate(random, 1 + random.nextInt(400));
+            final OrgOutline expected = OrgOutline.parse(content);
+            for (int segments = 2; segments <= 17; ++segments) {
+                assertSameOutline(content + " in " + segments, expected,
+                        OrgOutline.parseParallel(content, mExecutor, segments));
+            }
+        }
+    }
+
+    @Test
+    public void segmentBoundsInsideHeadingLines() {
+        // Long heading lines, so most even splits land inside one.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; ++i) {
+            sb.append("* ");
+            for (int j = 0; j < 200; ++j) {
+                sb.append((char)('a' + (i + j) % 26));
+            }
+            sb.append('\n').append(i % 3 == 0 ? "** sub\n" : "body\n");
+        }
+        final String content = sb.toString();
+        for (int segments = 2; segments <= 40; ++segments) {
+            assertSameOutline("in " + segments, OrgOutline.parse(content),
+                    OrgOutline.parseParallel(content, mExecutor, segments));
+        }
+    }
+
+    @Test
+    public void subtreesCrossingSegments() {
+        // One top-level subtree spanning every segment, then another.
+        StringBuilder sb = new StringBuilder("* big\n");
+        for (int i = 0; i < 2000; ++i) {
+            sb.append("** child ").append(i).append("\n*** grandchild\nbody\n");
+        }
+        sb.append("* after\n");
+        final String content = sb.toString();
+        OrgOutline parallel = OrgOutline.parseParallel(content, mExecutor, 8);
+        assertSameOutline("", OrgOutline.parse(content), parallel);
+        assertEquals(content.indexOf("* after"), parallel.subtreeEnd(0));
+        assertEquals(content.length(), parallel.subtreeEnd(parallel.size() - 1));
+    }
+
+    @Test
+    public void contentWithoutNewlinesOrHeadings() {
+        final String[] contents = { "", "x", "* single heading without newline", "no headings\nat all\n", "*\n*\n" };
+        for (String content : contents) {
+            for (int segments = 2; segments <= 5; ++segments) {
+                assertSameOutline(content, OrgOutline.parse(content),
+                        OrgOutline.parseParallel(content, mExecutor, segments));
+            }
+        }
+    }
+
+    @Test
+    public void largeDocumentMatchesSequentialParse() {
+        Random random = new Random(11);
+        OrgDocument document = OrgDocument.EMPTY;
+        while (document.length() < 3 * 1024 * 1024) {
+            document = document.append(generate(random, 2000));
+        }
+        final OrgOutline expected = OrgOutline.parse(document.toString());
+        assertSameOutline("", expected, OrgOutline.parseParallel(document));
+        assertSameOutline("", expected, OrgOutline.parseParallel(document, mExecutor, 4));
+    }
+
+    @Test
+    public void rejectedSegmentsAreParsedOnCaller() {
+        final String content = generate(new Random(3), 300);
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        assertSameOutline("", OrgOutline.parse(content), OrgOutline.parseParallel(content, stopped, 4));
+    }
+
+    /** Headings of random levels, with bodies that include lines that only look like headings. */
+    private static String generate(Random random, int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; ++i) {
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    for (int stars = 1 + random.nextInt(4); stars > 0; --stars) {
+                        sb.append('*');
+                    }
+                    sb.append(' ').append("heading ").append(i);
+                    break;
+                case 2:
+                    sb.append("*bold* text ").append(i);
+                    break;
+                case 3:
+                    sb.append(random.nextBoolean() ? "**" : "");
+                    break;
+                default:
+                    sb.append("- item ").append(Long.toHexString(random.nextLong()));
+                    break;
+            }
+            if (i < lines - 1 || random.nextBoolean())
+                sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void assertSameOutline(String message, OrgOutline expected, OrgOutline actual) {
+        assertEquals(message, expected.size(), actual.size());
+        assertEquals(message, expected.length(), actual.length());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(message, expected.level(i), actual.level(i));
+            assertEquals(message, expected.start(i), actual.start(i));
+            assertEquals(message, expected.titleEnd(i), actual.titleEnd(i));
+            assertEquals(message, expected.bodyStart(i), actual.bodyStart(i));
+            assertEquals(message, expected.end(i), actual.end(i));
+            assertEquals(message, expected.subtreeEnd(i), actual.subtreeEnd(i));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class OrgOutlineTest {
+    // The regex the outline replaced: the first level-1 heading up to the next line starting with '*'.
+    private static final Pattern ORG_FIRST_ENTRY_PATTERN = Pattern.compile("^(\\* .*?)\\n\\*", Pattern.DOTALL);
+
+    private static final String LIFE = "* 2026-03-07\n- [ ] call Bob\n- [X] roof\n"
+            + "** notes\ntext\n"
+            + "* Projects\n** house\n*** roof\n** garden\n"
+            + "* Inbox\n";
+
+    @Test
+    public void indexesHeadingsAndSections() {
+        OrgOutline outline = OrgOutline.parse(LIFE);
+        assertEquals(7, outline.size());
+        assertEquals(LIFE.length(), outline.length());
+
+        assertEquals(1, outline.level(0));
+        assertEquals(0, outline.start(0));
+        assertEquals("2026-03-07", outline.title(LIFE, 0));
+        assertEquals(LIFE.indexOf("- [ ]"), outline.bodyStart(0));
+        assertEquals(LIFE.indexOf("** notes"), outline.end(0));
+        assertEquals(LIFE.indexOf("* Projects"), outline.subtreeEnd(0));
+
+        assertEquals(2, outline.level(1));
+        assertEquals("notes", outline.title(LIFE, 1));
+        assertEquals(3, outline.level(4));
+        assertEquals("roof", outline.title(LIFE, 4));
+        assertEquals(LIFE.indexOf("** garden"), outline.subtreeEnd(3));
+        assertEquals(LIFE.indexOf("* Inbox"), outline.subtreeEnd(2));
+
+        assertEquals("Inbox", outline.title(LIFE, 6));
+        assertEquals(LIFE.length() - 1, outline.titleEnd(6));
+        assertEquals(LIFE.length(), outline.end(6));
+        assertEquals(LIFE.length(), outline.subtreeEnd(6));
+    }
+
+    @Test
+    public void findsSectionAtOffset() {
+        final String content = "preamble\n* a\nbody\n* b\n";
+        OrgOutline outline = OrgOutline.parse(content);
+        assertEquals(-1, outline.indexAt(0));
+        assertEquals(0, outline.indexAt(content.indexOf("* a")));
+        assertEquals(0, outline.indexAt(content.indexOf("body")));
+        assertEquals(1, outline.indexAt(content.length() - 1));
+    }
+
+    @Test
+    public void onlyStarsFollowedBySpaceAtLineStartAreHeadings() {
+        final String content = "*bold* line\n*\n** \n a * b\n*** deep\nx ** not\n****\n";
+        OrgOutline outline = OrgOutline.parse(content);
+        assertEquals(2, outline.size());
+        assertEquals(2, outline.level(0));
+        assertEquals(content.indexOf("** \n"), outline.start(0));
+        assertEquals("", outline.title(content, 0));
+        assertEquals(3, outline.level(1));
+        assertEquals("deep", outline.title(content, 1));
+    }
+
+    @Test
+    public void lastHeadingWithoutNewline() {
+        final String content = "* a\n* b";
+        OrgOutline outline = OrgOutline.parse(content);
+        assertEquals(2, outline.size());
+        assertEquals(content.length(), outline.titleEnd(1));
+        assertEquals(content.length(), outline.bodyStart(1));
+        assertEquals("b", outline.title(content, 1));
+    }
+
+    @Test
+    public void emptyContentHasNoHeadings() {
+        OrgOutline outline = OrgOutline.parse("");
+        assertEquals(0, outline.size());
+        assertEquals(0, outline.length());
+        assertEquals(-1, outline.indexAt(0));
+    }
+
+    @Test
+    public void documentPiecesParseLikeString() {
+        OrgDocument document = OrgDocument.of("* 2026-03-07\n- [ ] call").append(" Bob\n*")
+                .append("* notes\n").append(LIFE.substring(LIFE.indexOf("text\n")));
+        final String content = document.toString();
+        OrgOutline fromDocument = OrgOutline.parse(document);
+        OrgOutline fromString = OrgOutline.parse(content);
+        assertEquals(fromString.size(), fromDocument.size());
+        for (int i = 0; i < fromString.size(); ++i) {
+            assertEquals(fromString.level(i), fromDocument.level(i));
+            assertEquals(fromString.start(i), fromDocument.start(i));
+            assertEquals(fromString.titleEnd(i), fromDocument.titleEnd(i));
+            assertEquals(fromString.end(i), fromDocument.end(i));
+        }
+    }
+
+    @Test
+    public void dailyLogMatchesOldPattern() {
+        final String[] contents = {
+            LIFE,
+            "",
+            "no heading at all\n",
+            "preamble\n* 2026-03-07\n- a\n* Next\n",
+            "** 2026-03-07\n- a\n* Next\n",
+            "* 2026-03-07\n- only heading\n",
+            "* 2026-03-07",
+            "* 2026-03-07\n* Next\n",
+            "* 2026-03-07\r\n- a\r\n** sub\r\n* Next\r\n",
+        };
+        for (String content : contents) {
+            final OrgDocument document = OrgDocument.of(content);
+            assertEquals(content, oldDailyLog(content), OrgUtil.GetOrgDailyLog(document));
+            assertEquals(content, oldRevisedDailyLog(content, "* new log"),
+                    OrgUtil.GetRevisedDailyLog(document, "* new log").toString());
+        }
+    }
+
+    @Test
+    public void dailyLogRunsPastBoldLines() {
+        // Deliberately unlike the regex, which stopped at any line starting with '*'.
+        final String content = "* 2026-03-07\n*bold* reminder\n- a\n* Next\n";
+        assertEquals("* 2026-03-07\n*bold* reminder\n- a", OrgUtil.GetOrgDailyLog(OrgDocument.of(content)));
+        assertNotEquals(oldDailyLog(content), OrgUtil.GetOrgDailyLog(OrgDocument.of(content)));
+        assertEquals("* new log\n* Next\n",
+                OrgUtil.GetRevisedDailyLog(OrgDocument.of(content), "* new log").toString());
+    }
+
+    @Test
+    public void revisedDailyLogKeepsContentWithoutDailyLog() {
+        final OrgDocument document = OrgDocument.of("* only heading\n");
+        assertSame(document, OrgUtil.GetRevisedDailyLog(document, "* new log"));
+    }
+
+    private static String oldDailyLog(String content) {
+        Matcher m = ORG_FIRST_ENTRY_PATTERN.matcher(content);
+        return m.find() ? m.group(1) : "";
+    }
+
+    private static String oldRevisedDailyLog(String content, String newDailyLog) {
+        Matcher m = ORG_FIRST_ENTRY_PATTERN.matcher(content);
+        if (!m.find())
+            return content;
+        return new StringBuilder(content).replace(m.start(1), m.end(1), newDailyLog).toString();
+    }
+}
@@ -0,0 +1,185 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class OrgSectionEditorTest {
+    private static final String ORG =
+            "* Log\n"
+            + "  morning notes\n"
+            + "** Work\n"
+            + "   standup\n"
+            + "*** Meetings\n"
+            + "    one on one\n"
+            + "** Empty\n"
+            + "** Café 😀\n"
+            + "   croissant\n"
+            + "* Projects\n"
+            + "** Work\n"
+            + "   elsewhere\n";
+
+    @Test
+    public void listsTheLogWithSubHeadingsCollapsed() {
+        OrgSectionEditor editor = new OrgSectionEditor("r1", OrgDocument.of(ORG));
+        assertEquals("r1", editor.getRev());
+        assertEquals(Arrays.asList("Log", "Work", "Empty", "Café 😀"), titles(editor));
+        assertEquals(1, editor.level(0));
+        assertEquals(2, editor.level(1));
+        assertTrue(editor.isExpanded(0));
+        assertFalse(editor.isExpanded(1));
+        assertTrue(editor.hasChildren(1));
+        assertFalse(editor.hasChildren(2));
+        assertFalse(editor.hasChildren(3));
+
+        editor.toggle(1);
+        assertEquals(Arrays.asList("Log", "Work", "Meetings", "Empty", "Café 😀"), titles(editor));
+        assertEquals(3, editor.level(2));
+        editor.toggle(1);
+        assertEquals(4, editor.getRowCount());
+        // The entry itself stays expanded.
+        editor.toggle(0);
+        assertEquals(4, editor.getRowCount());
+    }
+
+    @Test
+    public void keepsExpandedTitlesAcrossEditors() {
+        OrgSectionEditor editor = new OrgSectionEditor("r1", OrgDocument.of(ORG));
+        editor.toggle(1);
+        assertEquals(new HashSet<>(Arrays.asList("Work")), editor.expandedTitles());
+
+        OrgSectionEditor refreshed = new OrgSectionEditor("r2", OrgDocument.of(ORG));
+        refreshed.expand(editor.expandedTitles());
+        assertEquals(titles(editor), titles(refreshed));
+    }
+
+    @Test
+    public void hasNoRowsWithoutALeadingEntry() {
+        assertEquals(0, new OrgSectionEditor("r1", OrgDocument.EMPTY).getRowCount());
+        assertEquals(0, new OrgSectionEditor("r1", OrgDocument.of("preamble\n* Log\n")).getRowCount());
+        assertEquals(0, new OrgSectionEditor("r1", OrgDocument.of("** Log\n")).getRowCount());
+        assertEquals(1, new OrgSectionEditor("r1", OrgDocument.of("* Log")).getRowCount());
+    }
+
+    @Test
+    public void slicesBodiesWithoutTheirLastNewline() {
+        OrgSectionEditor editor = new OrgSectionEditor("r1", OrgDocument.of(ORG));
+        editor.toggle(1);
+        assertEquals("  morning notes", editor.body(0));
+        assertEquals("   standup", editor.body(1));
+        assertEquals("    one on one", editor.body(2));
+        assertEquals("", editor.body(3));
+        assertEquals("   croissant", editor.body(4));
+    }
+
+    @Test
+    public void tracksEdits() {
+        OrgSectionEditor editor = new OrgSectionEditor("r1", OrgDocument.of(ORG));
+        editor.setBody(1, editor.body(1));
+        assertFalse(editor.isEdited());
+        assertEquals(0, editor.getEditCount());
+
+        editor.setBody(1, "   retro");
+        assertTrue(editor.isEdited());
+        assertEquals("   retro", editor.body(1));
+        assertEquals(1, editor.getEditCount());
+        OrgSectionEditor.Edits before = editor.edits();
+
+        // Typing the original back undoes the edit, but still counts as a change.
+        editor.setBody(1, "   standup");
+        assertFalse(editor.isEdited());
+        assertEquals(2, editor.getEditCount());
+        assertSame(editor.getContent(), editor.edits().applyTo(editor.getContent()));
+        // Edits taken earlier are unaffected.
+        assertEquals(ORG.replace("   standup", "   retro"), before.applyTo(editor.getContent()).toString());
+    }
+
+    @Test
+    public void splicesEditedBodies() {
+        OrgSectionEditor editor = new OrgSectionEditor("r1", OrgDocument.of(ORG));
+        editor.toggle(1);
+        editor.setBody(0, "  evening notes\n  and more");
+        editor.setBody(2, "");
+        editor.setBody(3, "   no longer empty");
+        editor.setBody(4, "   pain au chocolat 😀");
+        final String expected = "* Log\n"
+                + "  evening notes\n  and more\n"
+                + "** Work\n"
+                + "   standup\n"
+                + "*** Meetings\n"
+                + "\n"
+                + "** Empty\n"
+                + "   no longer empty\n"
+                + "** Café 😀\n"
+                + "   pain au chocolat 😀\n"
+                + "* Projects\n"
+                + "** Work\n"
+                + "   elsewhere\n";
+        assertEquals(expected, editor.edits().applyTo(editor.getContent()).toString());
+    }
+
+    @Test
+    public void unchangedBodiesSpliceBackToTheSameContent() {
+        OrgSectionEditor editor = new OrgSectionEditor("r1", OrgDocument.of(ORG));
+        editor.toggle(1);
+        for (int row = 0; row < editor.getRowCount(); ++row) {
+            // An edit of every section that puts the same text back.
+            final String body = editor.body(row);
+            editor.setBody(row, body + "x");
+            editor.setBody(row, body);
+        }
+        assertEquals(ORG, editor.edits().applyTo(editor.getContent()).toString());
+    }
+
+    @Test
+    public void editsTheLastHeadingOfTheFile() {
+        OrgSectionEditor editor = new OrgSectionEditor("r1", OrgDocument.of("* Log\n** Last"));
+        editor.setBody(1, "   body");
+        assertEquals("* Log\n** Last\n   body", editor.edits().applyTo(editor.getContent()).toString());
+
+        editor = new OrgSectionEditor("r1", OrgDocument.of("* Log\n** Last\n"));
+        editor.setBody(1, "   body");
+        assertEquals("* Log\n** Last\n   body", editor.edits().applyTo(editor.getContent()).toString());
+    }
+
+    @Test
+    public void appliesToNewerContentByHeading() {
+        OrgSectionEditor editor = new OrgSectionEditor("r1", OrgDocument.of(ORG));
+        editor.setBody(3, "   baguette");
+        // Meanwhile the log grew a section in front and a capture at the end.
+        final String newer = ORG.replace("** Work\n   standup\n", "** Gym\n   squats\n** Work\n   standup\n")
+                + "** captured\n";
+        assertEquals(newer.replace("   croissant", "   baguette"),
+                editor.edits().applyTo(OrgDocument.of(newer)).toString());
+
+        // The edited section's heading is gone: nothing to apply to.
+        assertNull(editor.edits().applyTo(OrgDocument.of(ORG.replace("** Café 😀", "** Tea"))));
+    }
+
+    @Test
+    public void editsTheLogsOwnOfRepeatedHeadings() {
+        OrgSectionEditor editor = new OrgSectionEditor("r1", OrgDocument.of(ORG));
+        editor.setBody(1, "   planning");
+        // "** Work" is under Projects as well; the log's own stays the one edited.
+        final String newer = "* Log\n  moved\n" + ORG.substring(ORG.indexOf("** Work"));
+        assertEquals(newer.replaceFirst("   standup", "   planning"),
+                editor.edits().applyTo(OrgDocument.of(newer)).toString());
+    }
+
+    private static List<String> titles(OrgSectionEditor editor) {
+        List<String> titles = new ArrayList<>();
+        for (int row = 0; row < editor.getRowCount(); ++row) {
+            titles.add(editor.title(row));
+        }
+        return titles;
+    }
+}
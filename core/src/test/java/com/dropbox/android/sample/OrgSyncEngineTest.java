@@ -0,0 +1,153 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dropbox.android.sample.OrgUtil.OrgData;
+
+public class OrgSyncEngineTest {
+    private static final String PATH = "/life.org";
+    private static final String INBOX_FILE = "/life.inbox/20260301-090000-000.org";
+    private static final String ENTRY = "\n** call Bob\n   [2026-03-01 Sun 09:00]\n   about the roof";
+
+    private File mDir;
+    private TestStore mStore;
+    private OrgSyncEngine mEngine;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("engine", "");
+        mDir.delete();
+        mDir.mkdirs();
+        mStore = new TestStore(new File(mDir, "store"));
+        mEngine = new OrgSyncEngine(mStore, new OrgCache(new File(mDir, "life.org.cache")), PATH);
+    }
+
+    @After
+    public void tearDown() {
+        deleteAll(mDir);
+    }
+
+    @Test
+    public void writeFoldsInboxAndDeletesIt() throws IOException {
+        final String rev = write(PATH, "* Tasks\n", null);
+        write(INBOX_FILE, ENTRY, null);
+        OrgData written = mEngine.update(rev, OrgDocument.of("* Tasks\n- roof\n"), null, null);
+        assertEquals("* Tasks\n- roof\n" + ENTRY, read(PATH));
+        assertEquals(written.rev, mStore.getRev(PATH));
+        assertTrue(mStore.list("/life.inbox").isEmpty());
+    }
+
+    @Test
+    public void failedInboxDeleteNeitherFailsWriteNorDuplicatesEntry() throws IOException {
+        final String rev = write(PATH, "* Tasks\n", null);
+        write(INBOX_FILE, ENTRY, null);
+        mStore.mFailDeletes = true;
+        OrgData first = mEngine.update(rev, OrgDocument.of("* Tasks\n- roof\n"), null, null);
+        assertEquals(first.rev, mStore.getRev(PATH));
+        assertEquals(first.rev, mEngine.getSyncedData().rev);
+        assertEquals(1, mStore.list("/life.inbox").size());
+
+        mStore.mFailDeletes = false;
+        final String edited = first.fileFullContent.toString() + "- gutter\n";
+        mEngine.update(first.rev, OrgDocument.of(edited), null, null);
+        assertEquals(edited, read(PATH));
+        assertTrue(mStore.list("/life.inbox").isEmpty());
+    }
+
+    @Test
+    public void flushAppendsCapturesToExistingFile() throws IOException {
+        write(PATH, "* Tasks\n- roof\n", null);
+        CaptureJournal journal = new CaptureJournal(new File(mDir, "journal"));
+        journal.append(PATH, ENTRY);
+        journal.append("/other.org", ENTRY);
+        mStore.mWrites = 0;
+
+        OrgSyncEngine.FlushResult result = mEngine.flushCaptures(journal);
+        assertEquals(1, result.flushed);
+        assertEquals(0, result.pending);
+        assertEquals("* Tasks\n- roof\n" + ENTRY, read(PATH));
+        // Only the capture went up, not the file.
+        assertEquals(0, mStore.mWrites);
+        assertEquals(ENTRY.getBytes(OrgCache.UTF_8.name()).length, mStore.mAppendedBytes);
+        assertEquals(1, journal.readAll().size());
+    }
+
+    @Test
+    public void flushWritesNewFileAndFilesUnderHeading() throws IOException {
+        CaptureJournal journal = new CaptureJournal(new File(mDir, "journal"));
+        journal.append(PATH, ENTRY);
+        assertEquals(1, mEngine.flushCaptures(journal).flushed);
+        assertEquals(ENTRY, read(PATH));
+        assertEquals(1, mStore.mWrites);
+
+        journal.append(PATH, "Calls", ENTRY.replace("Bob", "Ann"));
+        assertEquals(1, mEngine.flushCaptures(journal).flushed);
+        assertTrue(read(PATH).startsWith(ENTRY + "\n* Calls\n"));
+        assertTrue(read(PATH).contains("call Ann"));
+        assertEquals(2, mStore.mWrites);
+        assertTrue(journal.isEmpty());
+    }
+
+    private String write(String path, String content, String parentRev) throws IOException {
+        final byte[] bytes = content.getBytes(OrgCache.UTF_8.name());
+        return mStore.write(path, new ByteArrayInputStream(bytes), bytes.length, parentRev, null);
+    }
+
+    private String read(String path) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mStore.read(path, out);
+        return new String(out.toByteArray(), OrgCache.UTF_8.name());
+    }
+
+    private static class TestStore extends LocalOrgStore {
+        boolean mFailDeletes = false;
+        int mWrites = 0;
+        long mAppendedBytes = 0;
+
+        TestStore(File root) {
+            super(root);
+        }
+
+        @Override
+        public String write(String path, InputStream in, long length, String parentRev,
+                            ProgressListener listener) throws IOException {
+            if (path.equals(PATH))
+                ++mWrites;
+            return super.write(path, in, length, parentRev, listener);
+        }
+
+        @Override
+        public synchronized String append(String path, InputStream in, long length) throws IOException {
+            mAppendedBytes += length;
+            return super.append(path, in, length);
+        }
+
+        @Override
+        public synchronized void delete(String path) throws IOException {
+            if (mFailDeletes)
+                throw new IOException("delete failed: " + path);
+            super.delete(path);
+        }
+    }
+
+    private static void deleteAll(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
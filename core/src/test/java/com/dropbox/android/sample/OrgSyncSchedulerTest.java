@@ -0,0 +1,238 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class OrgSyncSchedulerTest {
+    private static final long WAIT_SECONDS = 10;
+    private static final String KEY = "/life.org";
+
+    // Listeners are called right on the thread that finished the operation.
+    private final OrgSyncScheduler mScheduler = new OrgSyncScheduler(2, new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    });
+    private final List<String> mRan = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch mGate = new CountDownLatch(1);
+
+    @After
+    public void openGate() {
+        mGate.countDown();
+    }
+
+    @Test
+    public void runsOperationsOnOneKeyInSubmissionOrder() throws Exception {
+        Latch done = new Latch(3);
+        mScheduler.write(KEY, 0, record("first", 20), done);
+        mScheduler.write(KEY, 0, record("second", 0), done);
+        mScheduler.coalesce(KEY, "flush", 0, record("third", 0), done);
+        done.await();
+        assertEquals(Arrays.asList("first", "second", "third"), mRan);
+    }
+
+    @Test
+    public void coalesceReplacesQueuedOperationAndSharesItsResult() throws Exception {
+        mScheduler.write(KEY, 0, blockUntilGateOpens(), new Latch(1));
+        Latch first = new Latch(1);
+        Latch second = new Latch(1);
+        mScheduler.coalesce(KEY, "save", 0, record("v1", 0), first);
+        mScheduler.coalesce(KEY, "save", 0, record("v2", 0), second);
+        mGate.countDown();
+        assertEquals("v2", first.result());
+        assertEquals("v2", second.result());
+        assertEquals(Arrays.asList("v2"), mRan);
+    }
+
+    @Test
+    public void readsWithTheSameTagJoin() throws Exception {
+        mScheduler.write(KEY, 0, blockUntilGateOpens(), new Latch(1));
+        Latch first = new Latch(1);
+        Latch second = new Latch(1);
+        mScheduler.read(KEY, "fetch", 0, record("fetch", 0), first);
+        mScheduler.read(KEY, "fetch", 0, record("fetch again", 0), second);
+        mGate.countDown();
+        assertEquals("fetch", first.result());
+        assertEquals("fetch", second.result());
+        assertEquals(Arrays.asList("fetch"), mRan);
+    }
+
+    @Test
+    public void cancelDropsQueuedRead() throws Exception {
+        mScheduler.write(KEY, 0, blockUntilGateOpens(), new Latch(1));
+        Latch read = new Latch(1);
+        mScheduler.read(KEY, "fetch", 0, record("fetch", 0), read).cancel();
+        Latch after = new Latch(1);
+        mScheduler.write(KEY, 0, record("after", 0), after);
+        mGate.countDown();
+        after.await();
+        assertEquals(Arrays.asList("after"), mRan);
+        assertFalse(read.called());
+    }
+
+    @Test
+    public void cancelKeepsQueuedWriteButDetachesListener() throws Exception {
+        mScheduler.write(KEY, 0, blockUntilGateOpens(), new Latch(1));
+        Latch save = new Latch(1);
+        Latch flush = new Latch(1);
+        mScheduler.write(KEY, 0, record("save", 0), save).cancel();
+        mScheduler.coalesce(KEY, "flush", 0, record("flush", 0), flush).cancel();
+        Latch after = new Latch(1);
+        mScheduler.write(KEY, 0, record("after", 0), after);
+        mGate.countDown();
+        after.await();
+        assertEquals(Arrays.asList("save", "flush", "after"), mRan);
+        assertFalse(save.called());
+        assertFalse(flush.called());
+    }
+
+    @Test
+    public void handleIsDoneOnceDeliveredOrCancelled() throws Exception {
+        Latch done = new Latch(1);
+        OrgSyncScheduler.Handle handle = mScheduler.write(KEY, 0, record("save", 0), done);
+        done.await();
+        awaitDone(handle);
+
+        mScheduler.write(KEY, 0, blockUntilGateOpens(), new Latch(1));
+        OrgSyncScheduler.Handle queued = mScheduler.write(KEY, 0, record("queued", 0), new Latch(1));
+        assertFalse(queued.isDone());
+        queued.cancel();
+        assertTrue(queued.isDone());
+    }
+
+    @Test
+    public void timeoutFailsAndInterruptsOperation() throws Exception {
+        Latch read = new Latch(1);
+        mScheduler.read(KEY, "fetch", 50, blockUntilGateOpens(), read);
+        read.await();
+        assertTrue(read.error() instanceof TimeoutException);
+        // The interrupted operation returns and the key is free again.
+        Latch after = new Latch(1);
+        mScheduler.write(KEY, 0, record("after", 0), after);
+        assertEquals("after", after.result());
+    }
+
+    @Test
+    public void startedWriteIsNotTimedOut() throws Exception {
+        Latch write = new Latch(1);
+        mScheduler.write(KEY, 50, new OrgSyncScheduler.Operation<String>() {
+            @Override
+            public String run(OrgSyncScheduler.Progress progress) throws Exception {
+                // Outlives its timeout; an interrupt would end the wait early.
+                mGate.await();
+                Thread.sleep(100);
+                mRan.add("save");
+                return "saved";
+            }
+        }, write);
+        Thread.sleep(150);
+        assertFalse(write.called());
+        mGate.countDown();
+        assertEquals("saved", write.result());
+        assertEquals(Arrays.asList("save"), mRan);
+    }
+
+    @Test
+    public void queuedWriteTimesOutWithoutRunning() throws Exception {
+        mScheduler.write(KEY, 0, blockUntilGateOpens(), new Latch(1));
+        Latch save = new Latch(1);
+        Latch flush = new Latch(1);
+        mScheduler.write(KEY, 50, record("save", 0), save);
+        mScheduler.coalesce(KEY, "flush", 50, record("flush", 0), flush);
+        save.await();
+        flush.await();
+        assertTrue(save.error() instanceof TimeoutException);
+        assertTrue(flush.error() instanceof TimeoutException);
+
+        mGate.countDown();
+        Latch after = new Latch(1);
+        mScheduler.write(KEY, 0, record("after", 0), after);
+        after.await();
+        assertEquals(Arrays.asList("after"), mRan);
+    }
+
+    // A handle is done once its listener returns, which is just after the latch opens.
+    private static void awaitDone(OrgSyncScheduler.Handle handle) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SECONDS);
+        while (!handle.isDone()) {
+            assertTrue("not done", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private OrgSyncScheduler.Operation<String> record(final String name, final long sleepMs) {
+        return new OrgSyncScheduler.Operation<String>() {
+            @Override
+            public String run(OrgSyncScheduler.Progress progress) throws Exception {
+                Thread.sleep(sleepMs);
+                mRan.add(name);
+                return name;
+            }
+        };
+    }
+
+    private OrgSyncScheduler.Operation<String> blockUntilGateOpens() {
+        return new OrgSyncScheduler.Operation<String>() {
+            @Override
+            public String run(OrgSyncScheduler.Progress progress) throws Exception {
+                mGate.await();
+                return "gate";
+            }
+        };
+    }
+
+    private static class Latch extends OrgSyncListener<String> {
+        private final CountDownLatch mLatch;
+        private final AtomicReference<String> mResult = new AtomicReference<>();
+        private final AtomicReference<Exception> mError = new AtomicReference<>();
+
+        Latch(int count) {
+            mLatch = new CountDownLatch(count);
+        }
+
+        @Override
+        public void onSyncSuccess(String result) {
+            mResult.set(result);
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onSyncFailure(Exception e) {
+            mError.set(e);
+            mLatch.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("timed out", mLatch.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        String result() throws InterruptedException {
+            await();
+            assertEquals(null, mError.get());
+            return mResult.get();
+        }
+
+        Exception error() {
+            return mError.get();
+        }
+
+        boolean called() {
+            return mResult.get() != null || mError.get() != null;
+        }
+    }
+}
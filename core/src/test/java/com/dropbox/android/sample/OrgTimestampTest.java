@@ -0,0 +1,153 @@
+package com.dropbox.android.sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class OrgTimestampTest {
+    @Test
+    public void parsesActiveAndInactive() {
+        assertTimestamp(OrgTimestamp.Kind.ACTIVE, 20160503, -1, OrgTimestamp.parse("<2016-05-03 Tue>"));
+        assertTimestamp(OrgTimestamp.Kind.ACTIVE, 20160503, 10 * 60, OrgTimestamp.parse("<2016-05-03 Tue 10:00>"));
+        assertTimestamp(OrgTimestamp.Kind.INACTIVE, 20160503, -1, OrgTimestamp.parse("[2016-05-03 Tue]"));
+        assertTimestamp(OrgTimestamp.Kind.INACTIVE, 20160503, 9 * 60 + 5, OrgTimestamp.parse("[2016-05-03 Tue 9:05]"));
+        // The day name is optional and in any language.
+        assertTimestamp(OrgTimestamp.Kind.ACTIVE, 20160503, -1, OrgTimestamp.parse("<2016-05-03>"));
+        assertTimestamp(OrgTimestamp.Kind.ACTIVE, 20160503, -1, OrgTimestamp.parse("<2016-05-03 mar.>"));
+        // Captures are stamped "[yyyy-MM.dd EEE]".
+        assertTimestamp(OrgTimestamp.Kind.INACTIVE, 20160503, -1, OrgTimestamp.parse("[2016-05.03 Tue]"));
+    }
+
+    @Test
+    public void parsesPlanningKeywords() {
+        assertTimestamp(OrgTimestamp.Kind.SCHEDULED, 20160503, 9 * 60,
+                OrgTimestamp.parse("SCHEDULED: <2016-05-03 Tue 09:00>"));
+        assertTimestamp(OrgTimestamp.Kind.DEADLINE, 20160510, -1,
+                OrgTimestamp.parse("DEADLINE: <2016-05-10 Tue>"));
+        assertTimestamp(OrgTimestamp.Kind.CLOSED, 20160503, 18 * 60 + 30,
+                OrgTimestamp.parse("CLOSED: [2016-05-03 Tue 18:30]"));
+        assertTimestamp(OrgTimestamp.Kind.SCHEDULED, 20160503, -1,
+                OrgTimestamp.parse("SCHEDULED:<2016-05-03 Tue>"));
+    }
+
+    @Test
+    public void ignoresRepeatersWarningsAndRangeEnds() {
+        assertTimestamp(OrgTimestamp.Kind.SCHEDULED, 20160503, 9 * 60,
+                OrgTimestamp.parse("SCHEDULED: <2016-05-03 Tue 09:00 .+1w>"));
+        assertTimestamp(OrgTimestamp.Kind.DEADLINE, 20160510, -1,
+                OrgTimestamp.parse("DEADLINE: <2016-05-10 Tue ++1m -3d>"));
+        assertTimestamp(OrgTimestamp.Kind.ACTIVE, 20160503, 10 * 60,
+                OrgTimestamp.parse("<2016-05-03 Tue 10:00-11:30>"));
+    }
+
+    @Test
+    public void rejectsMalformedTimestamps() {
+        final String[] bad = {
+            "", "2016-05-03", "<2016-05-03 Tue]", "[2016-05-03 Tue>", "<2016-13-03 Tue>", "<2016-00-03 Tue>",
+            "<2016-05-32 Tue>", "<2016-05-00 Tue>", "<2016-05-03 Tue 25:00>", "<2016-05-03 Tue 24:30>", "<2016-05-03 Tue 10:60>",
+            "<2016-5-3 Tue>", "<16-05-03 Tue>", "SOMEDAY: <2016-05-03 Tue>", "<2016-05-03 Tue> trailing",
+        };
+        for (String text : bad) {
+            assertNull(text, OrgTimestamp.parse(text));
+        }
+    }
+
+    @Test
+    public void findsAllTimestampsInARegion() {
+        final String text = "* TODO Call the plumber\n"
+                + "  SCHEDULED: <2016-05-03 Tue 09:00> DEADLINE: <2016-05-10 Tue>\n"
+                + "  seen [2016-05-01 Sun], not <2016-05-32 Wed>, then <2016-06-01 Wed 24:00>\n";
+        List<OrgTimestamp> timestamps = OrgTimestamp.parseAll(text, 0, text.length());
+        assertEquals(4, timestamps.size());
+        assertTimestamp(OrgTimestamp.Kind.SCHEDULED, 20160503, 9 * 60, timestamps.get(0));
+        assertTimestamp(OrgTimestamp.Kind.DEADLINE, 20160510, -1, timestamps.get(1));
+        assertTimestamp(OrgTimestamp.Kind.INACTIVE, 20160501, -1, timestamps.get(2));
+        assertTimestamp(OrgTimestamp.Kind.ACTIVE, 20160601, 24 * 60, timestamps.get(3));
+
+        // Only what lies wholly inside the region counts.
+        final int second = text.indexOf("DEADLINE");
+        assertEquals(1, OrgTimestamp.parseAll(text, second, text.indexOf('\n', second)).size());
+        assertEquals(1, OrgTimestamp.parseAll(text, 0, second - 1).size());
+        assertEquals(0, OrgTimestamp.parseAll(text, 0, second - 2).size());
+    }
+
+    @Test
+    public void formatsBackToWhatItParses() {
+        final String[] texts = {
+            "<2016-05-03>", "<2016-05-03 10:00>", "[2016-05-03]", "[2016-05-03 00:05]",
+            "SCHEDULED: <2016-05-03 09:00>", "DEADLINE: <2016-12-31>", "CLOSED: [2016-05-03 18:30]",
+        };
+        for (String text : texts) {
+            final OrgTimestamp timestamp = OrgTimestamp.parse(text);
+            assertEquals(text, timestamp.toString());
+            final OrgTimestamp again = OrgTimestamp.parse(timestamp.toString());
+            assertTimestamp(timestamp.kind, timestamp.date, timestamp.minutes, again);
+        }
+    }
+
+    @Test
+    public void sortsByDayThenTime() {
+        final OrgTimestamp[] ordered = {
+            OrgTimestamp.parse("<2016-05-02 23:59>"),
+            OrgTimestamp.parse("<2016-05-03>"),
+            OrgTimestamp.parse("<2016-05-03 00:00>"),
+            OrgTimestamp.parse("<2016-05-03 10:00>"),
+            OrgTimestamp.parse("<2016-05-03 23:59>"),
+            OrgTimestamp.parse("<2016-05-03 24:00>"),
+            OrgTimestamp.parse("<2016-05-04>"),
+            OrgTimestamp.parse("<2016-12-31 24:00>"),
+            OrgTimestamp.parse("<2017-01-01>"),
+        };
+        for (int i = 1; i < ordered.length; ++i) {
+            assertTrue(ordered[i - 1] + " < " + ordered[i], ordered[i - 1].sortKey() < ordered[i].sortKey());
+            assertEquals(-1, ordered[i - 1].compareTo(ordered[i]));
+            assertEquals(1, ordered[i].compareTo(ordered[i - 1]));
+        }
+        assertEquals(0, ordered[3].compareTo(OrgTimestamp.parse("[2016-05-03 10:00]")));
+    }
+
+    @Test
+    public void parsesDateRanges() {
+        Calendar today = Calendar.getInstance(Locale.US);
+        today.clear();
+        today.set(2016, Calendar.MAY, 5); // a Thursday; US weeks start on Sunday
+
+        assertArrayEquals(new int[] { 20160505, 20160505 }, OrgIndex.dateRange("today", today));
+        assertArrayEquals(new int[] { 20160501, 20160507 }, OrgIndex.dateRange("week", today));
+        assertArrayEquals(new int[] { 20160501, 20160531 }, OrgIndex.dateRange("Month", today));
+        assertArrayEquals(new int[] { 20160503, 20160503 }, OrgIndex.dateRange("2016-05-03", today));
+        assertArrayEquals(new int[] { 20160501, 20160515 }, OrgIndex.dateRange("2016-05-01..2016-05-15", today));
+        assertNull(OrgIndex.dateRange("tomorrow", today));
+        assertNull(OrgIndex.dateRange("2016-05-01..", today));
+        assertNull(OrgIndex.dateRange("2016-05-40", today));
+
+        today.set(2016, Calendar.FEBRUARY, 29);
+        assertArrayEquals(new int[] { 20160201, 20160229 }, OrgIndex.dateRange("month", today));
+        assertArrayEquals(new int[] { 20160228, 20160305 }, OrgIndex.dateRange("week", today));
+    }
+
+    @Test
+    public void keepsOneFormatterPerThreadAndPattern() {
+        assertSame(OrgTimestamp.formatter("yyyy-MM-dd", Locale.US), OrgTimestamp.formatter("yyyy-MM-dd", Locale.US));
+        assertTrue(OrgTimestamp.formatter("yyyy-MM-dd", Locale.US) != OrgTimestamp.formatter("yyyy-MM-dd", Locale.FRANCE));
+        Calendar day = Calendar.getInstance(Locale.US);
+        day.clear();
+        day.set(2016, Calendar.MAY, 3);
+        assertEquals("[2016-05.03 Tue]", OrgTimestamp.formatter(OrgTimestamp.CAPTURE_FORMAT, Locale.US).format(day.getTime()));
+        assertEquals(20160503, OrgTimestamp.dateOf(day));
+    }
+
+    private static void assertTimestamp(OrgTimestamp.Kind kind, int date, int minutes, OrgTimestamp timestamp) {
+        assertEquals(kind, timestamp.kind);
+        assertEquals(date, timestamp.date);
+        assertEquals(minutes, timestamp.minutes);
+    }
+}